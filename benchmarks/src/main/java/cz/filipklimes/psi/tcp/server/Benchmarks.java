@@ -0,0 +1,37 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Level;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its allocation rate.
+ * <p>
+ * Accepts the usual JMH command line, e.g. {@code java -jar benchmarks.jar Checksum -p size=65536}.
+ *
+ * @author klimesf
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+    }
+
+    /**
+     * Creates the services of a server which stages photos in memory, writes them on the session's thread
+     * and does not log, so the benchmarks measure the protocol and not the console.
+     *
+     * @return Services of the server.
+     */
+    public static ServerContext createServerContext() {
+        Configuration configuration = Configuration.parse(new String[]{"--photo-writers=0", "--log-level=off"});
+        Log.setLevel(Level.OFF);
+        return new ServerContext(configuration);
+    }
+}
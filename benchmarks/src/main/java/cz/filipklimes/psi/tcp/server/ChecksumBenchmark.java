@@ -0,0 +1,135 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The word-at-a-time {@link ByteSumChecksum} against the byte-by-byte loop it replaced.
+ * <p>
+ * Every invocation sums {@link #BYTES} bytes in chunks of {@link #size} bytes, so the scores are bytes per second.
+ * The baseline is the loop of the original {@code AwaitingFOTOState.readPhoto}: one {@code read()} of a
+ * {@link BufferedInputStream} per byte, added to the sum.
+ *
+ * @author klimesf
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ChecksumBenchmark.BYTES)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+    /**
+     * Number of bytes summed by an invocation.
+     */
+    static final int BYTES = 64 * 1024;
+
+    /**
+     * Number of bytes of a summed chunk.
+     */
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private byte[] bytes;
+    private ByteBuffer direct;
+    private byte[] chunk;
+
+    /**
+     * Stream of the photo, long-lived like the session's input.
+     */
+    private InputStream input;
+
+    @Setup
+    public void setUp() {
+        this.bytes = new byte[BYTES];
+        new Random(42).nextBytes(this.bytes);
+        this.direct = ByteBuffer.allocateDirect(BYTES);
+        this.direct.put(this.bytes).flip();
+        this.chunk = new byte[this.size];
+        this.input = new BufferedInputStream(new RepeatingInputStream(this.bytes));
+    }
+
+    /**
+     * The original loop, the size of the chunks does not matter to it.
+     */
+    @Benchmark
+    public long byteByByteStream() throws IOException {
+        long sum = 0;
+        for (int counter = 0; counter < BYTES; counter++) {
+            int current = this.input.read();
+            sum += current;
+        }
+        return sum;
+    }
+
+    /**
+     * Chunks read from the same stream, as the states read the photo now.
+     */
+    @Benchmark
+    public long swarStream() throws IOException {
+        long sum = 0;
+        int remaining = BYTES;
+        while (remaining > 0) {
+            int read = this.input.read(this.chunk, 0, Math.min(remaining, this.size));
+            sum += ByteSumChecksum.sum(this.chunk, 0, read);
+            remaining -= read;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long swar() {
+        long sum = 0;
+        for (int offset = 0; offset < BYTES; offset += this.size) {
+            sum += ByteSumChecksum.sum(this.bytes, offset, this.size);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long swarDirect() {
+        long sum = 0;
+        ByteBuffer buffer = this.direct.duplicate();
+        for (int offset = 0; offset < BYTES; offset += this.size) {
+            buffer.limit(offset + this.size).position(offset);
+            sum += ByteSumChecksum.sum(buffer);
+        }
+        return sum;
+    }
+
+    /**
+     * Endless stream repeating the same bytes, a robot sending one photo after another.
+     */
+    private static class RepeatingInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private int position = 0;
+
+        private RepeatingInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            int current = this.bytes[this.position] & 0xff;
+            this.position = (this.position + 1) % this.bytes.length;
+            return current;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int read = Math.min(len, this.bytes.length - this.position);
+            System.arraycopy(this.bytes, this.position, b, off, read);
+            this.position = (this.position + read) % this.bytes.length;
+            return read;
+        }
+    }
+}
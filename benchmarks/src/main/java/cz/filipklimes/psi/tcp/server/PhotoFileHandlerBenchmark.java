@@ -0,0 +1,91 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a photo to disk through {@link PhotoFileHandlerImpl}, one byte at a time as the server used to,
+ * in chunks of the given size, and from a direct buffer.
+ *
+ * @author klimesf
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhotoFileHandlerBenchmark {
+
+    /**
+     * Number of bytes of the photo.
+     */
+    @Param({"65536", "1048576"})
+    public int photoSize;
+
+    /**
+     * Number of bytes appended at once.
+     */
+    @Param({"8192", "65536"})
+    public int chunkSize;
+
+    private byte[] photo;
+    private ByteBuffer direct;
+    private Path directory;
+    private String fileName;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.photo = new byte[this.photoSize];
+        new Random(42).nextBytes(this.photo);
+        this.direct = ByteBuffer.allocateDirect(this.photoSize);
+        this.direct.put(this.photo).flip();
+        this.directory = Files.createTempDirectory("photo-benchmark");
+        this.fileName = this.directory.resolve("foto.png").toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.directory.resolve("foto.png"));
+        Files.deleteIfExists(this.directory);
+    }
+
+    @Benchmark
+    public boolean byteByByte() {
+        PhotoFileHandler handler = new PhotoFileHandlerImpl(this.fileName);
+        boolean written = true;
+        for (byte b : this.photo) {
+            written &= handler.append(b);
+        }
+        return handler.close() && written;
+    }
+
+    @Benchmark
+    public boolean chunks() {
+        PhotoFileHandler handler = new PhotoFileHandlerImpl(this.fileName);
+        boolean written = true;
+        for (int offset = 0; offset < this.photo.length; offset += this.chunkSize) {
+            written &= handler.append(this.photo, offset, Math.min(this.chunkSize, this.photo.length - offset));
+        }
+        return handler.close() && written;
+    }
+
+    @Benchmark
+    public boolean directBuffer() {
+        PhotoFileHandler handler = new PhotoFileHandlerImpl(this.fileName);
+        ByteBuffer buffer = this.direct.duplicate();
+        boolean written = true;
+        while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.slice(buffer.position(), Math.min(this.chunkSize, buffer.remaining()));
+            written &= handler.append(chunk);
+            buffer.position(buffer.position() + chunk.capacity());
+        }
+        return handler.close() && written;
+    }
+}
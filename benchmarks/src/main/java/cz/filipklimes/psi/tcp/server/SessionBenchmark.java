@@ -0,0 +1,64 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole robot session driven through the state machine of {@link Client}: the greeting, login, password,
+ * a burst of INFO messages and a FOTO message with a bad checksum, closed by a syntax error.
+ *
+ * @author klimesf
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+
+    /**
+     * Number of INFO messages of the session.
+     */
+    @Param({"10", "100"})
+    public int infos;
+
+    private ServerContext serverContext;
+    private Transcript transcript;
+
+    @Setup
+    public void setUp() {
+        this.serverContext = Benchmarks.createServerContext();
+        Transcript.Builder builder = new Transcript.Builder().login("Robot Karel the 345th");
+        for (int i = 0; i < this.infos; i++) {
+            builder.info(32);
+        }
+        this.transcript = builder.foto(4096, false).text("LOGOUT\r\n").build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.serverContext.getTimer().stop();
+    }
+
+    @Benchmark
+    public Client session() throws IOException {
+        this.transcript.rewind();
+        Client client = new Client(
+                () -> {
+                },
+                1,
+                this.transcript,
+                new BufferedOutputStream(OutputStream.nullOutputStream()),
+                this.serverContext
+        );
+        while (!client.isClosed()) {
+            client.step();
+        }
+        return client;
+    }
+}
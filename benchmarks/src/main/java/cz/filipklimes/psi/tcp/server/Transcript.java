@@ -0,0 +1,156 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Bytes a robot sends to the server, replayed from memory.
+ * <p>
+ * The whole transcript is the buffer of the stream, so reading it never touches the underlying stream
+ * and {@link #rewind()} replays it without allocating.
+ *
+ * @author klimesf
+ */
+public class Transcript extends BufferedInputStream {
+
+    /**
+     * @param bytes Bytes the robot sends.
+     */
+    public Transcript(byte[] bytes) {
+        super(InputStream.nullInputStream(), 1);
+        this.buf = bytes;
+        this.count = bytes.length;
+    }
+
+    /**
+     * Starts reading the transcript from its beginning again.
+     */
+    public void rewind() {
+        this.pos = 0;
+        this.count = this.buf.length;
+        this.markpos = -1;
+    }
+
+    /**
+     * Keeps the transcript, so it can be replayed after the session disconnected.
+     */
+    @Override
+    public void close() {
+        // do nothing
+    }
+
+    /**
+     * Writes the messages a robot sends during a session.
+     */
+    public static class Builder {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Random random = new Random(42);
+
+        /**
+         * Adds the login and the password computed from it.
+         *
+         * @param login Login of the robot.
+         * @return The builder.
+         */
+        public Builder login(String login) {
+            return this.login(login, true).password(login);
+        }
+
+        /**
+         * Adds the login line.
+         *
+         * @param login Login of the robot.
+         * @param line  Terminate the line?
+         * @return The builder.
+         */
+        public Builder login(String login, boolean line) {
+            this.bytes.writeBytes(login.getBytes(StandardCharsets.US_ASCII));
+            if (line) {
+                this.bytes.writeBytes(new byte[]{'\r', '\n'});
+            }
+            return this;
+        }
+
+        /**
+         * Adds the password line, the byte sum of the login.
+         *
+         * @param login Login of the robot.
+         * @return The builder.
+         */
+        public Builder password(String login) {
+            int password = 0;
+            for (byte b : login.getBytes(StandardCharsets.US_ASCII)) {
+                password += b & 0xff;
+            }
+            return this.text(password + "\r\n");
+        }
+
+        /**
+         * Adds an INFO message.
+         *
+         * @param length Number of characters of the text.
+         * @return The builder.
+         */
+        public Builder info(int length) {
+            StringBuilder text = new StringBuilder("INFO ");
+            for (int i = 0; i < length; i++) {
+                text.append((char) ('a' + this.random.nextInt(26)));
+            }
+            return this.text(text.append("\r\n").toString());
+        }
+
+        /**
+         * Adds a FOTO message with random photo bytes.
+         *
+         * @param length       Number of bytes of the photo.
+         * @param checksumOkay Should the checksum match the photo?
+         * @return The builder.
+         */
+        public Builder foto(int length, boolean checksumOkay) {
+            byte[] photo = new byte[length];
+            this.random.nextBytes(photo);
+            int checksum = 0;
+            for (byte b : photo) {
+                checksum += b & 0xff;
+            }
+            if (!checksumOkay) {
+                checksum++;
+            }
+            this.text("FOTO " + length + " ");
+            this.bytes.writeBytes(photo);
+            this.bytes.writeBytes(new byte[]{
+                    (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum
+            });
+            return this;
+        }
+
+        /**
+         * Adds raw text.
+         *
+         * @param text The text.
+         * @return The builder.
+         */
+        public Builder text(String text) {
+            this.bytes.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+            return this;
+        }
+
+        /**
+         * @return Bytes of the transcript.
+         */
+        public byte[] toByteArray() {
+            return this.bytes.toByteArray();
+        }
+
+        /**
+         * @return The transcript.
+         */
+        public Transcript build() {
+            return new Transcript(this.bytes.toByteArray());
+        }
+    }
+}
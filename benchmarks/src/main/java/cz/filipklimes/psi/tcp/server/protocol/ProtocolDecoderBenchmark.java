@@ -0,0 +1,168 @@
+package cz.filipklimes.psi.tcp.server.protocol;
+
+import cz.filipklimes.psi.tcp.server.Transcript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a whole session pushed to the decoder in fragments, the way the NIO engine receives it.
+ * <p>
+ * The listener only sums what it gets, so the score is the cost of the decoder itself.
+ *
+ * @author klimesf
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolDecoderBenchmark {
+
+    /**
+     * Number of bytes delivered by one read from the socket.
+     */
+    @Param({"1", "1460", "65536"})
+    public int fragment;
+
+    private ByteBuffer session;
+    private final Listener listener = new Listener();
+
+    @Setup
+    public void setUp() {
+        Transcript.Builder builder = new Transcript.Builder().login("Robot Karel the 345th");
+        for (int i = 0; i < 10; i++) {
+            builder.info(64);
+        }
+        builder.foto(256 * 1024, true);
+        this.session = ByteBuffer.wrap(builder.toByteArray());
+    }
+
+    @Benchmark
+    public long decode() throws Exception {
+        ProtocolDecoder decoder = new ProtocolDecoder();
+        int length = this.session.capacity();
+        for (int position = 0; position < length; position += this.fragment) {
+            this.session.limit(Math.min(position + this.fragment, length)).position(position);
+            decoder.decode(this.session, this.listener);
+        }
+        return this.listener.sum;
+    }
+
+    /**
+     * Sums the decoded values, so the decoding cannot be optimized away.
+     */
+    private static class Listener implements ProtocolListener {
+
+        private long sum = 0;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onMessageStart() {
+            this.sum++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onLoginData(ByteBuffer data) {
+            this.sum += data.remaining();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean onLogin(int calculatedPassword, boolean passwordStartOkay) {
+            this.sum += calculatedPassword;
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onPassword(long password) {
+            this.sum += password;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onTokenRequest() {
+            this.sum++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onInfo() {
+            this.sum++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onFotoStart(int length) {
+            this.sum += length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onOffsetRequest(int length) {
+            this.sum += length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onFotoResume(int length, int offset) {
+            this.sum += offset;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onFotoData(ByteBuffer data) {
+            this.sum += data.remaining();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onFotoEnd(long checksum) {
+            this.sum += checksum;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onSyntaxError() {
+            this.sum--;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cz.filipklimes.psi.tcp.server.states;
+
+import cz.filipklimes.psi.tcp.server.Benchmarks;
+import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.ServerContext;
+import cz.filipklimes.psi.tcp.server.Transcript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a single message by each state, replayed from an in-memory robot transcript.
+ * <p>
+ * The FOTO message carries a bad checksum, so the staged photo is discarded instead of written to disk;
+ * writing photos is measured by {@code PhotoFileHandlerBenchmark}.
+ *
+ * @author klimesf
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark {
+
+    private static final String LOGIN = "Robot Karel the 345th";
+
+    private ServerContext serverContext;
+    private Client client;
+
+    private final Transcript login = new Transcript.Builder().login(LOGIN, true).build();
+    private final Transcript password = new Transcript.Builder().password(LOGIN).build();
+    private final Transcript message = new Transcript.Builder().text("INFO ").build();
+
+    /**
+     * Body of an INFO message, the states get the input after the "INFO " prefix.
+     */
+    @State(Scope.Thread)
+    public static class Info {
+
+        @Param({"16", "256", "4096"})
+        public int length;
+
+        private Transcript transcript;
+
+        @Setup
+        public void setUp() {
+            this.transcript = new Transcript.Builder().info(this.length).build();
+        }
+    }
+
+    /**
+     * Body of a FOTO message, the states get the input after the "FOTO " prefix.
+     */
+    @State(Scope.Thread)
+    public static class Foto {
+
+        @Param({"1024", "65536", "1048576"})
+        public int length;
+
+        private Transcript transcript;
+
+        @Setup
+        public void setUp() {
+            this.transcript = new Transcript.Builder().foto(this.length, false).build();
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        this.serverContext = Benchmarks.createServerContext();
+        this.client = new Client(
+                () -> {
+                },
+                1,
+                this.login,
+                new BufferedOutputStream(OutputStream.nullOutputStream()),
+                this.serverContext
+        );
+
+        // The password state checks the login read before it
+        AwaitingLoginState.INSTANCE.readMessage(this.client, this.login);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.serverContext.getTimer().stop();
+    }
+
+    @Benchmark
+    public Object login() throws IOException {
+        this.login.rewind();
+        AwaitingLoginState.INSTANCE.readMessage(this.client, this.login);
+        return this.client.getSession().getNextState();
+    }
+
+    @Benchmark
+    public Object password() throws IOException {
+        this.password.rewind();
+        AwaitingPasswordState.INSTANCE.readMessage(this.client, this.password);
+        return this.client.getSession().getNextState();
+    }
+
+    @Benchmark
+    public Object message() throws IOException {
+        this.message.rewind();
+        AwaitingMessageState.INSTANCE.readMessage(this.client, this.message);
+        return this.client.getSession().getNextState();
+    }
+
+    @Benchmark
+    public Object info(Info info) throws IOException {
+        info.transcript.rewind();
+        info.transcript.skip(5);
+        AwaitingINFOState.INSTANCE.readMessage(this.client, info.transcript);
+        return this.client.getSession().getNextState();
+    }
+
+    @Benchmark
+    public Object foto(Foto foto) throws IOException {
+        foto.transcript.rewind();
+        foto.transcript.skip(5);
+        AwaitingFOTOState.INSTANCE.readMessage(this.client, foto.transcript);
+        return this.client.getSession().getNextState();
+    }
+}
@@ -0,0 +1,122 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the ring spreads the logins evenly and moves only about one in N of them when a worker comes or goes.
+ *
+ * @author klimesf
+ */
+class HashRingTest {
+
+    private static final int REPLICAS = 128;
+
+    private static final int LOGINS = 20_000;
+
+    private static Worker worker(int number) {
+        return new Worker("worker-" + number, InetSocketAddress.createUnresolved("127.0.0.1", 4000 + number), null);
+    }
+
+    private static byte[] login(int number) {
+        return ("Robot " + number).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Map<Integer, Worker> owners(HashRing ring) {
+        Map<Integer, Worker> owners = new HashMap<>();
+        for (int login = 0; login < LOGINS; login++) {
+            owners.put(login, ring.route(login(login)).get(0));
+        }
+        return owners;
+    }
+
+    private static HashRing ring(Worker... workers) {
+        HashRing ring = new HashRing(REPLICAS);
+        for (Worker worker : workers) {
+            ring.add(worker);
+        }
+        return ring;
+    }
+
+    @Test
+    void loginsAreSpreadEvenly() {
+        Worker[] workers = {worker(0), worker(1), worker(2), worker(3)};
+        Map<Integer, Worker> owners = owners(ring(workers));
+
+        for (Worker worker : workers) {
+            long logins = owners.values().stream().filter(owner -> owner == worker).count();
+            assertEquals(LOGINS / 4.0, logins, LOGINS * 0.06, worker.getName());
+        }
+    }
+
+    @Test
+    void addedWorkerTakesAboutOneInNLoginsFromTheOthers() {
+        Worker[] workers = {worker(0), worker(1), worker(2), worker(3)};
+        HashRing ring = ring(workers);
+        Map<Integer, Worker> before = owners(ring);
+
+        Worker added = worker(4);
+        ring.add(added);
+        Map<Integer, Worker> after = owners(ring);
+
+        int moved = 0;
+        for (int login = 0; login < LOGINS; login++) {
+            if (after.get(login) != before.get(login)) {
+                assertSame(added, after.get(login), "a login moved between the old workers");
+                moved++;
+            }
+        }
+        assertEquals(LOGINS / 5.0, moved, LOGINS * 0.05);
+    }
+
+    @Test
+    void removedWorkersLoginsMoveToTheirNextWorkerOnly() {
+        Worker[] workers = {worker(0), worker(1), worker(2), worker(3)};
+        HashRing ring = ring(workers);
+        Map<Integer, List<Worker>> routes = new HashMap<>();
+        for (int login = 0; login < LOGINS; login++) {
+            routes.put(login, ring.route(login(login)));
+        }
+
+        ring.remove(workers[2]);
+
+        int moved = 0;
+        for (int login = 0; login < LOGINS; login++) {
+            List<Worker> route = routes.get(login);
+            Worker owner = ring.route(login(login)).get(0);
+            if (route.get(0) == workers[2]) {
+                assertSame(route.get(1), owner, "a login did not move to the next worker of its route");
+                moved++;
+            } else {
+                assertSame(route.get(0), owner, "a login of a remaining worker moved");
+            }
+        }
+        assertEquals(LOGINS / 4.0, moved, LOGINS * 0.06);
+        assertNull(ring.get("worker-2"));
+    }
+
+    @Test
+    void routeListsEveryWorkerOnce() {
+        Worker[] workers = {worker(0), worker(1), worker(2)};
+        HashRing ring = ring(workers);
+
+        for (int login = 0; login < 100; login++) {
+            List<Worker> route = ring.route(login(login));
+            assertEquals(3, route.size());
+            assertEquals(3, new HashSet<>(route).size());
+        }
+        assertSame(workers[1], ring.get("worker-1"));
+        assertTrue(new HashRing(REPLICAS).route(login(0)).isEmpty());
+    }
+}
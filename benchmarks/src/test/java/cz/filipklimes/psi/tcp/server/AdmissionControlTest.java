@@ -0,0 +1,99 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the session and handshake limits.
+ *
+ * @author klimesf
+ */
+class AdmissionControlTest {
+
+    @Test
+    void sessionsOverTheLimitAreRejectedUntilOneCloses() {
+        AdmissionControl admission = new AdmissionControl(2, 0);
+        assertTrue(admission.tryAdmit());
+        assertTrue(admission.tryAdmit());
+        admission.handshakeCompleted();
+
+        assertFalse(admission.tryAdmit());
+        admission.sessionClosed(true);
+        assertTrue(admission.tryAdmit());
+        assertFalse(admission.tryAdmit());
+    }
+
+    @Test
+    void handshakesOverTheLimitAreRejectedUntilOneLogsIn() {
+        AdmissionControl admission = new AdmissionControl(0, 2);
+        assertTrue(admission.tryAdmit());
+        assertTrue(admission.tryAdmit());
+        assertEquals(2, admission.getHandshakes());
+
+        assertFalse(admission.tryAdmit());
+        admission.handshakeCompleted();
+        assertEquals(1, admission.getHandshakes());
+        assertTrue(admission.tryAdmit());
+
+        // A session closed before logging in frees its handshake too
+        assertFalse(admission.tryAdmit());
+        admission.sessionClosed(false);
+        assertTrue(admission.tryAdmit());
+    }
+
+    @Test
+    void sessionRejectedByTheHandshakeLimitDoesNotTakeASession() {
+        AdmissionControl admission = new AdmissionControl(2, 1);
+        assertTrue(admission.tryAdmit());
+        assertFalse(admission.tryAdmit());
+
+        admission.handshakeCompleted();
+        assertTrue(admission.tryAdmit());
+        admission.handshakeCompleted();
+        assertFalse(admission.tryAdmit());
+    }
+
+    @Test
+    void zeroLimitsAdmitEverySession() {
+        AdmissionControl admission = new AdmissionControl(0, 0);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(admission.tryAdmit());
+        }
+        assertEquals(10_000, admission.getHandshakes());
+    }
+
+    @Test
+    void concurrentAdmissionsNeverExceedTheLimit() throws InterruptedException {
+        AdmissionControl admission = new AdmissionControl(100, 0);
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int j = 0; j < 1000; j++) {
+                    if (admission.tryAdmit()) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, admitted.get());
+    }
+}
@@ -0,0 +1,109 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the word-at-a-time sum against a byte-by-byte loop.
+ *
+ * @author klimesf
+ */
+class ByteSumChecksumTest {
+
+    /**
+     * Longer than a fold of the lanes, so the lanes are folded more than once.
+     */
+    private static final int FOLDS_LENGTH = 2 * 128 * Long.BYTES + 17;
+
+    @Test
+    void sumsShortUnalignedRunsOfRandomBytes() {
+        Random random = new Random(42);
+        byte[] bytes = new byte[64];
+        for (int run = 0; run < 10_000; run++) {
+            random.nextBytes(bytes);
+            int length = random.nextInt(18);
+            int offset = random.nextInt(bytes.length - length + 1);
+            assertSums(bytes, offset, length);
+        }
+    }
+
+    @Test
+    void sumsHighBytesOverSeveralFolds() {
+        byte[] bytes = new byte[FOLDS_LENGTH + 7];
+        Arrays.fill(bytes, (byte) 0xff);
+        for (int offset = 0; offset < 8; offset++) {
+            assertSums(bytes, offset, FOLDS_LENGTH);
+        }
+        bytes = new byte[FOLDS_LENGTH];
+        Arrays.fill(bytes, (byte) 0x80);
+        assertSums(bytes, 0, FOLDS_LENGTH);
+    }
+
+    @Test
+    void sumsLongRandomRuns() {
+        Random random = new Random(7);
+        byte[] bytes = new byte[FOLDS_LENGTH];
+        random.nextBytes(bytes);
+        for (int length = FOLDS_LENGTH - 17; length <= FOLDS_LENGTH; length++) {
+            assertSums(bytes, FOLDS_LENGTH - length, length);
+        }
+    }
+
+    @Test
+    void updatesTheValueAcrossChunks() {
+        byte[] bytes = new byte[100];
+        new Random(3).nextBytes(bytes);
+        ByteSumChecksum checksum = new ByteSumChecksum();
+        checksum.update(bytes, 0, 13);
+        checksum.update(ByteBuffer.wrap(bytes, 13, 50));
+        checksum.update(bytes[63]);
+        checksum.update(direct(bytes, 64, 36));
+        assertEquals(scalar(bytes, 0, bytes.length), checksum.getValue());
+
+        checksum.reset(5);
+        checksum.update(bytes, 0, 1);
+        assertEquals(5 + (bytes[0] & 0xff), checksum.getValue());
+    }
+
+    /**
+     * Sums the run from an array, a heap buffer with an offset into its array and a direct buffer.
+     */
+    private static void assertSums(byte[] bytes, int offset, int length) {
+        long expected = scalar(bytes, offset, length);
+        String run = "offset " + offset + ", length " + length;
+
+        assertEquals(expected, ByteSumChecksum.sum(bytes, offset, length), run);
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes, offset, length).slice();
+        assertEquals(expected, ByteSumChecksum.sum(heap), "heap, " + run);
+        assertEquals(heap.limit(), heap.position());
+
+        ByteBuffer direct = direct(bytes, offset, length);
+        int limit = direct.limit();
+        assertEquals(expected, ByteSumChecksum.sum(direct), "direct, " + run);
+        assertEquals(limit, direct.position());
+    }
+
+    /**
+     * @return Direct buffer holding the run at an unaligned position.
+     */
+    private static ByteBuffer direct(byte[] bytes, int offset, int length) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(length + 3);
+        direct.position(3);
+        direct.put(bytes, offset, length);
+        return direct.position(3);
+    }
+
+    private static long scalar(byte[] bytes, int offset, int length) {
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += bytes[i] & 0xff;
+        }
+        return sum;
+    }
+}
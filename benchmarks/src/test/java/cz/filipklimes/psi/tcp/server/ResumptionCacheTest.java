@@ -0,0 +1,66 @@
+package cz.filipklimes.psi.tcp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the expiry, the single use and the eviction of the resumption tokens.
+ *
+ * @author klimesf
+ */
+class ResumptionCacheTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void tokenIsValidOnceWithinItsTimeToLive() {
+        ResumptionCache cache = new ResumptionCache(10, 100, "");
+        long now = System.nanoTime();
+        String token = cache.issue("Robot 1", now);
+
+        assertNull(cache.take("unknown", now + SECOND));
+        assertEquals("Robot 1", cache.take(token, now + 9 * SECOND));
+        assertNull(cache.take(token, now + 9 * SECOND));
+    }
+
+    @Test
+    void tokenExpiresAfterItsTimeToLive() {
+        ResumptionCache cache = new ResumptionCache(10, 100, "");
+        long now = System.nanoTime();
+        String first = cache.issue("Robot 1", now);
+        String second = cache.issue("Robot 2", now + 5 * SECOND);
+
+        assertNull(cache.take(first, now + 10 * SECOND));
+        assertEquals("Robot 2", cache.take(second, now + 14 * SECOND));
+    }
+
+    @Test
+    void oldestTokenIsEvictedOverTheCapacity() {
+        ResumptionCache cache = new ResumptionCache(10, 2, "");
+        long now = System.nanoTime();
+        String first = cache.issue("Robot 1", now);
+        String second = cache.issue("Robot 2", now + 1);
+        String third = cache.issue("Robot 3", now + 2);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.take(first, now + 3));
+        assertEquals("Robot 2", cache.take(second, now + 3));
+        assertEquals("Robot 3", cache.take(third, now + 3));
+    }
+
+    @Test
+    void tokenStartsWithThePrefix() {
+        ResumptionCache cache = new ResumptionCache(10, 2, "worker-1");
+        String token = cache.issue("Robot 1");
+
+        assertTrue(token.startsWith("worker-1."));
+        assertNotEquals(token, cache.issue("Robot 1"));
+        assertEquals("Robot 1", cache.take(token));
+    }
+}
@@ -0,0 +1,147 @@
+package cz.filipklimes.psi.tcp.server.capture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes sessions with {@link TrafficCapture} and reads them back with {@link CaptureFile}.
+ *
+ * @author klimesf
+ */
+class TrafficCaptureTest {
+
+    private static final long QUEUE_CAPACITY = 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void interleavedSessionsAreReadBackAsTheyArrived() throws IOException {
+        Path file = this.directory.resolve("capture.bin");
+        TrafficCapture capture = new TrafficCapture(file, QUEUE_CAPACITY);
+        capture.start();
+
+        byte[] photo = new byte[100_000];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = (byte) (i * 7);
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(photo.length);
+        direct.put(photo).flip();
+
+        capture.connected(1);
+        capture.received(1, ascii("xxRobot 1\r\nxx"), 2, 9);
+        capture.connected(300);
+        capture.received(300, ByteBuffer.wrap(ascii("Robot 300\r\n")));
+        capture.received(1, direct);
+        capture.ended(1);
+        capture.received(300, ascii("INFO\r\n"), 0, 6);
+        capture.close();
+
+        assertEquals(0, direct.position(), "the buffer is left as it was");
+        List<CapturedSession> sessions = CaptureFile.read(file);
+        assertEquals(2, sessions.size());
+
+        CapturedSession first = sessions.get(0);
+        assertEquals(1, first.getClientNumber());
+        assertEquals(2, first.getChunks().size());
+        assertArrayEquals(ascii("Robot 1\r\n"), first.getChunks().get(0).getData());
+        assertArrayEquals(photo, first.getChunks().get(1).getData());
+        assertTrue(first.getEndedMicros() >= first.getChunks().get(1).getMicros());
+        assertFalse(first.isLost());
+
+        CapturedSession second = sessions.get(1);
+        assertEquals(300, second.getClientNumber());
+        assertEquals(17, second.getBytes());
+        assertEquals(-1, second.getEndedMicros());
+        assertTrue(second.getConnectedMicros() >= first.getConnectedMicros());
+        long previous = 0;
+        for (CapturedSession.Chunk chunk : second.getChunks()) {
+            assertTrue(chunk.getMicros() >= previous);
+            previous = chunk.getMicros();
+        }
+    }
+
+    @Test
+    void wrappedStreamRecordsWhatTheSessionReadsAndItsEnd() throws IOException {
+        Path file = this.directory.resolve("capture.bin");
+        TrafficCapture capture = new TrafficCapture(file, QUEUE_CAPACITY);
+
+        capture.connected(7);
+        InputStream in = capture.wrap(7, new ByteArrayInputStream(ascii("Robot 7\r\nINFO x\r\n")));
+        byte[] buffer = new byte[9];
+        assertEquals('R', in.read());
+        assertEquals(8, in.read(buffer, 0, 8));
+        assertEquals(8, in.skip(8));
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(buffer, 0, 1));
+        capture.close();
+
+        CapturedSession session = CaptureFile.read(file).get(0);
+        assertEquals(3, session.getChunks().size());
+        assertEquals(17, session.getBytes());
+        assertTrue(session.getEndedMicros() >= 0);
+    }
+
+    @Test
+    void sessionWithDroppedRecordsIsMarkedLost() throws IOException {
+        Path file = this.directory.resolve("capture.bin");
+        TrafficCapture capture = new TrafficCapture(file, 1024);
+
+        capture.connected(1);
+        capture.connected(2);
+        capture.received(2, new byte[2048], 0, 2048);
+        capture.received(1, ascii("Robot 1\r\n"), 0, 9);
+        capture.close();
+
+        List<CapturedSession> sessions = CaptureFile.read(file);
+        assertFalse(sessions.get(0).isLost());
+        assertEquals(9, sessions.get(0).getBytes());
+        assertTrue(sessions.get(1).isLost());
+        assertEquals(0, sessions.get(1).getBytes());
+    }
+
+    @Test
+    void recordCutOffAtTheEndIsIgnored() throws IOException {
+        Path file = this.directory.resolve("capture.bin");
+        TrafficCapture capture = new TrafficCapture(file, QUEUE_CAPACITY);
+        capture.connected(1);
+        capture.received(1, ascii("Robot 1\r\n"), 0, 9);
+        capture.received(1, ascii("INFO hello\r\n"), 0, 12);
+        capture.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        CapturedSession session = CaptureFile.read(file).get(0);
+        assertEquals(1, session.getChunks().size());
+        assertEquals(9, session.getBytes());
+    }
+
+    @Test
+    void otherFilesAreRejected() throws IOException {
+        Path file = this.directory.resolve("other.bin");
+        Files.write(file, ascii("not a capture file"));
+
+        assertThrows(IOException.class, () -> CaptureFile.read(file));
+    }
+}
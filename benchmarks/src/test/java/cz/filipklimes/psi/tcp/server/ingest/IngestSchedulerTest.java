@@ -0,0 +1,74 @@
+package cz.filipklimes.psi.tcp.server.ingest;
+
+import cz.filipklimes.psi.tcp.server.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Simulates uploads under the global cap, every session reads its next chunk as soon as it may.
+ *
+ * @author klimesf
+ */
+class IngestSchedulerTest {
+
+    private static final long RATE = 1_000_000;
+
+    private static final long SECONDS = 10;
+
+    @Test
+    void concurrentUploadsShareTheGlobalRateEquallyWhateverTheirChunks() {
+        long[] received = simulate(new int[]{1024, 64 * 1024}, new long[]{SECONDS, SECONDS});
+
+        double small = received[0] / (double) SECONDS;
+        double large = received[1] / (double) SECONDS;
+        assertEquals(RATE / 2.0, small, RATE * 0.05);
+        assertEquals(RATE / 2.0, large, RATE * 0.05);
+        assertTrue(received[0] + received[1] <= RATE * SECONDS + 2 * 64 * 1024 + RATE / 10);
+    }
+
+    @Test
+    void remainingUploadTakesTheWholeRateWhenTheOtherEnds() {
+        long[] received = simulate(new int[]{1024, 64 * 1024}, new long[]{SECONDS, SECONDS / 2});
+
+        // Half of the run at half of the rate, the other half at the whole rate
+        assertEquals(RATE * SECONDS * 3 / 4.0, received[0], RATE * SECONDS * 0.05);
+        assertEquals(RATE * SECONDS / 4.0, received[1], RATE * SECONDS * 0.05);
+    }
+
+    /**
+     * @param chunks  Bytes of every read of each session.
+     * @param seconds Seconds each session uploads.
+     * @return Bytes received from each session.
+     */
+    private static long[] simulate(int[] chunks, long[] seconds) {
+        IngestScheduler scheduler = new IngestScheduler(RATE, 0, new Metrics());
+        IngestShare[] shares = new IngestShare[chunks.length];
+        long start = System.nanoTime();
+        long[] next = new long[chunks.length];
+        long[] received = new long[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            shares[i] = scheduler.createShare();
+            next[i] = start;
+        }
+        while (true) {
+            int session = -1;
+            for (int i = 0; i < chunks.length; i++) {
+                boolean uploading = next[i] - start < TimeUnit.SECONDS.toNanos(seconds[i]);
+                if (uploading && (session < 0 || next[i] < next[session])) {
+                    session = i;
+                }
+            }
+            if (session < 0) {
+                return received;
+            }
+            long now = next[session];
+            received[session] += chunks[session];
+            // A read takes a microsecond even when the session need not wait
+            next[session] = now + scheduler.charge(shares[session], chunks[session], now) + 1_000;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package cz.filipklimes.psi.tcp.server.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a transcript decodes to the same messages however it is split into fragments.
+ *
+ * @author klimesf
+ */
+class ProtocolDecoderTest {
+
+    /**
+     * Every kind of message. The login contains a lone '\r' and ends with one before its "\r\n",
+     * the checksums contain bytes below 0x10 and a '\r', and the transcript ends with a syntax error.
+     */
+    private static final byte[] TRANSCRIPT = concat(
+            ascii("Robot 3\r45\r\r\n"),
+            ascii("1234\r\n"),
+            ascii("INFO hello\r\n"),
+            ascii("FOTO 5 "), ascii("a\rb\nc"), new byte[]{0x00, 0x01, 0x2a, '\r'},
+            ascii("OFST 10\r\n"),
+            ascii("RSUM 10 4 "), ascii("0123\r\n"), new byte[]{0x10, 0x0f, '\n', 0x7f},
+            ascii("TOKN\r\n"),
+            ascii("INFO \r\n"),
+            ascii("FOTX")
+    );
+
+    @Test
+    void decodesEverySplitLikeTheWholeTranscript() throws Exception {
+        List<String> expected = decodeInFragments(TRANSCRIPT.length);
+        assertEquals(List.of(
+                "start", "login Robot 3\r45\r", "login-end 732 true",
+                "start", "password 1234",
+                "start", "info",
+                "start", "foto-start 5", "foto-data a\rb\nc", "foto-end 4781",
+                "start", "offset 10",
+                "start", "foto-resume 10 4", "foto-data 0123\r\n", "foto-end 1112703",
+                "start", "token",
+                "start", "info",
+                "start", "syntax-error"
+        ), expected);
+
+        for (int split = 0; split <= TRANSCRIPT.length; split++) {
+            assertEquals(expected, decodeSplit(split), "split at " + split);
+        }
+        assertEquals(expected, decodeInFragments(1), "byte by byte");
+    }
+
+    /**
+     * Decodes the transcript in fragments of the given size.
+     */
+    private static List<String> decodeInFragments(int fragment) throws Exception {
+        Recorder recorder = new Recorder();
+        ProtocolDecoder decoder = new ProtocolDecoder();
+        for (int start = 0; start < TRANSCRIPT.length; start += fragment) {
+            int end = Math.min(start + fragment, TRANSCRIPT.length);
+            decoder.decode(ByteBuffer.wrap(TRANSCRIPT, start, end - start).slice(), recorder);
+        }
+        return recorder.finish();
+    }
+
+    /**
+     * Decodes the transcript in the two fragments around the split point, then an empty one.
+     */
+    private static List<String> decodeSplit(int split) throws Exception {
+        Recorder recorder = new Recorder();
+        ProtocolDecoder decoder = new ProtocolDecoder();
+        decoder.decode(ByteBuffer.wrap(TRANSCRIPT, 0, split).slice(), recorder);
+        decoder.decode(ByteBuffer.wrap(TRANSCRIPT, split, TRANSCRIPT.length - split).slice(), recorder);
+        decoder.decode(ByteBuffer.allocate(0), recorder);
+        return recorder.finish();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.writeBytes(part);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Records the messages as text, joining the parts of a login or of a photo which arrived in fragments.
+     */
+    private static class Recorder implements ProtocolListener {
+
+        private final List<String> events = new ArrayList<>();
+
+        /**
+         * Login or photo bytes received so far and the event they are recorded as, null if there are none.
+         */
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private String dataEvent;
+
+        @Override
+        public void onMessageStart() {
+            this.record("start");
+        }
+
+        @Override
+        public void onLoginData(ByteBuffer data) {
+            this.append("login", data);
+        }
+
+        @Override
+        public boolean onLogin(int calculatedPassword, boolean passwordStartOkay) {
+            this.record("login-end " + calculatedPassword + " " + passwordStartOkay);
+            return false;
+        }
+
+        @Override
+        public void onPassword(long password) {
+            this.record("password " + password);
+        }
+
+        @Override
+        public void onTokenRequest() {
+            this.record("token");
+        }
+
+        @Override
+        public void onInfo() {
+            this.record("info");
+        }
+
+        @Override
+        public void onFotoStart(int length) {
+            this.record("foto-start " + length);
+        }
+
+        @Override
+        public void onOffsetRequest(int length) {
+            this.record("offset " + length);
+        }
+
+        @Override
+        public void onFotoResume(int length, int offset) {
+            this.record("foto-resume " + length + " " + offset);
+        }
+
+        @Override
+        public void onFotoData(ByteBuffer data) {
+            this.append("foto-data", data);
+        }
+
+        @Override
+        public void onFotoEnd(long checksum) {
+            this.record("foto-end " + checksum);
+        }
+
+        @Override
+        public void onSyntaxError() {
+            this.record("syntax-error");
+        }
+
+        List<String> finish() {
+            this.flushData();
+            return this.events;
+        }
+
+        private void append(String event, ByteBuffer data) {
+            if (!event.equals(this.dataEvent)) {
+                this.flushData();
+                this.dataEvent = event;
+            }
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            this.data.writeBytes(bytes);
+        }
+
+        private void record(String event) {
+            this.flushData();
+            this.events.add(event);
+        }
+
+        private void flushData() {
+            if (this.dataEvent != null) {
+                this.events.add(this.dataEvent + " " + this.data.toString(StandardCharsets.ISO_8859_1));
+                this.data.reset();
+                this.dataEvent = null;
+            }
+        }
+    }
+}
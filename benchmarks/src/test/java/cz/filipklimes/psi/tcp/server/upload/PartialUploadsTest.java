@@ -0,0 +1,148 @@
+package cz.filipklimes.psi.tcp.server.upload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the offsets the robots are told, the resumption of the kept uploads and the budget of the staging area.
+ * The files are deleted on the calling thread, so the test sees them gone right away.
+ *
+ * @author klimesf
+ */
+class PartialUploadsTest {
+
+    private static final String LOGIN = "Robot 1";
+
+    private static final int LENGTH = 1000;
+
+    @TempDir
+    Path directory;
+
+    private PartialUploads uploads(long budget) {
+        return new PartialUploads(this.directory, 100, 60, budget, Runnable::run);
+    }
+
+    /**
+     * Receives the first bytes of the photo and keeps them when the robot disconnects.
+     */
+    private static PartialUpload suspend(PartialUploads uploads, String login, int length, int received) {
+        PartialUpload upload = uploads.start(login, length);
+        upload.write(ByteBuffer.wrap(bytes(received)));
+        upload.keep(received);
+        uploads.suspend(upload, received);
+        return upload;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    void shortPhotosAndDisabledStagingAreNotMirrored() {
+        assertNull(this.uploads(10_000).start(LOGIN, 99));
+        assertNull(this.uploads(0).start(LOGIN, LENGTH));
+        assertFalse(this.uploads(0).isEnabled());
+    }
+
+    @Test
+    void offsetIsTheNumberOfKeptBytesOfTheSamePhoto() {
+        PartialUploads uploads = this.uploads(10_000);
+        assertEquals(0, uploads.offset(LOGIN, LENGTH));
+
+        suspend(uploads, LOGIN, LENGTH, 400);
+
+        assertEquals(400, uploads.offset(LOGIN, LENGTH));
+        assertEquals(0, uploads.offset(LOGIN, LENGTH + 1));
+        assertEquals(0, uploads.offset("Robot 2", LENGTH));
+    }
+
+    @Test
+    void resumeTakesTheUploadOnlyAtItsOffset() throws IOException {
+        PartialUploads uploads = this.uploads(10_000);
+        PartialUpload suspended = suspend(uploads, LOGIN, LENGTH, 400);
+
+        assertNull(uploads.resume(LOGIN, LENGTH, 399));
+        assertNull(uploads.resume(LOGIN, LENGTH + 1, 400));
+        PartialUpload resumed = uploads.resume(LOGIN, LENGTH, 400);
+
+        assertSame(suspended, resumed);
+        assertEquals(400, resumed.getChecksum());
+        assertEquals(0, uploads.offset(LOGIN, LENGTH));
+        assertNull(uploads.resume(LOGIN, LENGTH, 400));
+
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        resumed.replayTo(buffer -> {
+            while (buffer.hasRemaining()) {
+                replayed.write(buffer.get());
+            }
+        });
+        assertArrayEquals(bytes(400), replayed.toByteArray());
+
+        uploads.complete(resumed);
+        assertFalse(Files.exists(resumed.getPath()));
+    }
+
+    @Test
+    void newUploadOfThePhotoDropsTheKeptOne() {
+        PartialUploads uploads = this.uploads(10_000);
+        PartialUpload suspended = suspend(uploads, LOGIN, LENGTH, 400);
+
+        PartialUpload started = uploads.start(LOGIN, LENGTH);
+
+        assertNotNull(started);
+        assertEquals(0, uploads.offset(LOGIN, LENGTH));
+        assertFalse(Files.exists(suspended.getPath()));
+    }
+
+    @Test
+    void oldestUploadsAreDroppedOverTheBudget() {
+        PartialUploads uploads = this.uploads(1000);
+        PartialUpload first = suspend(uploads, "Robot 1", LENGTH, 400);
+        PartialUpload second = suspend(uploads, "Robot 2", LENGTH, 400);
+
+        assertEquals(400, uploads.offset("Robot 1", LENGTH));
+        PartialUpload third = suspend(uploads, "Robot 3", LENGTH, 400);
+
+        assertEquals(0, uploads.offset("Robot 1", LENGTH));
+        assertFalse(Files.exists(first.getPath()));
+        assertEquals(400, uploads.offset("Robot 2", LENGTH));
+        assertEquals(400, uploads.offset("Robot 3", LENGTH));
+        assertTrue(Files.exists(second.getPath()));
+        assertTrue(Files.exists(third.getPath()));
+
+        // A resumed upload no longer counts, so the next one fits
+        assertNotNull(uploads.resume("Robot 2", LENGTH, 400));
+        suspend(uploads, "Robot 4", LENGTH, 400);
+        assertEquals(400, uploads.offset("Robot 3", LENGTH));
+        assertEquals(400, uploads.offset("Robot 4", LENGTH));
+    }
+
+    @Test
+    void uploadWithoutBytesIsNotKept() {
+        PartialUploads uploads = this.uploads(10_000);
+        PartialUpload upload = uploads.start(LOGIN, LENGTH);
+        upload.keep(0);
+        uploads.suspend(upload, 0);
+
+        assertEquals(0, uploads.offset(LOGIN, LENGTH));
+        assertNull(uploads.resume(LOGIN, LENGTH, 0));
+    }
+}
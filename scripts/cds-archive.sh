@@ -0,0 +1,70 @@
+#!/bin/sh
+# Creates a class data sharing archive of the server from a training run, for a faster start:
+#
+#     scripts/cds-archive.sh <classes> [archive] [server options ...]
+#     java -XX:SharedArchiveFile=robot.jsa -cp robot.jar cz.filipklimes.psi.tcp.server.Robot [port] [options ...]
+#
+# The JVM archives classes from jars only, a directory of compiled classes is packed into a jar named after the
+# archive, robot.jar for robot.jsa. The server must run with that jar and the JVM which wrote the archive,
+# otherwise the JVM ignores the archive.
+#
+# The server runs on TRAIN_PORT (3999) while the load generator drives the scenarios against it for
+# TRAIN_SECONDS (10), the JVM writes the classes it loaded to the archive when the server is stopped.
+#
+# With NATIVE_CONFIG=<dir> on a GraalVM JDK the native-image agent also records the reflection, resource and
+# JNI configuration of the run to <dir>, for building the server with native-image.
+set -e
+
+if [ $# -lt 1 ]; then
+    echo "Usage: $0 <classes> [archive] [server options ...]" >&2
+    exit 1
+fi
+CLASSES=$1
+ARCHIVE=${2:-robot.jsa}
+[ $# -ge 2 ] && shift 2 || shift 1
+PORT=${TRAIN_PORT:-3999}
+DURATION=${TRAIN_SECONDS:-10}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+AGENT=
+if [ -n "$NATIVE_CONFIG" ]; then
+    AGENT="-agentlib:native-image-agent=config-output-dir=$NATIVE_CONFIG"
+fi
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+ARCHIVE_PATH=$(cd "$(dirname "$ARCHIVE")" && pwd)/$(basename "$ARCHIVE")
+rm -f "$ARCHIVE_PATH"
+
+if [ -d "$CLASSES" ]; then
+    JAR=${ARCHIVE_PATH%.jsa}.jar
+    "${JAVA_HOME:+$JAVA_HOME/bin/}jar" --create --file "$JAR" -C "$CLASSES" .
+    echo "Packed $CLASSES into $JAR"
+else
+    JAR=$(cd "$(dirname "$CLASSES")" && pwd)/$(basename "$CLASSES")
+fi
+
+# The training server stores its photos in a scratch directory
+(cd "$WORK" && exec "$JAVA" -XX:ArchiveClassesAtExit="$ARCHIVE_PATH" $AGENT -cp "$JAR" \
+    cz.filipklimes.psi.tcp.server.Robot "$PORT" --log-level=error "$@" > "$WORK/port.txt" 2> "$WORK/server.log") &
+SERVER=$!
+
+# The server prints its port once it has warmed up and is about to listen
+while [ ! -s "$WORK/port.txt" ]; do
+    kill -0 "$SERVER" 2> /dev/null || { cat "$WORK/server.log" >&2; exit 1; }
+    sleep 0.1
+done
+
+"$JAVA" -cp "$JAR" cz.filipklimes.psi.tcp.loadgen.LoadGenerator "$PORT" \
+    --robots=20 --duration="$DURATION" --mix=normal:90,idle:2,slow-loris:2,large-foto:6 \
+    --large-foto-size=1048576 --idle-pause=1 --answer-timeout=5 > "$WORK/load.txt"
+
+kill -TERM "$SERVER"
+wait "$SERVER" || true
+
+if [ ! -s "$ARCHIVE_PATH" ]; then
+    cat "$WORK/server.log" >&2
+    echo "The JVM did not write $ARCHIVE_PATH" >&2
+    exit 1
+fi
+echo "Wrote $ARCHIVE_PATH ($(wc -c < "$ARCHIVE_PATH") bytes)"
@@ -0,0 +1,261 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import cz.filipklimes.psi.tcp.server.Robot;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the server as a cluster on one host: a dispatcher on the public port in front of worker processes.
+ * <p>
+ * The workers are ordinary servers started as child processes on consecutive local ports, each in its own working
+ * directory. Workers are added and drained while the cluster runs through commands on the standard input:
+ * <ul>
+ * <li>{@code add} starts another worker, {@code add <host>:<port>} puts a worker started by someone else on the ring,</li>
+ * <li>{@code drain <name>} takes a worker off the ring and stops it once its robots leave,</li>
+ * <li>{@code workers} lists the workers and their robots.</li>
+ * </ul>
+ *
+ * @author klimesf
+ */
+public class Cluster {
+
+    /**
+     * How long a started worker has to start listening.
+     */
+    private static final long STARTUP_TIMEOUT_MILLIS = 10_000;
+
+    private final ClusterConfiguration configuration;
+    private final HashRing ring;
+
+    /**
+     * All workers by name in the order they were added, including the drained ones.
+     */
+    private final Map<String, Worker> workers = new LinkedHashMap<>();
+
+    private int nextWorker = 1;
+    private int nextPort;
+
+    public Cluster(ClusterConfiguration configuration) {
+        this.configuration = configuration;
+        this.ring = new HashRing(configuration.getReplicas());
+        this.nextPort = configuration.getWorkerPort();
+    }
+
+    public static void main(String[] args) {
+        ClusterConfiguration configuration;
+        try {
+            configuration = ClusterConfiguration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.printf("Invalid arguments: %s\n", ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        Log.setLevel(configuration.getLogLevel());
+
+        Cluster cluster = new Cluster(configuration);
+        Runtime.getRuntime().addShutdownHook(new Thread(cluster::stop));
+        try {
+            cluster.run();
+        } catch (IOException ex) {
+            System.err.printf("Could not start the cluster: %s\n", ex.getMessage());
+            cluster.stop();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Starts the workers and the dispatcher, then follows the commands on the standard input.
+     *
+     * @throws IOException If a worker did not start or the public port could not be bound.
+     */
+    public void run() throws IOException {
+        for (int i = 0; i < this.configuration.getWorkers(); i++) {
+            this.startWorker();
+        }
+
+        Dispatcher dispatcher = new Dispatcher(this.ring, this.configuration.getLoginTimeout());
+        ServerSocketChannel serverSocket = dispatcher.listen(this.configuration.getPort());
+        Thread dispatcherThread = new Thread(() -> dispatcher.serve(serverSocket), "dispatcher");
+        dispatcherThread.start();
+        System.out.println(this.configuration.getPort());
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String command;
+        while ((command = commands.readLine()) != null) {
+            try {
+                this.execute(command.trim());
+            } catch (IOException | IllegalArgumentException ex) {
+                System.out.println("Failed: " + ex.getMessage());
+            }
+        }
+
+        // Without the standard input the cluster runs with the workers it has
+        try {
+            dispatcherThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(String command) throws IOException {
+        String[] words = command.split("\\s+");
+        switch (words[0]) {
+            case "":
+                break;
+            case "add":
+                if (words.length > 1) {
+                    this.addWorker(words[1]);
+                } else {
+                    this.startWorker();
+                }
+                break;
+            case "drain":
+                if (words.length < 2) {
+                    throw new IllegalArgumentException("Usage: drain <name>");
+                }
+                this.drainWorker(words[1]);
+                break;
+            case "workers":
+                this.listWorkers();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + words[0] + ", use add, drain or workers");
+        }
+    }
+
+    /**
+     * Starts a worker process on the next port and puts it on the ring once it listens.
+     *
+     * @throws IOException If the worker did not start.
+     */
+    private synchronized void startWorker() throws IOException {
+        String name = "worker-" + this.nextWorker++;
+        int port = this.nextPort++;
+        File directory = new File(this.configuration.getWorkerDirectory(), name);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        command.add(Robot.class.getName());
+        command.add(Integer.toString(port));
+        command.addAll(this.configuration.getWorkerArgs());
+        // The dispatcher routes a resumption token back to the worker named in it
+        command.add("--token-prefix=" + name);
+        Process process = new ProcessBuilder(command)
+                .directory(directory)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(directory, "worker.log")))
+                .start();
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        Worker worker = new Worker(name, address, process);
+        if (!awaitListening(worker)) {
+            process.destroy();
+            throw new IOException(name + " did not start listening on port " + port + ", see " + directory + "/worker.log");
+        }
+        this.workers.put(name, worker);
+        this.ring.add(worker);
+        System.out.println("Added " + worker);
+    }
+
+    /**
+     * Puts a worker started by someone else on the ring.
+     *
+     * @param hostAndPort Address of the worker.
+     */
+    private synchronized void addWorker(String hostAndPort) {
+        int separator = hostAndPort.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Usage: add [<host>:<port>]");
+        }
+        InetSocketAddress address = new InetSocketAddress(
+                hostAndPort.substring(0, separator), Integer.parseInt(hostAndPort.substring(separator + 1)));
+        Worker worker = new Worker("worker-" + this.nextWorker++, address, null);
+        this.workers.put(worker.getName(), worker);
+        this.ring.add(worker);
+        System.out.println("Added " + worker);
+    }
+
+    /**
+     * Takes a worker off the ring. Its robots stay connected, it is stopped when the last one leaves.
+     *
+     * @param name Name of the worker.
+     */
+    private synchronized void drainWorker(String name) {
+        Worker worker = this.workers.get(name);
+        if (worker == null) {
+            throw new IllegalArgumentException("Unknown worker: " + name);
+        }
+        this.ring.remove(worker);
+        worker.drain();
+        System.out.printf("Draining %s, %d robots left%n", worker, worker.getSessions());
+    }
+
+    private synchronized void listWorkers() {
+        for (Worker worker : this.workers.values()) {
+            System.out.printf("%s, %d robots%s%n", worker, worker.getSessions(),
+                    !worker.isAlive() ? ", stopped" : worker.isDraining() ? ", draining" : "");
+        }
+    }
+
+    /**
+     * Stops all workers the cluster started.
+     */
+    private synchronized void stop() {
+        for (Worker worker : this.workers.values()) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * Waits until the worker accepts a connection and greets it.
+     *
+     * @return false if the worker died or did not start listening in time.
+     */
+    private static boolean awaitListening(Worker worker) {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (worker.isAlive() && System.currentTimeMillis() < deadline) {
+            try (SocketChannel probe = SocketChannel.open(worker.getAddress())) {
+                probe.read(ByteBuffer.allocate(1));
+                return true;
+            } catch (IOException ex) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Class path of this JVM with absolute entries, as the workers run in their own directories.
+     */
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -0,0 +1,143 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import cz.filipklimes.psi.tcp.server.Robot;
+import cz.filipklimes.psi.tcp.server.log.Level;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the cluster parsed from the command line.
+ * <p>
+ * The first positional argument is the public port of the dispatcher, every other option has the form
+ * {@code --name=value}. Options the cluster does not know are passed to the workers, which validate them.
+ *
+ * @author klimesf
+ */
+public class ClusterConfiguration {
+
+    private int port = 3000;
+    private int workers = 2;
+    private int workerPort = 4000;
+    private String workerDirectory = "workers";
+    private int replicas = 128;
+    private int loginTimeout = Robot.TIMEOUT_IN_SECONDS;
+    private Level logLevel = Level.INFO;
+    private final List<String> workerArgs = new ArrayList<>();
+
+    /**
+     * Parses configuration from the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @return Parsed configuration.
+     * @throws IllegalArgumentException If an argument could not be parsed.
+     */
+    public static ClusterConfiguration parse(String[] args) {
+        ClusterConfiguration configuration = new ClusterConfiguration();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                configuration.port = Integer.parseInt(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option has no value: " + arg);
+            }
+            if (!configuration.set(arg.substring(2, separator), arg.substring(separator + 1))) {
+                configuration.workerArgs.add(arg);
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * @return false if the option is not the cluster's own and belongs to the workers.
+     */
+    private boolean set(String name, String value) {
+        switch (name) {
+            case "workers":
+                this.workers = Integer.parseInt(value);
+                if (this.workers < 0) {
+                    throw new IllegalArgumentException("Number of workers must not be negative");
+                }
+                return true;
+            case "worker-port":
+                this.workerPort = Integer.parseInt(value);
+                return true;
+            case "worker-dir":
+                this.workerDirectory = value;
+                return true;
+            case "replicas":
+                this.replicas = Integer.parseInt(value);
+                if (this.replicas < 1) {
+                    throw new IllegalArgumentException("Number of replicas must be positive");
+                }
+                return true;
+            case "timeout-login":
+                // The dispatcher reads the login, the workers still time out their own phases
+                this.loginTimeout = Integer.parseInt(value);
+                return false;
+            case "log-level":
+                this.logLevel = Level.valueOf(value.toUpperCase());
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Public port of the dispatcher.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Number of workers started with the cluster.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return Port of the first worker, the others listen on the following ports.
+     */
+    public int getWorkerPort() {
+        return workerPort;
+    }
+
+    /**
+     * @return Directory in which every worker gets its own working directory.
+     */
+    public String getWorkerDirectory() {
+        return workerDirectory;
+    }
+
+    /**
+     * @return Points of every worker on the hash ring.
+     */
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return Seconds the dispatcher waits for the login, 0 if it waits forever.
+     */
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    /**
+     * @return Lowest level of the logged events.
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * @return Options passed to every worker.
+     */
+    public List<String> getWorkerArgs() {
+        return workerArgs;
+    }
+}
@@ -0,0 +1,67 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Front of the cluster on the public port, relaying every robot to the worker its login hashes to.
+ * <p>
+ * The dispatcher keeps no session state of its own beyond the two connections of every robot, so the robots
+ * of a worker are not disturbed when other workers are added to or drained from the ring.
+ *
+ * @author klimesf
+ */
+public class Dispatcher {
+
+    private final HashRing ring;
+    private final int loginTimeout;
+
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("relay-", 1).factory();
+
+    /**
+     * @param ring         Hash ring of the workers.
+     * @param loginTimeout Seconds a robot has to send its login, 0 if it has forever.
+     */
+    public Dispatcher(HashRing ring, int loginTimeout) {
+        this.ring = ring;
+        this.loginTimeout = loginTimeout;
+    }
+
+    /**
+     * Binds the public port.
+     *
+     * @param port The public port.
+     * @return The listening channel.
+     * @throws IOException If the port could not be bound.
+     */
+    public ServerSocketChannel listen(int port) throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(port));
+        return serverSocket;
+    }
+
+    /**
+     * Accepts the robots until the listening channel is closed.
+     *
+     * @param serverSocket The listening channel.
+     */
+    public void serve(ServerSocketChannel serverSocket) {
+        int clientNumber = 1;
+        while (serverSocket.isOpen()) {
+            SocketChannel robot;
+            try {
+                robot = serverSocket.accept();
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Accept failed.");
+                continue;
+            }
+            Log.info(clientNumber, "Connected.");
+            this.threadFactory.newThread(new Relay(robot, clientNumber++, this.ring, this.loginTimeout)).start();
+        }
+    }
+}
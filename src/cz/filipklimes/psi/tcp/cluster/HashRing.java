@@ -0,0 +1,144 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping the logins of the robots to the workers.
+ * <p>
+ * Every worker has a number of points on the ring and a login belongs to the worker of the first point at or after
+ * the login's hash. Adding or removing a worker moves only the logins between its points and their neighbours,
+ * about one in N of them, the other logins keep their workers.
+ * <p>
+ * The ring is replaced as a whole on every change, so routing reads it without locking.
+ *
+ * @author klimesf
+ */
+public class HashRing {
+
+    private final int replicas;
+
+    private volatile NavigableMap<Long, Worker> points = Collections.emptyNavigableMap();
+
+    /**
+     * Distinct workers of the ring, so the routing knows when it has seen them all.
+     */
+    private volatile List<Worker> workers = Collections.emptyList();
+
+    /**
+     * @param replicas Points of every worker on the ring.
+     */
+    public HashRing(int replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * Puts a worker on the ring.
+     *
+     * @param worker The worker.
+     */
+    public synchronized void add(Worker worker) {
+        TreeMap<Long, Worker> points = new TreeMap<>(this.points);
+        for (int replica = 0; replica < this.replicas; replica++) {
+            points.put(hash(worker.getName() + "#" + replica), worker);
+        }
+        this.points = points;
+        this.workers = distinct(points);
+    }
+
+    /**
+     * Takes a worker off the ring, its logins move to the following workers.
+     *
+     * @param worker The worker.
+     */
+    public synchronized void remove(Worker worker) {
+        TreeMap<Long, Worker> points = new TreeMap<>(this.points);
+        points.values().removeIf(w -> w == worker);
+        this.points = points;
+        this.workers = distinct(points);
+    }
+
+    /**
+     * Lists the workers in the order a login tries them: its own worker first, then the workers
+     * its login would move to if the previous ones left the ring.
+     *
+     * @param login Login of the robot.
+     * @return Distinct workers, empty if the ring is empty.
+     */
+    public List<Worker> route(byte[] login) {
+        // A concurrent change may make the count stale, which only ends the list early or late
+        int count = this.workers.size();
+        NavigableMap<Long, Worker> points = this.points;
+        List<Worker> workers = new ArrayList<>(count);
+        long hash = hash(login);
+        for (Map<Long, Worker> part : List.of(points.tailMap(hash, true), points.headMap(hash, false))) {
+            for (Worker worker : part.values()) {
+                if (workers.size() == count) {
+                    return workers;
+                }
+                if (!workers.contains(worker)) {
+                    workers.add(worker);
+                }
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * @param name Name of the worker.
+     * @return The worker of the given name if it is on the ring, null otherwise.
+     */
+    public Worker get(String name) {
+        for (Worker worker : this.workers) {
+            if (worker.getName().equals(name)) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The workers on the ring.
+     */
+    public List<Worker> getWorkers() {
+        return this.workers;
+    }
+
+    private static List<Worker> distinct(Map<Long, Worker> points) {
+        List<Worker> workers = new ArrayList<>();
+        for (Worker worker : points.values()) {
+            if (!workers.contains(worker)) {
+                workers.add(worker);
+            }
+        }
+        return Collections.unmodifiableList(workers);
+    }
+
+    private static long hash(String key) {
+        return hash(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * First 8 bytes of the MD5 digest, spread evenly enough for the ring and cheap compared to the splicing.
+     */
+    private static long hash(byte[] key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 is not available", ex);
+        }
+        long hash = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+}
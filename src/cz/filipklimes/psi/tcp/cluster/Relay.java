@@ -0,0 +1,270 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import cz.filipklimes.psi.tcp.server.Response;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection of one robot through the dispatcher.
+ * <p>
+ * The relay greets the robot with 200 LOGIN itself and reads the login line, so it knows the worker before
+ * connecting to it. It then connects to the worker, swallows the worker's own 200 LOGIN, passes on everything
+ * the robot has sent so far and splices the two connections until one of them closes. Whatever the robot sent
+ * after its login, the password or further messages, reaches the worker untouched.
+ * <p>
+ * A robot resuming its session is routed to the worker named in its token, the only one which knows the token.
+ *
+ * @author klimesf
+ */
+class Relay implements Runnable {
+
+    /**
+     * The login is routed by this many bytes at most, a longer login is routed by its beginning.
+     */
+    private static final int LOGIN_LIMIT = 1024;
+
+    /**
+     * Capacity of the buffer of each direction of the splice.
+     */
+    private static final int SPLICE_BUFFER_SIZE = 16 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final byte[] GREETING = (Response.LOGIN + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Login of a robot resuming its session, followed by the token.
+     */
+    private static final String RESUME = "RESUME ";
+
+    private final SocketChannel robot;
+    private final int clientNumber;
+    private final HashRing ring;
+    private final int loginTimeout;
+
+    /**
+     * @param robot        Connection to the robot, in blocking mode.
+     * @param clientNumber Number of the robot in the dispatcher's log.
+     * @param ring         Hash ring of the workers.
+     * @param loginTimeout Seconds the robot has to send its login, 0 if it has forever.
+     */
+    Relay(SocketChannel robot, int clientNumber, HashRing ring, int loginTimeout) {
+        this.robot = robot;
+        this.clientNumber = clientNumber;
+        this.ring = ring;
+        this.loginTimeout = loginTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        try {
+            writeFully(this.robot, ByteBuffer.wrap(GREETING));
+            ByteBuffer head = this.readLogin();
+            if (head == null) {
+                close(this.robot);
+                return;
+            }
+            this.relay(head);
+        } catch (SocketTimeoutException ex) {
+            Log.warn(this.clientNumber, "Connection timed out.");
+            this.answerAndClose(Response.TIMEOUT);
+        } catch (IOException ex) {
+            Log.warn(this.clientNumber, "Robot disconnected.");
+            close(this.robot);
+        }
+    }
+
+    /**
+     * Reads the robot's input up to and including its login line.
+     *
+     * @return Everything the robot sent so far, ready to be written, null if the robot left before its login.
+     * @throws SocketTimeoutException If the robot did not send the login in time.
+     * @throws IOException
+     */
+    private ByteBuffer readLogin() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.loginTimeout);
+        InputStream input = this.robot.socket().getInputStream();
+        byte[] head = new byte[LOGIN_LIMIT];
+        int length = 0;
+        while (length < head.length && loginLength(head, length) < 0) {
+            if (this.loginTimeout > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                this.robot.socket().setSoTimeout((int) remaining);
+            }
+            int read = input.read(head, length, head.length - length);
+            if (read < 0) {
+                return null;
+            }
+            length += read;
+        }
+        this.robot.socket().setSoTimeout(0);
+        return ByteBuffer.wrap(head, 0, length);
+    }
+
+    /**
+     * Connects the robot to its worker, trying the following workers on the ring if it is down.
+     *
+     * @param head Everything the robot sent so far, starting with its login.
+     * @throws IOException If the robot left.
+     */
+    private void relay(ByteBuffer head) throws IOException {
+        int loginLength = loginLength(head.array(), head.limit());
+        byte[] login = Arrays.copyOf(head.array(), loginLength < 0 ? head.limit() : loginLength);
+
+        List<Worker> workers = this.route(login);
+        for (Worker worker : workers) {
+            worker.sessionOpened();
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().connect(worker.getAddress(), CONNECT_TIMEOUT_MILLIS);
+            } catch (IOException ex) {
+                Log.warn(this.clientNumber, "Worker is not reachable: {}", worker);
+                worker.sessionClosed();
+                continue;
+            }
+            try {
+                Log.debug(this.clientNumber, "Routed to {}", worker);
+                this.splice(channel, head);
+            } finally {
+                close(channel);
+                close(this.robot);
+                worker.sessionClosed();
+            }
+            return;
+        }
+        Log.warn(this.clientNumber, "No worker is available.");
+        this.answerAndClose(Response.BUSY);
+    }
+
+    /**
+     * Lists the workers the robot tries in turn. A "RESUME &lt;worker&gt;.&lt;token&gt;" login goes to the worker
+     * which issued the token first, the hash of the login only picks the workers after it.
+     *
+     * @param login Login of the robot.
+     * @return Distinct workers, empty if the ring is empty.
+     */
+    private List<Worker> route(byte[] login) {
+        List<Worker> workers = this.ring.route(login);
+        String text = new String(login, StandardCharsets.ISO_8859_1);
+        int separator = text.indexOf('.');
+        if (text.startsWith(RESUME) && separator > RESUME.length()) {
+            Worker issuer = this.ring.get(text.substring(RESUME.length(), separator));
+            if (issuer != null) {
+                workers.remove(issuer);
+                workers.add(0, issuer);
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Splices the robot with its worker until either of them closes the connection.
+     *
+     * @param worker Connection to the worker.
+     * @param head   Everything the robot sent so far.
+     * @throws IOException If the robot left.
+     */
+    private void splice(SocketChannel worker, ByteBuffer head) throws IOException {
+        // The robot has been greeted already, anything else the worker says first is its last word
+        ByteBuffer greeting = ByteBuffer.allocate(GREETING.length);
+        while (greeting.hasRemaining() && worker.read(greeting) >= 0) {
+            if (greeting.get(greeting.position() - 1) == '\n') {
+                break;
+            }
+        }
+        greeting.flip();
+        if (!greeting.equals(ByteBuffer.wrap(GREETING))) {
+            writeFully(this.robot, greeting);
+            pump(worker, this.robot);
+            return;
+        }
+
+        writeFully(worker, head);
+        Thread answers = Thread.ofVirtual().start(() -> {
+            try {
+                pump(worker, this.robot);
+            } catch (IOException ex) {
+                // the robot is gone, the other direction notices it too
+            } finally {
+                // The worker closes the session only after its last answer
+                close(this.robot);
+                close(worker);
+            }
+        });
+        try {
+            pump(this.robot, worker);
+            worker.shutdownOutput();
+        } catch (IOException ex) {
+            close(worker);
+        }
+        try {
+            answers.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Log.info(this.clientNumber, "Left.");
+    }
+
+    private void answerAndClose(Response response) {
+        try {
+            writeFully(this.robot, response.toByteBuffer());
+        } catch (IOException ex) {
+            // the robot is gone already
+        }
+        close(this.robot);
+    }
+
+    /**
+     * Copies the bytes from one connection to the other until the first one ends.
+     */
+    private static void pump(SocketChannel from, SocketChannel to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SPLICE_BUFFER_SIZE);
+        while (from.read(buffer) >= 0) {
+            buffer.flip();
+            writeFully(to, buffer);
+            buffer.clear();
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return Length of the login in the first bytes of the input, without its "\r\n", -1 if it is not complete.
+     */
+    private static int loginLength(byte[] input, int length) {
+        for (int i = 1; i < length; i++) {
+            if (input[i - 1] == '\r' && input[i] == '\n') {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not close the channel: {}", ex);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cz.filipklimes.psi.tcp.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server process behind the dispatcher, running the ordinary {@code Robot} on a local port.
+ *
+ * @author klimesf
+ */
+public class Worker {
+
+    private final String name;
+    private final InetSocketAddress address;
+
+    /**
+     * The worker's process if the cluster started it, null for a worker started by someone else.
+     */
+    private final Process process;
+
+    /**
+     * Robots currently spliced to the worker.
+     */
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private volatile boolean draining;
+
+    /**
+     * @param name    Name of the worker, unique in the cluster.
+     * @param address Address the worker listens on.
+     * @param process The worker's process, null if the cluster did not start it.
+     */
+    public Worker(String name, InetSocketAddress address, Process process) {
+        this.name = name;
+        this.address = address;
+        this.process = process;
+    }
+
+    /**
+     * Counts a robot spliced to the worker.
+     */
+    void sessionOpened() {
+        this.sessions.incrementAndGet();
+    }
+
+    /**
+     * Counts a robot which left the worker, stops a drained worker when its last robot leaves.
+     */
+    void sessionClosed() {
+        if (this.sessions.decrementAndGet() == 0 && this.draining) {
+            this.stop();
+        }
+    }
+
+    /**
+     * Stops the worker once its robots leave. The worker must be off the hash ring already.
+     */
+    void drain() {
+        this.draining = true;
+        if (this.sessions.get() == 0) {
+            this.stop();
+        }
+    }
+
+    /**
+     * Stops the worker's process, if the cluster started it.
+     */
+    void stop() {
+        if (this.process != null && this.process.isAlive()) {
+            this.process.destroy();
+        }
+    }
+
+    /**
+     * @return Name of the worker, unique in the cluster.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Address the worker listens on.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return Robots currently spliced to the worker.
+     */
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * @return Is the worker waiting for its robots to leave?
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return Is the worker's process running? Always true for a worker started by someone else.
+     */
+    public boolean isAlive() {
+        return this.process == null || this.process.isAlive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.name + " " + this.address.getHostString() + ":" + this.address.getPort();
+    }
+}
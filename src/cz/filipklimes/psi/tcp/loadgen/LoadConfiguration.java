@@ -0,0 +1,211 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+/**
+ * Configuration of the load generator parsed from the command line.
+ * <p>
+ * The first positional argument is the port of the server, every other option has the form {@code --name=value}.
+ *
+ * @author klimesf
+ */
+public class LoadConfiguration {
+
+    private String host = "127.0.0.1";
+    private int port = 3000;
+    private int robots = 100;
+    private int duration = 30;
+    private int connectRate = 0;
+    private Mix mix = Mix.parse("normal");
+    private int infos = 5;
+    private int fotos = 1;
+    private int fotoSize = 4096;
+    private int largeFotoSize = 8 * 1024 * 1024;
+    private double badChecksums = 0.1;
+    private int idlePause = 5;
+    private int slowDelay = 100;
+    private int answerTimeout = 60;
+    private boolean resume = false;
+
+    /**
+     * Parses configuration from the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @return Parsed configuration.
+     * @throws IllegalArgumentException If an argument could not be parsed.
+     */
+    public static LoadConfiguration parse(String[] args) {
+        LoadConfiguration configuration = new LoadConfiguration();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                configuration.port = Integer.parseInt(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option has no value: " + arg);
+            }
+            configuration.set(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return configuration;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "host":
+                this.host = value;
+                break;
+            case "robots":
+                this.robots = positive(name, Integer.parseInt(value));
+                break;
+            case "duration":
+                this.duration = positive(name, Integer.parseInt(value));
+                break;
+            case "connect-rate":
+                this.connectRate = Integer.parseInt(value);
+                break;
+            case "mix":
+                this.mix = Mix.parse(value);
+                break;
+            case "infos":
+                this.infos = Integer.parseInt(value);
+                break;
+            case "fotos":
+                this.fotos = Integer.parseInt(value);
+                break;
+            case "foto-size":
+                this.fotoSize = positive(name, Integer.parseInt(value));
+                break;
+            case "large-foto-size":
+                this.largeFotoSize = positive(name, Integer.parseInt(value));
+                break;
+            case "bad-checksums":
+                this.badChecksums = Double.parseDouble(value);
+                break;
+            case "idle-pause":
+                this.idlePause = Integer.parseInt(value);
+                break;
+            case "slow-delay":
+                this.slowDelay = Integer.parseInt(value);
+                break;
+            case "answer-timeout":
+                this.answerTimeout = positive(name, Integer.parseInt(value));
+                break;
+            case "resume":
+                this.resume = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Option --" + name + " must be positive");
+        }
+        return value;
+    }
+
+    /**
+     * @return Host of the server.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return Port of the server.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Number of concurrently connected simulated robots.
+     */
+    public int getRobots() {
+        return robots;
+    }
+
+    /**
+     * @return Length of the run in seconds.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Maximum number of new connections per second, 0 if unlimited.
+     */
+    public int getConnectRate() {
+        return connectRate;
+    }
+
+    /**
+     * @return Weighted scenarios of the sessions.
+     */
+    public Mix getMix() {
+        return mix;
+    }
+
+    /**
+     * @return Number of INFO messages of a session.
+     */
+    public int getInfos() {
+        return infos;
+    }
+
+    /**
+     * @return Number of FOTO messages of a normal session.
+     */
+    public int getFotos() {
+        return fotos;
+    }
+
+    /**
+     * @return Number of bytes of a FOTO message of a normal session.
+     */
+    public int getFotoSize() {
+        return fotoSize;
+    }
+
+    /**
+     * @return Number of bytes of the FOTO message of a large photo session.
+     */
+    public int getLargeFotoSize() {
+        return largeFotoSize;
+    }
+
+    /**
+     * @return Fraction of the FOTO messages sent with a bad checksum.
+     */
+    public double getBadChecksums() {
+        return badChecksums;
+    }
+
+    /**
+     * @return Seconds an idle robot waits between its messages.
+     */
+    public int getIdlePause() {
+        return idlePause;
+    }
+
+    /**
+     * @return Milliseconds a slow-loris robot waits between the bytes it sends.
+     */
+    public int getSlowDelay() {
+        return slowDelay;
+    }
+
+    /**
+     * @return Seconds a robot waits for an answer before it gives up.
+     */
+    public int getAnswerTimeout() {
+        return answerTimeout;
+    }
+
+    /**
+     * @return Do the robots resume their previous session with a token instead of logging in?
+     */
+    public boolean isResume() {
+        return resume;
+    }
+}
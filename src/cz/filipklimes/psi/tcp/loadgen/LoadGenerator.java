@@ -0,0 +1,111 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Swarm of simulated robots driving the server on localhost, for finding its capacity limits before production does.
+ * <p>
+ * Every robot runs on its own virtual thread and opens one session after another until the run ends,
+ * each session following a scenario drawn from the configured mix.
+ *
+ * @author klimesf
+ */
+public class LoadGenerator {
+
+    private final LoadConfiguration configuration;
+    private final LoadReport report = new LoadReport();
+
+    /**
+     * Time in nanoseconds from which the next connection may be opened, used when the connect rate is limited.
+     */
+    private final AtomicLong nextConnect = new AtomicLong(System.nanoTime());
+
+    private volatile long deadline;
+
+    public LoadGenerator(LoadConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadConfiguration configuration;
+        try {
+            configuration = LoadConfiguration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid arguments: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        new LoadGenerator(configuration).run();
+    }
+
+    /**
+     * Runs the swarm for the configured duration and prints the report.
+     *
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        System.out.printf(
+                "%d robots against %s:%d for %d s, mix %s%n",
+                this.configuration.getRobots(), this.configuration.getHost(), this.configuration.getPort(),
+                this.configuration.getDuration(), this.configuration.getMix()
+        );
+        SimulatedRobot.Foto foto = new SimulatedRobot.Foto(this.configuration.getFotoSize());
+        SimulatedRobot.Foto largeFoto = new SimulatedRobot.Foto(this.configuration.getLargeFotoSize());
+
+        long start = System.nanoTime();
+        this.deadline = start + TimeUnit.SECONDS.toNanos(this.configuration.getDuration());
+        List<Thread> robots = new ArrayList<>(this.configuration.getRobots());
+        for (int i = 0; i < this.configuration.getRobots(); i++) {
+            SimulatedRobot robot = new SimulatedRobot(this.configuration, this.report, foto, largeFoto, i);
+            robots.add(Thread.ofVirtual().name("robot-", i).start(() -> this.drive(robot)));
+        }
+
+        for (long second = 1; System.nanoTime() < this.deadline; second++) {
+            Thread.sleep(Math.max(0, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(this.deadline - System.nanoTime()))));
+            this.report.printProgress(System.out, second);
+        }
+
+        // Sessions still running, e.g. waiting for idle pauses or timeouts, are cut short
+        for (Thread robot : robots) {
+            robot.interrupt();
+        }
+        for (Thread robot : robots) {
+            robot.join();
+        }
+
+        System.out.println();
+        this.report.print(System.out, System.nanoTime() - start);
+    }
+
+    private void drive(SimulatedRobot robot) {
+        try {
+            while (System.nanoTime() < this.deadline && !Thread.currentThread().isInterrupted()) {
+                this.awaitConnectSlot();
+                robot.session(this.configuration.getMix().next());
+            }
+        } catch (InterruptedException ex) {
+            // The run is over
+        }
+    }
+
+    /**
+     * Spaces the connections evenly when the connect rate is limited.
+     *
+     * @throws InterruptedException
+     */
+    private void awaitConnectSlot() throws InterruptedException {
+        if (this.configuration.getConnectRate() <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / this.configuration.getConnectRate();
+        long now = System.nanoTime();
+        long slot = this.nextConnect.getAndAccumulate(now, (next, time) -> Math.max(next, time) + interval);
+        slot = Math.max(slot, now);
+        if (slot > now) {
+            TimeUnit.NANOSECONDS.sleep(slot - now);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import cz.filipklimes.psi.tcp.server.metrics.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a load generator run, shared by all simulated robots.
+ *
+ * @author klimesf
+ */
+public class LoadReport {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder answers = new LongAdder();
+    private final LongAdder resumptions = new LongAdder();
+    private final AtomicLongArray completed = new AtomicLongArray(Scenario.values().length);
+    private final AtomicLongArray failed = new AtomicLongArray(Scenario.values().length);
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    private final Histogram connect = new Histogram();
+    private final Histogram handshake = new Histogram();
+    private final Histogram foto = new Histogram();
+    private final Histogram timeout = new Histogram();
+
+    /**
+     * Records an established connection.
+     *
+     * @param nanos Time the connection took to establish.
+     */
+    public void connected(long nanos) {
+        this.connections.increment();
+        this.activeSessions.increment();
+        this.connect.record(nanos);
+    }
+
+    /**
+     * Records a closed connection.
+     */
+    public void disconnected() {
+        this.activeSessions.decrement();
+    }
+
+    /**
+     * Records a completed login.
+     *
+     * @param nanos Time from the connect until the password was accepted.
+     */
+    public void loggedIn(long nanos) {
+        this.handshake.record(nanos);
+    }
+
+    /**
+     * Records a session resumed with a token instead of a login.
+     */
+    public void resumed() {
+        this.resumptions.increment();
+    }
+
+    /**
+     * Records an answered FOTO message.
+     *
+     * @param nanos Time from the first byte of the message until its answer.
+     */
+    public void fotoAnswered(long nanos) {
+        this.foto.record(nanos);
+    }
+
+    /**
+     * Records a session timed out by the server.
+     *
+     * @param nanos Time from the last message until the timeout.
+     */
+    public void timedOut(long nanos) {
+        this.timeout.record(nanos);
+    }
+
+    /**
+     * @param bytes Number of bytes sent to the server.
+     */
+    public void sent(int bytes) {
+        this.bytesSent.add(bytes);
+    }
+
+    /**
+     * Records an answer of the server.
+     */
+    public void answered() {
+        this.answers.increment();
+    }
+
+    /**
+     * Records a session which went as expected.
+     *
+     * @param scenario Scenario of the session.
+     */
+    public void completed(Scenario scenario) {
+        this.completed.incrementAndGet(scenario.ordinal());
+    }
+
+    /**
+     * Records a session which did not go as expected.
+     *
+     * @param scenario Scenario of the session.
+     * @param reason   What went wrong.
+     */
+    public void failed(Scenario scenario, String reason) {
+        this.failed.incrementAndGet(scenario.ordinal());
+        LongAdder counter = this.failures.get(reason);
+        if (counter == null) {
+            counter = this.failures.computeIfAbsent(reason, r -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return Number of established connections.
+     */
+    public long getConnections() {
+        return this.connections.sum();
+    }
+
+    /**
+     * @return Number of currently open connections.
+     */
+    public long getActiveSessions() {
+        return this.activeSessions.sum();
+    }
+
+    /**
+     * @return Number of answers received so far.
+     */
+    public long getAnswers() {
+        return this.answers.sum();
+    }
+
+    /**
+     * Prints a one line progress report.
+     *
+     * @param out     Where to print.
+     * @param seconds Seconds since the start of the run.
+     */
+    public void printProgress(PrintStream out, long seconds) {
+        out.printf(
+                "%4ds  active %6d  connections %8d  answers %10d  sent %10.1f MiB%n",
+                seconds, this.getActiveSessions(), this.getConnections(), this.answers.sum(),
+                this.bytesSent.sum() / (1024.0 * 1024.0)
+        );
+    }
+
+    /**
+     * Prints the final report.
+     *
+     * @param out   Where to print.
+     * @param nanos Length of the run.
+     */
+    public void print(PrintStream out, long nanos) {
+        double seconds = nanos / 1e9;
+        out.printf("Duration:           %.1f s%n", seconds);
+        out.printf("Connections:        %d (%.1f/s)%n", this.getConnections(), this.getConnections() / seconds);
+        out.printf("Answers:            %d (%.1f/s)%n", this.answers.sum(), this.answers.sum() / seconds);
+        out.printf("Throughput:         %.2f MiB/s%n", this.bytesSent.sum() / seconds / (1024.0 * 1024.0));
+        if (this.resumptions.sum() > 0) {
+            out.printf("Resumed sessions:   %d%n", this.resumptions.sum());
+        }
+
+        out.println();
+        out.printf("%-12s %10s %10s%n", "Scenario", "completed", "failed");
+        for (Scenario scenario : Scenario.values()) {
+            long ok = this.completed.get(scenario.ordinal());
+            long ko = this.failed.get(scenario.ordinal());
+            if (ok + ko > 0) {
+                out.printf("%-12s %10d %10d%n", scenario.getName(), ok, ko);
+            }
+        }
+
+        if (!this.failures.isEmpty()) {
+            out.println();
+            out.println("Failures:");
+            new TreeMap<>(this.failures).forEach((reason, count) -> out.printf("  %8d  %s%n", count.sum(), reason));
+        }
+
+        out.println();
+        out.printf("%-12s %8s %10s %10s %10s %10s%n", "Latency [ms]", "count", "p50", "p90", "p99", "p99.9");
+        printLatency(out, "connect", this.connect);
+        printLatency(out, "handshake", this.handshake);
+        printLatency(out, "foto", this.foto);
+        printLatency(out, "timeout", this.timeout);
+    }
+
+    private static void printLatency(PrintStream out, String name, Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        out.printf("%-12s %8d", name, histogram.getCount());
+        for (double quantile : QUANTILES) {
+            out.printf(" %10.3f", histogram.getValueAtQuantile(quantile) / 1e6);
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,84 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted choice of the scenario each simulated session follows.
+ *
+ * @author klimesf
+ */
+public class Mix {
+
+    private final Scenario[] scenarios;
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+
+    private Mix(Map<Scenario, Integer> weights) {
+        this.scenarios = weights.keySet().toArray(new Scenario[0]);
+        this.cumulativeWeights = new int[this.scenarios.length];
+        int total = 0;
+        for (int i = 0; i < this.scenarios.length; i++) {
+            total += weights.get(this.scenarios[i]);
+            this.cumulativeWeights[i] = total;
+        }
+        this.totalWeight = total;
+    }
+
+    /**
+     * Parses a mix such as {@code normal:90,idle:5,timeout:5}, a scenario without a weight has weight 1.
+     *
+     * @param mix The mix.
+     * @return Parsed mix.
+     * @throws IllegalArgumentException If the mix could not be parsed.
+     */
+    public static Mix parse(String mix) {
+        Map<Scenario, Integer> weights = new EnumMap<>(Scenario.class);
+        for (String part : mix.split(",")) {
+            int separator = part.indexOf(':');
+            Scenario scenario = Scenario.of(separator < 0 ? part : part.substring(0, separator));
+            int weight = separator < 0 ? 1 : Integer.parseInt(part.substring(separator + 1).trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight of a scenario must not be negative");
+            }
+            if (weight > 0) {
+                weights.merge(scenario, weight, Integer::sum);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Mix must contain a scenario");
+        }
+        return new Mix(weights);
+    }
+
+    /**
+     * @return Randomly chosen scenario.
+     */
+    public Scenario next() {
+        int point = ThreadLocalRandom.current().nextInt(this.totalWeight);
+        for (int i = 0; i < this.scenarios.length; i++) {
+            if (point < this.cumulativeWeights[i]) {
+                return this.scenarios[i];
+            }
+        }
+        return this.scenarios[this.scenarios.length - 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < this.scenarios.length; i++) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(this.scenarios[i].getName()).append(':').append(this.cumulativeWeights[i] - previous);
+            previous = this.cumulativeWeights[i];
+        }
+        return sb.toString();
+    }
+}
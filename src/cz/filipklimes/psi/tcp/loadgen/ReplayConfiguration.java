@@ -0,0 +1,128 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+/**
+ * Configuration of the replayer parsed from the command line.
+ * <p>
+ * The first positional argument is the capture file, the second one the port of the server, every other option
+ * has the form {@code --name=value}.
+ *
+ * @author klimesf
+ */
+public class ReplayConfiguration {
+
+    private String captureFile;
+    private String host = "127.0.0.1";
+    private int port = 3000;
+    private double speed = 1.0;
+    private int answerTimeout = 60;
+    private String saveFile = null;
+    private String compareFile = null;
+
+    /**
+     * Parses configuration from the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @return Parsed configuration.
+     * @throws IllegalArgumentException If an argument could not be parsed.
+     */
+    public static ReplayConfiguration parse(String[] args) {
+        ReplayConfiguration configuration = new ReplayConfiguration();
+        int positional = 0;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                if (positional++ == 0) {
+                    configuration.captureFile = arg;
+                } else {
+                    configuration.port = Integer.parseInt(arg);
+                }
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option has no value: " + arg);
+            }
+            configuration.set(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (configuration.captureFile == null) {
+            throw new IllegalArgumentException("No capture file given");
+        }
+        return configuration;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "host":
+                this.host = value;
+                break;
+            case "speed":
+                this.speed = Double.parseDouble(value);
+                if (!(this.speed > 0)) {
+                    throw new IllegalArgumentException("Option --speed must be positive");
+                }
+                break;
+            case "answer-timeout":
+                this.answerTimeout = Integer.parseInt(value);
+                if (this.answerTimeout < 1) {
+                    throw new IllegalArgumentException("Option --answer-timeout must be positive");
+                }
+                break;
+            case "save":
+                this.saveFile = value;
+                break;
+            case "compare":
+                this.compareFile = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    /**
+     * @return File written by the server's traffic capture.
+     */
+    public String getCaptureFile() {
+        return captureFile;
+    }
+
+    /**
+     * @return Host of the server.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return Port of the server.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return How many times faster than captured the sessions are replayed.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return Seconds a session waits for the server's next answer before it gives up.
+     */
+    public int getAnswerTimeout() {
+        return answerTimeout;
+    }
+
+    /**
+     * @return File the results are saved to for a later comparison, null if they are not saved.
+     */
+    public String getSaveFile() {
+        return saveFile;
+    }
+
+    /**
+     * @return File with the saved results of an earlier replay to compare with, null if there is none.
+     */
+    public String getCompareFile() {
+        return compareFile;
+    }
+}
@@ -0,0 +1,277 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import cz.filipklimes.psi.tcp.server.Response;
+import cz.filipklimes.psi.tcp.server.metrics.Histogram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Answers and their latencies of every replayed session.
+ * <p>
+ * The results can be saved to a file and compared with the results of another build replaying the same capture.
+ * An answer is compared without its argument, so the random token of 203 TOKEN does not count as a difference.
+ *
+ * @author klimesf
+ */
+public class ReplayReport {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Differing sessions printed by the comparison.
+     */
+    private static final int DIFFERENCE_EXAMPLES = 10;
+
+    /**
+     * Answers of one replayed session.
+     */
+    public static class SessionResult {
+
+        private final int clientNumber;
+        private final List<String> answers = new ArrayList<>();
+        private final List<Long> latencies = new ArrayList<>();
+        private volatile String failure;
+
+        /**
+         * @param clientNumber Client's number in the captured server.
+         */
+        public SessionResult(int clientNumber) {
+            this.clientNumber = clientNumber;
+        }
+
+        /**
+         * Records an answer of the server.
+         *
+         * @param answer The answer without its "\r\n".
+         * @param nanos  Time since the robot last sent something, or connected.
+         */
+        public synchronized void answered(String answer, long nanos) {
+            this.answers.add(answer);
+            this.latencies.add(nanos);
+        }
+
+        /**
+         * Marks the session as failed, the first reason wins.
+         *
+         * @param reason Why the session failed.
+         */
+        public void failed(String reason) {
+            if (this.failure == null) {
+                this.failure = reason;
+            }
+        }
+
+        synchronized List<String> getKinds() {
+            List<String> kinds = new ArrayList<>(this.answers.size());
+            for (String answer : this.answers) {
+                kinds.add(kindOf(answer));
+            }
+            return kinds;
+        }
+    }
+
+    private final Map<Integer, SessionResult> sessions = new ConcurrentSkipListMap<>();
+    private long bytesSent = 0;
+
+    /**
+     * Adds the result of a finished session.
+     *
+     * @param result The result.
+     * @param bytes  Bytes the session sent.
+     */
+    public synchronized void add(SessionResult result, long bytes) {
+        this.sessions.put(result.clientNumber, result);
+        this.bytesSent += bytes;
+    }
+
+    /**
+     * Prints the summary and the latencies of the answers.
+     *
+     * @param out   Where to print.
+     * @param nanos Length of the replay.
+     */
+    public void print(PrintStream out, long nanos) {
+        Map<String, Integer> failures = new TreeMap<>();
+        int answers = 0;
+        for (SessionResult result : this.sessions.values()) {
+            answers += result.answers.size();
+            if (result.failure != null) {
+                failures.merge(result.failure, 1, Integer::sum);
+            }
+        }
+        double seconds = nanos / 1e9;
+        out.printf("Duration:           %.1f s%n", seconds);
+        out.printf("Sessions:           %d%n", this.sessions.size());
+        out.printf("Answers:            %d (%.1f/s)%n", answers, answers / seconds);
+        out.printf("Sent:               %.2f MiB%n", this.bytesSent / (1024.0 * 1024.0));
+        if (!failures.isEmpty()) {
+            out.println();
+            out.println("Failures:");
+            failures.forEach((reason, count) -> out.printf("  %8d  %s%n", count, reason));
+        }
+
+        out.println();
+        out.printf("%-18s %8s %10s %10s %10s %10s%n", "Latency [ms]", "count", "p50", "p90", "p99", "p99.9");
+        this.histograms().forEach((kind, histogram) -> {
+            out.printf("%-18s %8d", kind, histogram.getCount());
+            for (double quantile : QUANTILES) {
+                out.printf(" %10.3f", histogram.getValueAtQuantile(quantile) / 1e6);
+            }
+            out.println();
+        });
+    }
+
+    /**
+     * Prints the sessions answered differently than in the baseline and the latency changes.
+     *
+     * @param out      Where to print.
+     * @param baseline Results of the earlier replay.
+     */
+    public void compare(PrintStream out, ReplayReport baseline) {
+        int common = 0;
+        int different = 0;
+        List<String> examples = new ArrayList<>();
+        for (SessionResult result : this.sessions.values()) {
+            SessionResult base = baseline.sessions.get(result.clientNumber);
+            if (base == null) {
+                continue;
+            }
+            common++;
+            List<String> kinds = result.getKinds();
+            List<String> baseKinds = base.getKinds();
+            if (!kinds.equals(baseKinds)) {
+                different++;
+                if (examples.size() < DIFFERENCE_EXAMPLES) {
+                    examples.add(String.format("  session %d%n    baseline %s%n    now      %s",
+                            result.clientNumber, baseKinds, kinds));
+                }
+            }
+        }
+
+        out.println();
+        out.printf("Sessions:           %d in both, %d only in the baseline, %d only now%n",
+                common, baseline.sessions.size() - common, this.sessions.size() - common);
+        out.printf("Different answers:  %d sessions%n", different);
+        examples.forEach(out::println);
+
+        Map<String, Histogram> histograms = this.histograms();
+        Map<String, Histogram> baseHistograms = baseline.histograms();
+        out.println();
+        out.printf("%-18s %10s %10s %8s %10s %10s %8s%n",
+                "Latency [ms]", "p50 base", "p50", "change", "p99 base", "p99", "change");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram base = baseHistograms.get(entry.getKey());
+            if (base == null) {
+                continue;
+            }
+            out.printf("%-18s", entry.getKey());
+            for (double quantile : new double[]{0.5, 0.99}) {
+                double before = base.getValueAtQuantile(quantile) / 1e6;
+                double now = entry.getValue().getValueAtQuantile(quantile) / 1e6;
+                out.printf(" %10.3f %10.3f %+7.1f%%", before, now, before > 0 ? (now - before) / before * 100 : 0.0);
+            }
+            out.println();
+        }
+    }
+
+    /**
+     * Saves the results, one session per line: its number, its failure or "-", then its answers and their
+     * latencies in nanoseconds, all separated by tabs.
+     *
+     * @param file The file.
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (SessionResult result : this.sessions.values()) {
+                synchronized (result) {
+                    writer.write(Integer.toString(result.clientNumber));
+                    writer.write('\t');
+                    writer.write(result.failure == null ? "-" : result.failure.replace('\t', ' '));
+                    for (int i = 0; i < result.answers.size(); i++) {
+                        writer.write('\t');
+                        writer.write(result.answers.get(i));
+                        writer.write('\t');
+                        writer.write(Long.toString(result.latencies.get(i)));
+                    }
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads results saved by {@link #save(Path)}.
+     *
+     * @param file The file.
+     * @return The results.
+     * @throws IOException If the file could not be read or parsed.
+     */
+    public static ReplayReport load(Path file) throws IOException {
+        ReplayReport report = new ReplayReport();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                try {
+                    SessionResult result = new SessionResult(Integer.parseInt(fields[0]));
+                    if (!fields[1].equals("-")) {
+                        result.failed(fields[1]);
+                    }
+                    for (int i = 2; i + 1 < fields.length; i += 2) {
+                        result.answered(fields[i], Long.parseLong(fields[i + 1]));
+                    }
+                    report.sessions.put(result.clientNumber, result);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                    throw new IOException("Malformed replay results: " + line, ex);
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return Latencies of the answers by kind, plus all of them together.
+     */
+    private Map<String, Histogram> histograms() {
+        Map<String, Histogram> histograms = new TreeMap<>();
+        Histogram all = new Histogram();
+        for (SessionResult result : this.sessions.values()) {
+            synchronized (result) {
+                for (int i = 0; i < result.answers.size(); i++) {
+                    long nanos = result.latencies.get(i);
+                    histograms.computeIfAbsent(kindOf(result.answers.get(i)), kind -> new Histogram()).record(nanos);
+                    all.record(nanos);
+                }
+            }
+        }
+        if (all.getCount() > 0) {
+            histograms.put("all", all);
+        }
+        return histograms;
+    }
+
+    /**
+     * @return The answer without its argument, e.g. "203 TOKEN" for any token.
+     */
+    private static String kindOf(String answer) {
+        for (Response response : Response.values()) {
+            String text = response.toString();
+            if (answer.startsWith(text) && (answer.length() == text.length() || answer.charAt(text.length()) == ' ')) {
+                return text;
+            }
+        }
+        return answer;
+    }
+}
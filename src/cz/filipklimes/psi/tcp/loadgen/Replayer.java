@@ -0,0 +1,203 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import cz.filipklimes.psi.tcp.server.capture.CaptureFile;
+import cz.filipklimes.psi.tcp.server.capture.CapturedSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the sessions captured by a server with {@code --capture} to a server, at the captured pace or faster.
+ * <p>
+ * Every session runs on its own virtual thread, connects at its captured time and sends its bytes in the captured
+ * chunks at their captured times, divided by the speed. The answers are collected with their latency, the time since
+ * the session last sent something. The results can be saved and compared with the results of another build.
+ *
+ * @author klimesf
+ */
+public class Replayer {
+
+    /**
+     * Time given to the threads of the sessions to start before the first session connects.
+     */
+    private static final long LEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final ReplayConfiguration configuration;
+    private final ReplayReport report = new ReplayReport();
+
+    public Replayer(ReplayConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ReplayConfiguration configuration;
+        try {
+            configuration = ReplayConfiguration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid arguments: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            new Replayer(configuration).run();
+        } catch (IOException ex) {
+            System.err.println("Replay failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replays the capture, prints the report and saves or compares the results.
+     *
+     * @throws IOException          If the capture or the results could not be read or written.
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        List<CapturedSession> sessions = new ArrayList<>();
+        int lost = 0;
+        for (CapturedSession session : CaptureFile.read(Paths.get(this.configuration.getCaptureFile()))) {
+            if (session.isLost()) {
+                lost++;
+            } else {
+                sessions.add(session);
+            }
+        }
+        System.out.printf(
+                "%d sessions of %s against %s:%d at %.1fx speed%n",
+                sessions.size(), this.configuration.getCaptureFile(), this.configuration.getHost(),
+                this.configuration.getPort(), this.configuration.getSpeed()
+        );
+        if (lost > 0) {
+            System.out.printf("%d sessions skipped, the capture dropped some of their bytes%n", lost);
+        }
+        if (sessions.isEmpty()) {
+            return;
+        }
+
+        long origin = sessions.get(0).getConnectedMicros();
+        long start = System.nanoTime() + LEAD_NANOS;
+        List<Thread> threads = new ArrayList<>(sessions.size());
+        for (CapturedSession session : sessions) {
+            threads.add(Thread.ofVirtual().name("session-" + session.getClientNumber())
+                    .start(() -> this.replay(session, start, origin)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.println();
+        this.report.print(System.out, nanos);
+        if (this.configuration.getSaveFile() != null) {
+            this.report.save(Paths.get(this.configuration.getSaveFile()));
+        }
+        if (this.configuration.getCompareFile() != null) {
+            this.report.compare(System.out, ReplayReport.load(Paths.get(this.configuration.getCompareFile())));
+        }
+    }
+
+    /**
+     * Replays one session.
+     *
+     * @param session The captured session.
+     * @param start   Time the replay started, in System.nanoTime() terms.
+     * @param origin  Captured time of the first connection in microseconds.
+     */
+    private void replay(CapturedSession session, long start, long origin) {
+        ReplayReport.SessionResult result = new ReplayReport.SessionResult(session.getClientNumber());
+        long sent = 0;
+        this.sleepUntil(this.at(start, origin, session.getConnectedMicros()));
+        try (Socket socket = new Socket()) {
+            socket.connect(
+                    new InetSocketAddress(this.configuration.getHost(), this.configuration.getPort()),
+                    (int) TimeUnit.SECONDS.toMillis(this.configuration.getAnswerTimeout())
+            );
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(this.configuration.getAnswerTimeout()));
+            AtomicLong lastSent = new AtomicLong(System.nanoTime());
+            InputStream input = socket.getInputStream();
+            Thread answers = Thread.ofVirtual().start(() -> readAnswers(input, lastSent, result));
+
+            OutputStream output = socket.getOutputStream();
+            try {
+                for (CapturedSession.Chunk chunk : session.getChunks()) {
+                    this.sleepUntil(this.at(start, origin, chunk.getMicros()));
+                    output.write(chunk.getData());
+                    lastSent.set(System.nanoTime());
+                    sent += chunk.getData().length;
+                }
+                if (session.getEndedMicros() >= 0) {
+                    this.sleepUntil(this.at(start, origin, session.getEndedMicros()));
+                    socket.shutdownOutput();
+                }
+            } catch (IOException ex) {
+                // The server closed the session before the robot said everything, as it may have in the capture
+            }
+            answers.join();
+        } catch (IOException ex) {
+            result.failed("connect: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.report.add(result, sent);
+    }
+
+    /**
+     * Reads the answers until the server closes the connection or stops answering.
+     */
+    private static void readAnswers(InputStream input, AtomicLong lastSent, ReplayReport.SessionResult result) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        byte[] buffer = new byte[1024];
+        int last = 0;
+        try {
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                long now = System.nanoTime();
+                for (int i = 0; i < read; i++) {
+                    int current = buffer[i];
+                    if (last == '\r' && current == '\n') {
+                        byte[] bytes = line.toByteArray();
+                        result.answered(
+                                new String(bytes, 0, bytes.length - 1, StandardCharsets.US_ASCII),
+                                now - lastSent.get()
+                        );
+                        line.reset();
+                        last = 0;
+                        continue;
+                    }
+                    line.write(current);
+                    last = current;
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            result.failed("no answer in time");
+        } catch (IOException ex) {
+            result.failed("read: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return Time of a captured event in the replay, in System.nanoTime() terms.
+     */
+    private long at(long start, long origin, long micros) {
+        return start + (long) (TimeUnit.MICROSECONDS.toNanos(micros - origin) / this.configuration.getSpeed());
+    }
+
+    private void sleepUntil(long time) {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
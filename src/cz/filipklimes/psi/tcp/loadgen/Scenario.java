@@ -0,0 +1,45 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+/**
+ * Behaviour of a simulated robot after it has logged in.
+ *
+ * @author klimesf
+ */
+public enum Scenario {
+    /**
+     * Sends INFO and FOTO messages back to back, some FOTO messages with a bad checksum.
+     */
+    NORMAL,
+    /**
+     * Pauses between its INFO messages, keeping the session open without traffic.
+     */
+    IDLE,
+    /**
+     * Sends an INFO message one byte at a time with a delay between the bytes.
+     */
+    SLOW_LORIS,
+    /**
+     * Sends a single large FOTO message.
+     */
+    LARGE_FOTO,
+    /**
+     * Goes silent after the login and waits for the server to time the session out.
+     */
+    TIMEOUT;
+
+    /**
+     * @param name Name of the scenario as written on the command line, e.g. {@code slow-loris}.
+     * @return The scenario.
+     * @throws IllegalArgumentException If there is no such scenario.
+     */
+    public static Scenario of(String name) {
+        return Scenario.valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * @return Name of the scenario as written on the command line.
+     */
+    public String getName() {
+        return this.name().toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,330 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Robot talking to the server over its own socket, one session after another.
+ *
+ * @author klimesf
+ */
+class SimulatedRobot {
+
+    private final LoadConfiguration configuration;
+    private final LoadReport report;
+    private final Foto foto;
+    private final Foto largeFoto;
+    private final int robotNumber;
+
+    /**
+     * Token resuming the previous session, null if the robot logs in.
+     */
+    private String token;
+
+    private Socket socket;
+    private BufferedInputStream input;
+    private OutputStream output;
+
+    /**
+     * @param configuration Configuration of the run.
+     * @param report        Report of the run.
+     * @param foto          FOTO message of the normal sessions.
+     * @param largeFoto     FOTO message of the large photo sessions.
+     * @param robotNumber   Number of the robot, part of its login.
+     */
+    SimulatedRobot(LoadConfiguration configuration, LoadReport report, Foto foto, Foto largeFoto, int robotNumber) {
+        this.configuration = configuration;
+        this.report = report;
+        this.foto = foto;
+        this.largeFoto = largeFoto;
+        this.robotNumber = robotNumber;
+    }
+
+    /**
+     * Connects to the server, logs in and follows the scenario until the session ends.
+     * Failures are recorded in the report.
+     *
+     * @param scenario Scenario of the session.
+     */
+    void session(Scenario scenario) {
+        long start = System.nanoTime();
+        try {
+            this.socket = new Socket();
+            this.socket.setTcpNoDelay(true);
+            this.socket.setSoTimeout(this.configuration.getAnswerTimeout() * 1000);
+            this.socket.connect(new InetSocketAddress(this.configuration.getHost(), this.configuration.getPort()));
+        } catch (IOException ex) {
+            if (!Thread.currentThread().isInterrupted()) {
+                this.report.failed(scenario, "connect: " + ex.getMessage());
+            }
+            this.close();
+            return;
+        }
+        this.report.connected(System.nanoTime() - start);
+
+        try {
+            this.input = new BufferedInputStream(this.socket.getInputStream());
+            this.output = this.socket.getOutputStream();
+            this.login();
+            this.report.loggedIn(System.nanoTime() - start);
+            if (this.configuration.isResume()) {
+                this.requestToken();
+            }
+            switch (scenario) {
+                case NORMAL:
+                    this.normal();
+                    break;
+                case IDLE:
+                    this.idle();
+                    break;
+                case SLOW_LORIS:
+                    this.slowLoris();
+                    break;
+                case LARGE_FOTO:
+                    this.foto(this.largeFoto, false);
+                    break;
+                case TIMEOUT:
+                    this.awaitTimeout();
+                    break;
+            }
+            this.report.completed(scenario);
+        } catch (UnexpectedAnswerException ex) {
+            this.report.failed(scenario, ex.getMessage());
+        } catch (SocketTimeoutException ex) {
+            this.report.failed(scenario, "no answer within " + this.configuration.getAnswerTimeout() + " s");
+        } catch (IOException ex) {
+            // A session cut short by the end of the run is neither completed nor failed
+            if (!Thread.currentThread().isInterrupted()) {
+                this.report.failed(scenario, ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.close();
+            this.report.disconnected();
+        }
+    }
+
+    private void login() throws IOException {
+        if (this.token != null) {
+            this.expect("200 LOGIN");
+            this.send("RESUME " + this.token + "\r\n");
+            this.token = null;
+            this.expect("202 OK");
+            this.report.resumed();
+            return;
+        }
+
+        String login = "Robot" + this.robotNumber;
+        int password = 0;
+        for (byte b : login.getBytes(StandardCharsets.US_ASCII)) {
+            password += b & 0xff;
+        }
+        this.expect("200 LOGIN");
+        this.send(login + "\r\n");
+        this.expect("201 PASSWORD");
+        this.send(password + "\r\n");
+        this.expect("202 OK");
+    }
+
+    /**
+     * Asks for a token to resume the session with on the next connection.
+     *
+     * @throws IOException
+     */
+    private void requestToken() throws IOException {
+        this.send("TOKN\r\n");
+        String answer = this.readAnswer();
+        if (!answer.startsWith("203 TOKEN ")) {
+            throw new UnexpectedAnswerException("203 TOKEN", answer);
+        }
+        this.token = answer.substring("203 TOKEN ".length());
+    }
+
+    private void normal() throws IOException {
+        for (int i = 0; i < this.configuration.getInfos(); i++) {
+            this.info();
+        }
+        for (int i = 0; i < this.configuration.getFotos(); i++) {
+            this.foto(this.foto, ThreadLocalRandom.current().nextDouble() < this.configuration.getBadChecksums());
+        }
+    }
+
+    private void idle() throws IOException, InterruptedException {
+        for (int i = 0; i < this.configuration.getInfos(); i++) {
+            Thread.sleep(this.configuration.getIdlePause() * 1000L);
+            this.info();
+        }
+    }
+
+    private void slowLoris() throws IOException, InterruptedException {
+        byte[] message = ("INFO robot " + this.robotNumber + " is slowly reporting in\r\n").getBytes(StandardCharsets.US_ASCII);
+        try {
+            for (byte b : message) {
+                Thread.sleep(this.configuration.getSlowDelay());
+                this.output.write(b);
+                this.output.flush();
+                this.report.sent(1);
+            }
+        } catch (IOException ex) {
+            // The server may have closed the connection after its answer, read it below
+        }
+        // A server protecting itself times the robot out, that is a valid outcome as well
+        String answer = this.readAnswer();
+        if (!answer.equals("202 OK") && !answer.equals("502 TIMEOUT")) {
+            throw new UnexpectedAnswerException("202 OK", answer);
+        }
+    }
+
+    private void awaitTimeout() throws IOException {
+        long start = System.nanoTime();
+        this.expect("502 TIMEOUT");
+        this.report.timedOut(System.nanoTime() - start);
+    }
+
+    private void info() throws IOException {
+        this.send("INFO robot " + this.robotNumber + " reporting in\r\n");
+        this.expect("202 OK");
+    }
+
+    private void foto(Foto foto, boolean badChecksum) throws IOException {
+        long start = System.nanoTime();
+        byte[] message = badChecksum ? foto.bad : foto.good;
+        this.output.write(message);
+        this.output.flush();
+        this.report.sent(message.length);
+        this.expect(badChecksum ? "300 BAD CHECKSUM" : "202 OK");
+        this.report.fotoAnswered(System.nanoTime() - start);
+    }
+
+    private void send(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+        this.output.write(bytes);
+        this.output.flush();
+        this.report.sent(bytes.length);
+    }
+
+    private void expect(String expected) throws IOException {
+        String answer = this.readAnswer();
+        if (!answer.equals(expected)) {
+            throw new UnexpectedAnswerException(expected, answer);
+        }
+    }
+
+    /**
+     * Reads an answer line without its "\r\n".
+     *
+     * @return The answer, "EOF" if the server closed the connection.
+     * @throws IOException
+     */
+    private String readAnswer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int last = 0;
+        int current;
+        while ((current = this.input.read()) != -1) {
+            if (last == '\r' && current == '\n') {
+                sb.setLength(sb.length() - 1);
+                this.report.answered();
+                return sb.toString();
+            }
+            sb.append((char) current);
+            last = current;
+        }
+        return "EOF";
+    }
+
+    private void close() {
+        try {
+            if (this.socket != null) {
+                this.socket.close();
+            }
+        } catch (IOException ex) {
+            // Nothing left to do with the connection
+        }
+        this.socket = null;
+        this.input = null;
+        this.output = null;
+    }
+
+    /**
+     * FOTO message with a random photo, encoded once and shared by all robots.
+     */
+    static class Foto {
+
+        private final byte[] good;
+        private final byte[] bad;
+
+        /**
+         * @param size Number of bytes of the photo.
+         */
+        Foto(int size) {
+            byte[] photo = new byte[size];
+            new Random(size).nextBytes(photo);
+            int checksum = 0;
+            for (byte b : photo) {
+                checksum += b & 0xff;
+            }
+            // Nudge the photo until the server can parse its checksum, see isParsable()
+            for (int i = 0; !isParsable(checksum); i = (i + 1) % size) {
+                if (photo[i] != (byte) 0xff) {
+                    photo[i]++;
+                    checksum++;
+                }
+            }
+            int badChecksum = checksum + 1;
+            while (!isParsable(badChecksum)) {
+                badChecksum++;
+            }
+            this.good = encode(photo, checksum);
+            this.bad = encode(photo, badChecksum);
+        }
+
+        /**
+         * The server reads every byte of the checksum as an unpadded hex number,
+         * so only leading bytes may be smaller than 0x10.
+         */
+        private static boolean isParsable(int checksum) {
+            boolean leading = true;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                int b = (checksum >>> shift) & 0xff;
+                if (!leading && b < 0x10) {
+                    return false;
+                }
+                leading &= b == 0;
+            }
+            return true;
+        }
+
+        private static byte[] encode(byte[] photo, int checksum) {
+            byte[] header = ("FOTO " + photo.length + " ").getBytes(StandardCharsets.US_ASCII);
+            byte[] message = new byte[header.length + photo.length + 4];
+            System.arraycopy(header, 0, message, 0, header.length);
+            System.arraycopy(photo, 0, message, header.length, photo.length);
+            int offset = header.length + photo.length;
+            message[offset] = (byte) (checksum >>> 24);
+            message[offset + 1] = (byte) (checksum >>> 16);
+            message[offset + 2] = (byte) (checksum >>> 8);
+            message[offset + 3] = (byte) checksum;
+            return message;
+        }
+    }
+
+    /**
+     * The server answered something else than the protocol prescribes.
+     */
+    static class UnexpectedAnswerException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnexpectedAnswerException(String expected, String answer) {
+            super("expected " + expected + ", got " + answer);
+        }
+    }
+}
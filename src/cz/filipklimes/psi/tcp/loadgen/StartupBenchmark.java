@@ -0,0 +1,302 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import cz.filipklimes.psi.tcp.server.Robot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly a freshly launched server becomes useful, to compare startup options such as a class data
+ * sharing archive or the warmup sessions.
+ * <p>
+ * Every run launches the server in a new JVM and measures the time until a robot gets its {@code 200 LOGIN}.
+ * Then the robots run normal sessions back to back and the answers are counted in short windows. The server is at
+ * steady state from the first window reaching 90 % of the throughput of the second half of the run.
+ *
+ * @author klimesf
+ */
+public class StartupBenchmark {
+
+    /**
+     * Length of a throughput window in milliseconds.
+     */
+    private static final int WINDOW_MILLIS = 250;
+
+    /**
+     * Part of the final throughput a window has to reach to count as steady.
+     */
+    private static final double STEADY_RATIO = 0.9;
+
+    private static final byte[] GREETING = "200 LOGIN\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PROBE_LOGIN = "Robot probe\r\n1086\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Length of the answers to the probe's login, 201 PASSWORD and 202 OK.
+     */
+    private static final int PROBE_ANSWERS = "201 PASSWORD\r\n202 OK\r\n".length();
+
+    private final StartupConfiguration configuration;
+
+    public StartupBenchmark(StartupConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        StartupConfiguration configuration;
+        try {
+            configuration = StartupConfiguration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid arguments: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            new StartupBenchmark(configuration).run();
+        } catch (IOException ex) {
+            System.err.println("Startup benchmark failed: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Launches the server the configured number of times and prints the results of every run and their medians.
+     *
+     * @throws IOException          If the server could not be launched or did not greet a robot in time.
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        System.out.printf(
+                "%d runs on port %d, %d robots for %d s, JVM options %s, server options %s%n",
+                this.configuration.getRuns(), this.configuration.getPort(), this.configuration.getRobots(),
+                this.configuration.getDuration(), this.configuration.getJvmOptions(),
+                this.configuration.getServerArgs()
+        );
+        System.out.printf("%5s %16s %16s %18s%n", "run", "200 LOGIN [ms]", "steady [ms]", "answers/s");
+
+        // The first launch only warms up the robots, their own JIT would blur the server's warmup
+        this.measure();
+        long[] firstLogins = new long[this.configuration.getRuns()];
+        long[] steadyStates = new long[this.configuration.getRuns()];
+        double[] throughputs = new double[this.configuration.getRuns()];
+        for (int run = 0; run < this.configuration.getRuns(); run++) {
+            Result result = this.measure();
+            firstLogins[run] = result.firstLogin;
+            steadyStates[run] = result.steadyState;
+            throughputs[run] = result.throughput;
+            System.out.printf(
+                    "%5d %16.1f %16.1f %18.0f%n",
+                    run + 1, firstLogins[run] / 1e6, steadyStates[run] / 1e6, throughputs[run]
+            );
+        }
+        System.out.printf(
+                "%5s %16.1f %16.1f %18.0f%n",
+                "p50", median(firstLogins) / 1e6, median(steadyStates) / 1e6, median(throughputs)
+        );
+    }
+
+    /**
+     * Launches the server once and drives it.
+     *
+     * @return Result of the run.
+     */
+    private Result measure() throws IOException, InterruptedException {
+        long launched = System.nanoTime();
+        Process server = this.launch();
+        try {
+            long greeted = this.awaitGreeting(server);
+            Windows windows = this.drive(server);
+            return new Result(
+                    greeted - launched,
+                    windows.getSteadyTime() - launched,
+                    windows.getSteadyThroughput()
+            );
+        } finally {
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    /**
+     * Starts the server in a new JVM, quiet by default, the options given later win.
+     */
+    private Process launch() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(this.configuration.getJvmOptions());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Robot.class.getName());
+        command.add(Integer.toString(this.configuration.getPort()));
+        command.add("--log-level=error");
+        command.addAll(this.configuration.getServerArgs());
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    /**
+     * Connects to the server until it greets the robot.
+     *
+     * @return Time of the greeting, in System.nanoTime() terms.
+     */
+    private long awaitGreeting(Process server) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.configuration.getStartTimeout());
+        while (System.nanoTime() < deadline) {
+            if (!server.isAlive()) {
+                throw new IOException("The server exited with " + server.exitValue());
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", this.configuration.getPort()));
+                socket.setSoTimeout(this.configuration.getStartTimeout() * 1000);
+                InputStream input = socket.getInputStream();
+                byte[] greeting = input.readNBytes(GREETING.length);
+                long greeted = System.nanoTime();
+                if (!Arrays.equals(greeting, GREETING)) {
+                    throw new IOException("Unexpected greeting: " + new String(greeting, StandardCharsets.US_ASCII));
+                }
+                // A full login, the server would complain about a probe leaving in the middle of one
+                socket.getOutputStream().write(PROBE_LOGIN);
+                input.readNBytes(PROBE_ANSWERS);
+                return greeted;
+            } catch (ConnectException ex) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        }
+        throw new IOException("The server did not greet a robot within " + this.configuration.getStartTimeout() + " s");
+    }
+
+    /**
+     * Runs the robots for the configured duration, counting the answers in windows, then stops the server.
+     */
+    private Windows drive(Process server) throws InterruptedException {
+        LoadConfiguration load = LoadConfiguration.parse(new String[]{
+                Integer.toString(this.configuration.getPort()),
+                "--robots=" + this.configuration.getRobots()
+        });
+        LoadReport report = new LoadReport();
+        SimulatedRobot.Foto foto = new SimulatedRobot.Foto(load.getFotoSize());
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(this.configuration.getDuration());
+
+        List<Thread> robots = new ArrayList<>(load.getRobots());
+        for (int i = 0; i < load.getRobots(); i++) {
+            SimulatedRobot robot = new SimulatedRobot(load, report, foto, foto, i);
+            robots.add(Thread.ofVirtual().name("robot-", i).start(() -> {
+                while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                    robot.session(Scenario.NORMAL);
+                }
+            }));
+        }
+
+        Windows windows = new Windows(start);
+        long windowEnd = start;
+        while (windowEnd < deadline) {
+            windowEnd += TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLIS);
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, windowEnd - System.nanoTime()));
+            windows.add(report.getAnswers());
+        }
+
+        // Stopped before the robots, so it does not report the sessions they cut short
+        server.destroy();
+        server.waitFor();
+        for (Thread robot : robots) {
+            robot.interrupt();
+        }
+        for (Thread robot : robots) {
+            robot.join();
+        }
+        return windows;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Result of one launch of the server.
+     */
+    private static class Result {
+
+        /**
+         * Nanoseconds from the launch to the first greeting.
+         */
+        private final long firstLogin;
+
+        /**
+         * Nanoseconds from the launch to the first steady window.
+         */
+        private final long steadyState;
+
+        /**
+         * Answers per second at steady state.
+         */
+        private final double throughput;
+
+        Result(long firstLogin, long steadyState, double throughput) {
+            this.firstLogin = firstLogin;
+            this.steadyState = steadyState;
+            this.throughput = throughput;
+        }
+    }
+
+    /**
+     * Answers counted at the end of every window of a run.
+     */
+    private static class Windows {
+
+        private final long start;
+        private final List<Long> answers = new ArrayList<>();
+
+        Windows(long start) {
+            this.start = start;
+        }
+
+        void add(long answers) {
+            this.answers.add(answers);
+        }
+
+        /**
+         * @return Answers per second in the second half of the run.
+         */
+        double getSteadyThroughput() {
+            int half = this.answers.size() / 2;
+            long before = half == 0 ? 0 : this.answers.get(half - 1);
+            long count = this.answers.get(this.answers.size() - 1) - before;
+            return count * 1000.0 / ((this.answers.size() - half) * WINDOW_MILLIS);
+        }
+
+        /**
+         * @return End of the first window reaching the steady throughput, in System.nanoTime() terms.
+         */
+        long getSteadyTime() {
+            double threshold = this.getSteadyThroughput() * STEADY_RATIO * WINDOW_MILLIS / 1000.0;
+            long previous = 0;
+            for (int i = 0; i < this.answers.size(); i++) {
+                if (this.answers.get(i) - previous >= threshold) {
+                    return this.start + TimeUnit.MILLISECONDS.toNanos((long) (i + 1) * WINDOW_MILLIS);
+                }
+                previous = this.answers.get(i);
+            }
+            return this.start + TimeUnit.MILLISECONDS.toNanos((long) this.answers.size() * WINDOW_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cz.filipklimes.psi.tcp.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the startup benchmark parsed from the command line.
+ * <p>
+ * The first positional argument is the port the server is launched on, every other option has the form
+ * {@code --name=value}. Options the benchmark does not know are passed to the server, which validates them.
+ *
+ * @author klimesf
+ */
+public class StartupConfiguration {
+
+    private int port = 3000;
+    private int runs = 5;
+    private int robots = 20;
+    private int duration = 10;
+    private int startTimeout = 30;
+    private final List<String> jvmOptions = new ArrayList<>();
+    private final List<String> serverArgs = new ArrayList<>();
+
+    /**
+     * Parses configuration from the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @return Parsed configuration.
+     * @throws IllegalArgumentException If an argument could not be parsed.
+     */
+    public static StartupConfiguration parse(String[] args) {
+        StartupConfiguration configuration = new StartupConfiguration();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                configuration.port = Integer.parseInt(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option has no value: " + arg);
+            }
+            if (!configuration.set(arg.substring(2, separator), arg.substring(separator + 1))) {
+                configuration.serverArgs.add(arg);
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * @return false if the option is not the benchmark's own and belongs to the server.
+     */
+    private boolean set(String name, String value) {
+        switch (name) {
+            case "runs":
+                this.runs = Integer.parseInt(value);
+                if (this.runs < 1) {
+                    throw new IllegalArgumentException("Number of runs must be positive");
+                }
+                return true;
+            case "robots":
+                this.robots = Integer.parseInt(value);
+                if (this.robots < 1) {
+                    throw new IllegalArgumentException("Number of robots must be positive");
+                }
+                return true;
+            case "duration":
+                this.duration = Integer.parseInt(value);
+                if (this.duration < 1) {
+                    throw new IllegalArgumentException("Option --duration must be positive");
+                }
+                return true;
+            case "start-timeout":
+                this.startTimeout = Integer.parseInt(value);
+                if (this.startTimeout < 1) {
+                    throw new IllegalArgumentException("Option --start-timeout must be positive");
+                }
+                return true;
+            case "jvm":
+                this.jvmOptions.add(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Port the server is launched on.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Number of times the server is launched.
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return Number of robots driving the server after its first login.
+     */
+    public int getRobots() {
+        return robots;
+    }
+
+    /**
+     * @return Seconds the robots drive every launched server.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Seconds the server has to greet its first robot before the run fails.
+     */
+    public int getStartTimeout() {
+        return startTimeout;
+    }
+
+    /**
+     * @return Options of the server's JVM, e.g. {@code -XX:SharedArchiveFile=robot.jsa}.
+     */
+    public List<String> getJvmOptions() {
+        return jvmOptions;
+    }
+
+    /**
+     * @return Options passed to the server.
+     */
+    public List<String> getServerArgs() {
+        return serverArgs;
+    }
+}
@@ -0,0 +1,94 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of sessions the server serves at once.
+ * <p>
+ * A session counts towards the handshake limit from its connection until its password is accepted,
+ * and towards the session limit until it is closed. Connections over a limit are rejected by the engines
+ * with {@link Response#BUSY} before any thread or buffer is spent on them.
+ *
+ * @author klimesf
+ */
+public class AdmissionControl {
+
+    /**
+     * Maximum number of sessions, 0 if unlimited.
+     */
+    private final int maxSessions;
+
+    /**
+     * Maximum number of sessions which have not logged in yet, 0 if unlimited.
+     */
+    private final int maxHandshakes;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicInteger handshakes = new AtomicInteger();
+
+    /**
+     * @param maxSessions   Maximum number of sessions, 0 if unlimited.
+     * @param maxHandshakes Maximum number of sessions which have not logged in yet, 0 if unlimited.
+     */
+    public AdmissionControl(int maxSessions, int maxHandshakes) {
+        this.maxSessions = maxSessions;
+        this.maxHandshakes = maxHandshakes;
+    }
+
+    /**
+     * Admits a new session if both limits allow it.
+     *
+     * @return true if the session was admitted, false if it must be rejected.
+     */
+    public boolean tryAdmit() {
+        if (!tryAcquire(this.sessions, this.maxSessions)) {
+            return false;
+        }
+        if (!tryAcquire(this.handshakes, this.maxHandshakes)) {
+            this.sessions.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * An admitted session logged in and no longer counts towards the handshake limit.
+     */
+    public void handshakeCompleted() {
+        this.handshakes.decrementAndGet();
+    }
+
+    /**
+     * An admitted session was closed.
+     *
+     * @param handshakeCompleted Did the session log in before?
+     */
+    public void sessionClosed(boolean handshakeCompleted) {
+        if (!handshakeCompleted) {
+            this.handshakes.decrementAndGet();
+        }
+        this.sessions.decrementAndGet();
+    }
+
+    /**
+     * @return Number of sessions which have not logged in yet.
+     */
+    public int getHandshakes() {
+        return this.handshakes.get();
+    }
+
+    private static boolean tryAcquire(AtomicInteger counter, int limit) {
+        if (limit <= 0) {
+            counter.incrementAndGet();
+            return true;
+        }
+        int current;
+        do {
+            current = counter.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current + 1));
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Photo file handler which queues the operations to a writer of the {@link AsyncPhotoStore}.
+ * <p>
+ * The methods return as soon as the operation is queued, so true means queued, not written.
+ * Failures of the actual I/O are recorded by the writer, once a failure is recorded the methods return false
+ * and the queued operations are skipped. Whether the photo was stored in the end is known only from
+ * {@link #finish(boolean, Consumer)}, which reports it once the writer has got that far.
+ *
+ * @author klimesf
+ */
+class AsyncPhotoFileHandler implements PhotoFileHandler {
+
+    private final AsyncPhotoStore.Writer writer;
+
+    /**
+     * Handler doing the actual I/O, opened and used on the writer's thread only, null if it could not be opened.
+     */
+    private PhotoFileHandler delegate;
+
+    /**
+     * Has an operation on the photo failed?
+     */
+    private volatile boolean failed = false;
+
+    AsyncPhotoFileHandler(AsyncPhotoStore.Writer writer, Supplier<PhotoFileHandler> opener) {
+        this.writer = writer;
+        this.writer.submit(() -> {
+            try {
+                this.delegate = opener.get();
+            } catch (RuntimeException ex) {
+                Log.error(Log.NO_CLIENT, "Photo writer could not open the photo file: {}", ex);
+                this.failed = true;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(int i) {
+        return this.submit(() -> this.delegate.append(i), "append");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are copied, the caller may reuse the array once the method returns.
+     */
+    @Override
+    public boolean append(byte[] bytes, int offset, int length) {
+        if (this.failed) {
+            return false;
+        }
+        byte[] copy = Arrays.copyOfRange(bytes, offset, offset + length);
+        return this.submit(() -> this.delegate.append(copy, 0, copy.length), "append");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The bytes are copied, the caller may reuse the buffer once the method returns.
+     */
+    @Override
+    public boolean append(ByteBuffer buffer) {
+        if (this.failed) {
+            buffer.position(buffer.limit());
+            return false;
+        }
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        return this.submit(() -> this.delegate.append(copy, 0, copy.length), "append");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean close() {
+        return this.submit(() -> this.delegate.close(), "close");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean commit() {
+        return this.submit(() -> this.delegate.commit(), "commit");
+    }
+
+    /**
+     * Removes the file even after a failure, the failed operation may have left it behind.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean removeFile() {
+        this.writer.submit(() -> {
+            if (this.delegate != null && !this.delegate.removeFile()) {
+                Log.error(Log.NO_CLIENT, "Photo writer could not {} the photo file.", "remove");
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Finishes the photo on the writer's thread after the operations queued before,
+     * the result is reported from that thread too.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void finish(boolean commit, Consumer<Boolean> stored) {
+        this.writer.submit(() -> {
+            boolean committed = false;
+            try {
+                if (this.delegate != null) {
+                    committed = !this.failed && this.delegate.close() && commit && this.delegate.commit();
+                    if (!committed && !this.delegate.removeFile()) {
+                        Log.error(Log.NO_CLIENT, "Photo writer could not {} the photo file.", "remove");
+                    }
+                }
+            } finally {
+                // The session waits for the answer, it gets one even if the I/O threw
+                stored.accept(committed);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean whenWritable(Runnable ready) {
+        return this.writer.whenWritable(ready);
+    }
+
+    /**
+     * Queues an operation, which is skipped if an operation before it failed.
+     *
+     * @return false if an operation has failed already.
+     */
+    private boolean submit(BooleanSupplier operation, String name) {
+        if (this.failed) {
+            return false;
+        }
+        this.writer.submit(() -> {
+            if (!this.failed && !operation.getAsBoolean()) {
+                Log.error(Log.NO_CLIENT, "Photo writer could not {} the photo file.", name);
+                this.failed = true;
+            }
+        });
+        return true;
+    }
+}
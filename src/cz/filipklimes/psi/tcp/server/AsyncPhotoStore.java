@@ -0,0 +1,144 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.upload.PartialUpload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Photo store which hands the disk I/O over to a bounded pool of writer threads.
+ * <p>
+ * Every writer has a bounded queue of operations. All operations on one photo go through the same writer,
+ * so they are applied in order. Queuing never blocks the session, when a writer's queue is full the session
+ * sending the photo stops reading from its robot until the writer catches up, see
+ * {@link PhotoFileHandler#whenWritable(Runnable)}.
+ *
+ * @author klimesf
+ */
+public class AsyncPhotoStore implements PhotoStore {
+
+    private final PhotoStore delegate;
+    private final Writer[] writers;
+
+    /**
+     * Creates the store and starts its writer threads.
+     *
+     * @param delegate      Store which does the actual I/O.
+     * @param writers       Number of writer threads.
+     * @param queueCapacity Number of operations a writer queues before the sessions stop reading.
+     */
+    public AsyncPhotoStore(PhotoStore delegate, int writers, int queueCapacity) {
+        this.delegate = delegate;
+        this.writers = new Writer[writers];
+        for (int i = 0; i < writers; i++) {
+            this.writers[i] = new Writer(queueCapacity);
+            Thread thread = new Thread(this.writers[i], "photo-writer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PhotoFileHandler open(Client client) {
+        return new AsyncPhotoFileHandler(this.writer(client), () -> this.delegate.open(client));
+    }
+
+    /**
+     * The mirror is written and the resumed upload is replayed by the writer too.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public PhotoFileHandler open(Client client, PartialUpload upload) {
+        return new AsyncPhotoFileHandler(this.writer(client), () -> this.delegate.open(client, upload));
+    }
+
+    private Writer writer(Client client) {
+        return this.writers[Math.floorMod(client.getClientNumber(), this.writers.length)];
+    }
+
+    /**
+     * Thread applying the queued operations.
+     */
+    static class Writer implements Runnable {
+
+        private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        private final int capacity;
+
+        /**
+         * Number of operations queued or running, guarded by the writer.
+         */
+        private int pending = 0;
+
+        /**
+         * Callbacks of the sessions waiting for the queue to drain, guarded by the writer.
+         */
+        private final List<Runnable> waiting = new ArrayList<>();
+
+        Writer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Queues an operation without blocking, the queue may go over its capacity.
+         *
+         * @param operation The operation.
+         */
+        void submit(Runnable operation) {
+            synchronized (this) {
+                this.pending++;
+            }
+            this.queue.add(operation);
+        }
+
+        /**
+         * @param ready Called from the writer's thread once the queue is below its capacity.
+         * @return true if the queue is below its capacity now, ready is not called then.
+         */
+        synchronized boolean whenWritable(Runnable ready) {
+            if (this.pending < this.capacity) {
+                return true;
+            }
+            this.waiting.add(ready);
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    this.queue.take().run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException ex) {
+                    Log.error(Log.NO_CLIENT, "Photo writer failed: {}", ex);
+                }
+                this.completed();
+            }
+        }
+
+        /**
+         * Wakes the waiting sessions up when an operation finished and the queue dropped below its capacity.
+         */
+        private void completed() {
+            List<Runnable> ready;
+            synchronized (this) {
+                this.pending--;
+                if (this.pending >= this.capacity || this.waiting.isEmpty()) {
+                    return;
+                }
+                ready = new ArrayList<>(this.waiting);
+                this.waiting.clear();
+            }
+            for (Runnable callback : ready) {
+                callback.run();
+            }
+        }
+    }
+}
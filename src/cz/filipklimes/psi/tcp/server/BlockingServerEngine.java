@@ -0,0 +1,170 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Engine which blocks on accept and starts a new thread for every robot.
+ * <p>
+ * With more acceptors every acceptor has its own listening socket on the same port and the kernel
+ * spreads the incoming connections among them.
+ * <p>
+ * The robots are accepted as channels used through their blocking sockets, so their sessions can be parked
+ * while they wait for a message, see {@link SessionParking}.
+ *
+ * @author klimesf
+ */
+public class BlockingServerEngine implements ServerEngine {
+
+    /**
+     * Factory of the threads serving the robots.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * Parking of the idle sessions, null if they are never parked.
+     */
+    private SessionParking parking;
+
+    /**
+     * @param threadFactory Factory of the threads serving the robots, platform or virtual.
+     */
+    public BlockingServerEngine(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serve(ServerContext context) throws IOException {
+        Configuration configuration = context.getConfiguration();
+        int acceptors = configuration.getAcceptors();
+
+        // Bind all listeners first, so a failure is reported before any robot is served
+        ServerSocketChannel[] serverSockets = new ServerSocketChannel[acceptors];
+        for (int shard = 0; shard < acceptors; shard++) {
+            serverSockets[shard] = listen(configuration);
+        }
+        if (configuration.isParkIdle()) {
+            this.parking = new SessionParking(context, parked -> this.resume(parked, context));
+            new Thread(this.parking, "parking").start();
+        }
+        for (int shard = 1; shard < acceptors; shard++) {
+            ServerSocketChannel serverSocket = serverSockets[shard];
+            int first = shard + 1;
+            new Thread(() -> this.accept(serverSocket, first, acceptors, context), "acceptor-" + shard).start();
+        }
+        this.accept(serverSockets[0], 1, acceptors, context);
+    }
+
+    /**
+     * Opens a listening socket, shared with the other acceptors through SO_REUSEPORT if there are more of them.
+     *
+     * @param configuration Configuration of the server.
+     * @return The bound socket.
+     * @throws IOException If the socket could not be bound.
+     */
+    private static ServerSocketChannel listen(Configuration configuration) throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        if (configuration.getAcceptors() > 1) {
+            if (!serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverSocket.close();
+                throw new IOException("SO_REUSEPORT is not supported, use a single acceptor");
+            }
+            serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverSocket.bind(new InetSocketAddress(configuration.getPort()), configuration.getAcceptBacklog());
+        return serverSocket;
+    }
+
+    /**
+     * Accepts the robots of one listening socket until the server shuts down.
+     * <p>
+     * The acceptors number their clients first, first + step, first + 2 * step, ...,
+     * so the numbers are unique across the acceptors without any shared counter.
+     *
+     * @param serverSocket The listening socket.
+     * @param first        Number of the first client of this acceptor.
+     * @param step         Number of the acceptors.
+     * @param context      Shared services of the server.
+     */
+    private void accept(ServerSocketChannel serverSocket, int first, int step, ServerContext context) {
+        AdmissionControl admissionControl = context.getAdmissionControl();
+
+        int clientNumber = first;
+        while (true) {
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept().socket();
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Accept failed.");
+                continue;
+            }
+            context.getMetrics().accepted();
+            if (!admissionControl.tryAdmit()) {
+                reject(clientSocket, context);
+                continue;
+            }
+            try {
+                // Start client's own thread
+                Client handler = new Client(clientSocket, clientNumber, context);
+                clientNumber += step;
+                Runnable clientExecutor = new ClientHandlerExecutor(handler, clientSocket, context, this.parking, null);
+                this.threadFactory.newThread(clientExecutor).start();
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Could not start serving a robot: {}", ex);
+                admissionControl.sessionClosed(false);
+                close(clientSocket);
+            }
+        }
+    }
+
+    /**
+     * Continues a parked session whose robot sent something in a new thread.
+     *
+     * @param parked  Record of the session, its channel is in blocking mode.
+     * @param context Shared services of the server.
+     */
+    private void resume(ParkedSession parked, ServerContext context) {
+        Socket socket = parked.getChannel().socket();
+        try {
+            Client handler = new Client(socket, parked.getClientNumber(), context);
+            this.threadFactory.newThread(new ClientHandlerExecutor(handler, socket, context, this.parking, parked)).start();
+        } catch (IOException ex) {
+            Log.error(parked.getClientNumber(), "Could not continue a parked session: {}", ex);
+            parked.close(context);
+        }
+    }
+
+    /**
+     * Answers 503 BUSY to a connection over the admission limits and closes it.
+     *
+     * @param socket  The connection.
+     * @param context Shared services of the server.
+     */
+    private static void reject(Socket socket, ServerContext context) {
+        context.getMetrics().rejected();
+        Log.debug(Log.NO_CLIENT, "Rejecting a robot, the server is busy.");
+        try {
+            Response.BUSY.writeTo(socket.getOutputStream());
+        } catch (IOException ex) {
+            // the robot is gone already
+        }
+        close(socket);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not close the socket: {}", ex);
+        }
+    }
+}
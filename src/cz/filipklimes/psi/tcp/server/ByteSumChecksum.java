@@ -0,0 +1,159 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+import java.util.zip.Checksum;
+
+/**
+ * Checksum of the FOTO message, the sum of all bytes of the photo taken as unsigned values.
+ * <p>
+ * The bytes are summed a word at a time: a 64-bit word is split into four 16-bit lanes holding two bytes each,
+ * the lanes are accumulated for up to {@value #WORDS_PER_FOLD} words and then folded into the sum.
+ *
+ * @author klimesf
+ */
+public class ByteSumChecksum implements Checksum {
+
+    /**
+     * Reads a long from any index of a byte array, the byte order does not matter for the sum.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Every other byte of a word.
+     */
+    private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+
+    /**
+     * A word adds at most 2 * 255 to a 16-bit lane, so the lanes overflow after 128 words.
+     */
+    private static final int WORDS_PER_FOLD = 128;
+
+    private long value = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(int b) {
+        this.value += b & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(byte[] b, int off, int len) {
+        this.value += sum(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(ByteBuffer buffer) {
+        this.value += sum(buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getValue() {
+        return this.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        this.value = 0;
+    }
+
+    /**
+     * Resets the checksum to the sum of bytes summed before, to go on with the rest of them.
+     *
+     * @param value Checksum of the bytes summed before.
+     */
+    public void reset(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Sums the bytes as unsigned values.
+     *
+     * @param bytes  Array with the bytes.
+     * @param offset Index of the first byte.
+     * @param length Number of bytes.
+     * @return Sum of the bytes.
+     */
+    public static long sum(byte[] bytes, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        int end = offset + length;
+        int i = offset;
+        long sum = 0;
+
+        while (end - i >= Long.BYTES) {
+            int words = Math.min((end - i) / Long.BYTES, WORDS_PER_FOLD);
+            long lanes = 0;
+            for (int w = 0; w < words; w++, i += Long.BYTES) {
+                long word = (long) LONGS.get(bytes, i);
+                lanes += (word & LOW_BYTES) + ((word >>> 8) & LOW_BYTES);
+            }
+            sum += fold(lanes);
+        }
+
+        // Tail shorter than a word
+        for (; i < end; i++) {
+            sum += bytes[i] & 0xff;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the remaining bytes of the buffer as unsigned values and moves its position to its limit.
+     *
+     * @param buffer The buffer.
+     * @return Sum of the bytes.
+     */
+    public static long sum(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.position(limit);
+
+        if (buffer.hasArray()) {
+            return sum(buffer.array(), buffer.arrayOffset() + position, limit - position);
+        }
+
+        int i = position;
+        long sum = 0;
+        while (limit - i >= Long.BYTES) {
+            int words = Math.min((limit - i) / Long.BYTES, WORDS_PER_FOLD);
+            long lanes = 0;
+            for (int w = 0; w < words; w++, i += Long.BYTES) {
+                long word = buffer.getLong(i);
+                lanes += (word & LOW_BYTES) + ((word >>> 8) & LOW_BYTES);
+            }
+            sum += fold(lanes);
+        }
+        for (; i < limit; i++) {
+            sum += buffer.get(i) & 0xff;
+        }
+        return sum;
+    }
+
+    /**
+     * Adds up the four 16-bit lanes.
+     *
+     * @param lanes The lanes.
+     * @return Sum of the lanes.
+     */
+    private static long fold(long lanes) {
+        long pairs = (lanes & 0x0000FFFF0000FFFFL) + ((lanes >>> 16) & 0x0000FFFF0000FFFFL);
+        return (pairs & 0xFFFFFFFFL) + (pairs >>> 32);
+    }
+}
@@ -0,0 +1,52 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of equally sized byte arrays reused for staging the photos in memory.
+ * <p>
+ * When the pool is empty a new chunk is allocated, when it is full a released chunk is left to the garbage collector.
+ *
+ * @author klimesf
+ */
+public class ChunkPool {
+
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> chunks;
+
+    /**
+     * @param chunkSize Size of a chunk in bytes.
+     * @param capacity  Maximum number of idle chunks kept in the pool.
+     */
+    public ChunkPool(int chunkSize, int capacity) {
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @return Size of a chunk in bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Takes a chunk from the pool. Its contents are undefined.
+     *
+     * @return The chunk.
+     */
+    public byte[] acquire() {
+        byte[] chunk = this.chunks.poll();
+        return chunk != null ? chunk : new byte[this.chunkSize];
+    }
+
+    /**
+     * Returns a chunk to the pool.
+     *
+     * @param chunk The chunk.
+     */
+    public void release(byte[] chunk) {
+        this.chunks.offer(chunk);
+    }
+}
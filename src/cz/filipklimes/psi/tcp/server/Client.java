@@ -1,13 +1,22 @@
 package cz.filipklimes.psi.tcp.server;
 
+import cz.filipklimes.psi.tcp.server.buffer.PooledOutputStream;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.states.AwaitingMessageState;
 import cz.filipklimes.psi.tcp.server.states.InitialState;
 import cz.filipklimes.psi.tcp.server.states.State;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
 /**
  * Client represents a thread serving the Robot on the other side of the socket.
@@ -17,9 +26,14 @@ import java.net.SocketException;
 public class Client implements Runnable {
 
     /**
-     * Socket of the client.
+     * Connection to the client, a socket or a channel.
      */
-    private final Socket socket;
+    private final Closeable connection;
+
+    /**
+     * Services shared by all clients.
+     */
+    private final ServerContext serverContext;
 
     /**
      * Clients number.
@@ -29,39 +43,122 @@ public class Client implements Runnable {
     /**
      * Input scanner.
      */
-    private final BufferedInputStream input;
+    private final InputStream input;
 
     /**
      * Output stream to the client.
      */
-    private final BufferedOutputStream output;
+    private final OutputStream output;
 
     /**
      * State of the machine.
      */
-    private State state = new InitialState(this);
+    private State state = InitialState.INSTANCE;
+
+    /**
+     * Data of the session kept between the messages.
+     */
+    private final Session session = new Session();
+
+    /**
+     * Decides the answers to the messages.
+     */
+    private final ProtocolHandler handler;
+
+    /**
+     * Deadlines of the session, null if the engine tracks no deadlines.
+     */
+    private SessionTimeouts timeouts;
+
+    /**
+     * Time in nanoseconds when the client connected.
+     */
+    private final long connectedAt = System.nanoTime();
 
     /**
-     * Calculated password of the client.
+     * Has the robot logged in?
      */
-    private int calculatedPassword;
+    private boolean handshakeCompleted = false;
 
     /**
-     * Does the password start with "Robot"?
+     * Parking which takes the session over while it waits for a message, null if the session is never parked.
      */
-    private boolean passwordStartOkay = false;
+    private SessionParking parking;
+
+    /**
+     * Has the session been reduced to a parked record?
+     */
+    private boolean parked = false;
+
+    /**
+     * Has the client been disconnected?
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Answers waiting for an earlier answer which is not known yet, starting with that one.
+     */
+    private final Queue<PendingAnswer> pendingAnswers = new ArrayDeque<>();
 
     /**
      * Constructor.
      *
-     * @param socket Client's socket
+     * @param socket        Client's socket
+     * @param clientNumber  Client's number.
+     * @param serverContext Services shared by all clients.
      * @throws java.io.IOException
      */
-    public Client(Socket socket, int clientNumber) throws IOException {
-        this.socket = socket;
+    public Client(Socket socket, int clientNumber, ServerContext serverContext) throws IOException {
+        this(
+                socket,
+                clientNumber,
+                serverContext.getTrafficCapture().wrap(clientNumber, socket.getInputStream()),
+                new PooledOutputStream(socket.getOutputStream(), serverContext.getBufferPool()),
+                serverContext
+        );
+    }
+
+    private Client(
+            Socket socket,
+            int clientNumber,
+            InputStream input,
+            OutputStream output,
+            ServerContext serverContext
+    ) {
+        this(
+                (Closeable) socket,
+                clientNumber,
+                new SessionInputStream(input, output, serverContext.getBufferPool()),
+                output,
+                serverContext
+        );
+    }
+
+    /**
+     * Constructor for engines which provide their own streams.
+     * <p>
+     * The states leave the answers in the output, the engine flushes them before it waits for more input,
+     * e.g. with a {@link SessionInputStream}. The output must buffer the answers until it is flushed.
+     *
+     * @param connection    Connection which is closed on disconnect.
+     * @param clientNumber  Client's number.
+     * @param input         Input stream from the client, null if the engine decodes the messages itself.
+     * @param output        Output stream to the client.
+     * @param serverContext Services shared by all clients.
+     */
+    public Client(
+            Closeable connection,
+            int clientNumber,
+            InputStream input,
+            OutputStream output,
+            ServerContext serverContext
+    ) {
+        this.connection = connection;
+        this.serverContext = serverContext;
         this.clientNumber = clientNumber;
-        this.input = new BufferedInputStream(socket.getInputStream());
-        this.output = new BufferedOutputStream(socket.getOutputStream());
+        this.input = input;
+        this.output = output;
+        this.handler = new ProtocolHandler(this);
     }
 
     /**
@@ -70,11 +167,249 @@ public class Client implements Runnable {
      * @throws IOException
      */
     public void disconnect() throws IOException {
-        System.out.printf("[%d]: Disconnecting.\n", this.getClientNumber());
-        this.input.close();
+        Log.info(this.getClientNumber(), "Disconnecting.");
+        this.closed = true;
+        this.cancelTimeouts();
+        this.handler.discard();
+        if (this.input != null) {
+            this.input.close();
+        }
         this.output.close();
-        this.socket.close();
-        System.out.printf("[%d] left\n", this.getClientNumber());
+        this.connection.close();
+        Log.info(this.getClientNumber(), "Left.");
+    }
+
+    /**
+     * @return true if the client has been disconnected.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Runs one cycle of the state machine: reads a message, answers it and moves to the next state.
+     *
+     * @throws IOException
+     */
+    public void step() throws IOException {
+        State current = this.state;
+        current.readMessage(this, this.input);
+        current.printOutput(this, this.output);
+        current.setNextState(this);
+    }
+
+    /**
+     * Writes an answer to the client, closing answers disconnect it.
+     *
+     * @param response The answer.
+     * @throws IOException
+     */
+    public void answer(Response response) throws IOException {
+        if (!this.pendingAnswers.isEmpty()) {
+            this.pendingAnswers.add(new PendingAnswer(response, null));
+            return;
+        }
+        this.write(response);
+    }
+
+    private void write(Response response) throws IOException {
+        response.writeTo(this.output);
+        if (response.isError()) {
+            Log.warn(this.getClientNumber(), "Sending {} answer.", response);
+        } else {
+            Log.debug(this.getClientNumber(), "Sending {} answer.", response);
+        }
+        if (response.isClosing()) {
+            this.output.flush();
+            this.disconnect();
+        }
+    }
+
+    /**
+     * The robot logged in, the session no longer counts towards the handshake limit.
+     */
+    public void completeHandshake() {
+        if (!this.handshakeCompleted) {
+            this.handshakeCompleted = true;
+            this.serverContext.getAdmissionControl().handshakeCompleted();
+        }
+    }
+
+    /**
+     * @return Is the robot logged in and waiting for its next message with nothing unread?
+     * @throws IOException
+     */
+    public boolean isIdle() throws IOException {
+        return this.handshakeCompleted
+                && this.state == AwaitingMessageState.INSTANCE
+                && this.input != null
+                && this.input.available() == 0;
+    }
+
+    /**
+     * Reduces an idle session to a parked record. The client must not be used afterwards,
+     * the session goes on in a new client restored from the record.
+     *
+     * @param channel Channel of the connection.
+     * @return The record, null if the session has timed out meanwhile.
+     */
+    public ParkedSession park(SocketChannel channel) {
+        long sessionDeadline = 0;
+        long idleDeadline = 0;
+        if (this.timeouts != null) {
+            if (!this.timeouts.suspend()) {
+                return null;
+            }
+            sessionDeadline = this.timeouts.getSessionDeadline();
+            idleDeadline = this.timeouts.getPhaseDeadline();
+        }
+        this.parked = true;
+        this.serverContext.getMetrics().sessionParked();
+        Log.debug(this.getClientNumber(), "Parked.");
+        return new ParkedSession(channel, this.clientNumber, this.session.getLogin(), sessionDeadline, idleDeadline);
+    }
+
+    /**
+     * Continues a parked session in this new client.
+     *
+     * @param parked   Record of the session.
+     * @param timeouts Deadlines of the session, restarted where they stopped.
+     */
+    public void restore(ParkedSession parked, SessionTimeouts timeouts) {
+        this.session.setLogin(parked.getLogin());
+        this.handshakeCompleted = true;
+        this.state = AwaitingMessageState.INSTANCE;
+        this.timeouts = timeouts;
+        timeouts.restore(TimeoutPhase.IDLE, parked.getSessionDeadline(), parked.getIdleDeadline());
+        this.serverContext.getMetrics().sessionUnparked();
+        Log.debug(this.getClientNumber(), "Restored.");
+    }
+
+    /**
+     * @return Has the session been reduced to a parked record?
+     */
+    public boolean isParked() {
+        return parked;
+    }
+
+    /**
+     * @param parking Parking which takes the session over while it waits for a message.
+     */
+    public void setParking(SessionParking parking) {
+        this.parking = parking;
+    }
+
+    /**
+     * @return Channel of the connection, null if it has none.
+     */
+    public SocketChannel getChannel() {
+        return this.connection instanceof Socket ? ((Socket) this.connection).getChannel() : null;
+    }
+
+    /**
+     * Returns the session's place in the admission control, called once when the connection is closed.
+     */
+    public void releaseAdmission() {
+        this.serverContext.getAdmissionControl().sessionClosed(this.handshakeCompleted);
+    }
+
+    /**
+     * Writes an answer with an argument to the client.
+     *
+     * @param response The answer.
+     * @param argument Argument of the answer.
+     * @throws IOException
+     */
+    public void answer(Response response, String argument) throws IOException {
+        if (!this.pendingAnswers.isEmpty()) {
+            this.pendingAnswers.add(new PendingAnswer(response, argument));
+            return;
+        }
+        this.write(response, argument);
+    }
+
+    private void write(Response response, String argument) throws IOException {
+        response.writeTo(this.output, argument);
+        Log.debug(this.getClientNumber(), "Sending {} answer.", response);
+    }
+
+    /**
+     * Sends the answer right away from another thread, e.g. the timer's, unless the session is in the middle
+     * of sending its own answers. The answers the session has not flushed yet are not sent before it.
+     *
+     * @param response The answer.
+     * @return true if the answer was sent.
+     * @throws IOException
+     */
+    boolean answerBetweenFlushes(Response response) throws IOException {
+        if (!(this.output instanceof PooledOutputStream)) {
+            return false;
+        }
+        ByteBuffer bytes = response.toByteBuffer();
+        byte[] answer = new byte[bytes.remaining()];
+        bytes.get(answer);
+        return ((PooledOutputStream) this.output).writeBetweenFlushes(answer, 0, answer.length);
+    }
+
+    /**
+     * Reserves the place of an answer which is not known yet. The following answers are held back until
+     * it is given by {@link #answer(PendingAnswer, Response)}, so the robot gets them in the order of its messages.
+     *
+     * @return The place of the answer.
+     */
+    PendingAnswer reserveAnswer() {
+        PendingAnswer answer = new PendingAnswer(null, null);
+        this.pendingAnswers.add(answer);
+        return answer;
+    }
+
+    /**
+     * Gives a reserved answer and writes it with the answers held back behind it, up to the next unknown one.
+     *
+     * @param answer   Place of the answer.
+     * @param response The answer.
+     * @throws IOException
+     */
+    void answer(PendingAnswer answer, Response response) throws IOException {
+        answer.response = response;
+        while (!this.closed && !this.pendingAnswers.isEmpty() && this.pendingAnswers.peek().response != null) {
+            PendingAnswer next = this.pendingAnswers.poll();
+            if (next.argument == null) {
+                this.write(next.response);
+            } else {
+                this.write(next.response, next.argument);
+            }
+        }
+    }
+
+    /**
+     * Sends the buffered answers now instead of before the next blocking read.
+     *
+     * @throws IOException
+     */
+    public void flushAnswers() throws IOException {
+        this.output.flush();
+    }
+
+    /**
+     * @return Handler deciding the answers to the messages.
+     */
+    public ProtocolHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return Time in nanoseconds, as given by System.nanoTime(), when the client connected.
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * @return Services shared by all clients.
+     */
+    public ServerContext getServerContext() {
+        return serverContext;
     }
 
     /**
@@ -91,34 +426,51 @@ public class Client implements Runnable {
      */
     public void setState(State state) {
         this.state = state;
+        this.enterPhase(state.getTimeoutPhase());
+    }
+
+    /**
+     * Moves the deadlines of the session to the given phase.
+     *
+     * @param phase Phase of the session.
+     */
+    public void enterPhase(TimeoutPhase phase) {
+        if (this.timeouts != null) {
+            this.timeouts.enter(phase);
+        }
     }
 
     /**
-     * @param calculatedPassword
+     * Starts tracking the deadlines of the session.
+     *
+     * @param timeouts Deadlines of the session.
      */
-    public void setCalculatedPassword(int calculatedPassword) {
-        this.calculatedPassword = calculatedPassword;
+    public void setTimeouts(SessionTimeouts timeouts) {
+        this.timeouts = timeouts;
+        timeouts.start(this.state.getTimeoutPhase());
     }
 
     /**
-     * @return The calculated password. Might not be initialized.
+     * Stops tracking the deadlines of the session.
      */
-    public int getCalculatedPassword() {
-        return calculatedPassword;
+    public void cancelTimeouts() {
+        if (this.timeouts != null) {
+            this.timeouts.cancel();
+        }
     }
 
     /**
-     * @param passwordStartOkay
+     * @return Data of the session kept between the messages.
      */
-    public void setPasswordStartOkay(boolean passwordStartOkay) {
-        this.passwordStartOkay = passwordStartOkay;
+    public Session getSession() {
+        return session;
     }
 
     /**
-     * @return true if the password starts with "Robot", false if not. Might not be initialized.
+     * @return Identifier of the session unique across restarts of the server.
      */
-    public boolean isPasswordStartOkay() {
-        return passwordStartOkay;
+    public String getSessionId() {
+        return this.serverContext.getLaunchId() + "-" + this.clientNumber;
     }
 
     /**
@@ -129,38 +481,56 @@ public class Client implements Runnable {
     public void run() {
         try {
             // Server talks first
-            this.state.readMessage(this.input);
-            this.state.printOutput(this.output);
-            this.state.setNextState();
+            this.step();
 
             // Continue in loop while client talks
-            while (!this.socket.isClosed()) {
+            while (!this.isClosed()) {
                 // Server shutting down
                 if (Thread.currentThread().isInterrupted()) {
                     break;
                 }
+                // Give the thread up instead of blocking it until the robot sends something
+                if (this.parking != null && this.isIdle() && this.parking.park(this)) {
+                    return;
+                }
                 // Load next command
-                this.state.readMessage(this.input);
-                this.state.printOutput(this.output);
-                this.state.setNextState();
+                this.step();
             }
 
-        } catch (SocketException ex) {
-            System.err.printf("[%d]: Robot disconnected.\n", this.getClientNumber());
+        } catch (SocketException | ClosedChannelException ex) {
+            // The robot left, or the timeout or the shutdown closed the socket under the read
+            Log.warn(this.getClientNumber(), "Robot disconnected.");
         } catch (IOException ex) {
-            System.err.printf("[%d]: An I/O exception occurred: %s\n",
-                    this.getClientNumber(),
-                    ex.getMessage()
-            );
-            ex.printStackTrace();
+            Log.error(this.getClientNumber(), "An I/O exception occurred: {}", ex);
         } finally {
             try {
-                if (!this.socket.isClosed()) {
+                if (!this.isClosed() && !this.isParked()) {
                     this.disconnect();
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.error(this.getClientNumber(), "Could not disconnect: {}", e);
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Answer waiting for an earlier one, or the place of an answer which is not known yet.
+     */
+    static class PendingAnswer {
+
+        /**
+         * The answer, null while it is not known.
+         */
+        private Response response;
+
+        /**
+         * Argument of the answer, null if it has none.
+         */
+        private final String argument;
+
+        private PendingAnswer(Response response, String argument) {
+            this.response = response;
+            this.argument = argument;
+        }
+    }
+}
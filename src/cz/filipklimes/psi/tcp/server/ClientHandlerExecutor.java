@@ -1,40 +1,115 @@
 package cz.filipklimes.psi.tcp.server;
 
-import java.io.BufferedOutputStream;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
 import java.io.IOException;
 import java.net.Socket;
-import java.util.concurrent.*;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Runs the Client on the current thread while the shared timer watches its deadlines.
+ *
  * @author klimesf
  */
 public class ClientHandlerExecutor implements Runnable {
 
+    /**
+     * Milliseconds the 502 TIMEOUT answer may take before the socket is closed without it.
+     */
+    private static final long TIMEOUT_ANSWER_GRACE_MILLIS = 1000;
+
     private Client handler;
     private Socket socket;
-    private BufferedOutputStream outputStream;
+    private ServerContext context;
+
+    /**
+     * Parking of the idle sessions, null if they are never parked.
+     */
+    private SessionParking parking;
+
+    /**
+     * Record the client was restored from, null for a new session.
+     */
+    private ParkedSession parked;
 
-    public ClientHandlerExecutor(Client handler, Socket socket) throws IOException {
+    public ClientHandlerExecutor(Client handler, Socket socket, ServerContext context) throws IOException {
+        this(handler, socket, context, null, null);
+    }
+
+    /**
+     * @param handler Client to run.
+     * @param socket  Client's socket.
+     * @param context Shared services of the server.
+     * @param parking Parking of the idle sessions, null if they are never parked.
+     * @param parked  Record the client is restored from, null for a new session.
+     */
+    ClientHandlerExecutor(
+            Client handler,
+            Socket socket,
+            ServerContext context,
+            SessionParking parking,
+            ParkedSession parked
+    ) {
         this.handler = handler;
         this.socket = socket;
-        this.outputStream = new BufferedOutputStream(socket.getOutputStream());
+        this.context = context;
+        this.parking = parking;
+        this.parked = parked;
     }
 
     @Override
     public void run() {
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        if (this.parked == null) {
+            this.context.getMetrics().sessionOpened();
+            this.context.getTrafficCapture().connected(this.handler.getClientNumber());
+        }
         try {
-            executorService.submit(this.handler).get(Robot.TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-        } catch (ExecutionException e) {
-        } catch (TimeoutException e) {
+            if (this.parked == null) {
+                this.handler.setTimeouts(this.context.createSessionTimeouts(this::timeout));
+            } else {
+                this.handler.restore(this.parked, this.context.createSessionTimeouts(this::timeout));
+                this.parked = null;
+            }
+            this.handler.setParking(this.parking);
+            this.handler.run();
+        } finally {
+            // A parked session goes on in another executor
+            if (!this.handler.isParked()) {
+                this.context.getMetrics().sessionClosed();
+                this.handler.releaseAdmission();
+            }
+        }
+    }
+
+    /**
+     * Answers 502 TIMEOUT and closes the socket, which interrupts the Client's blocking read.
+     * Called from the timer thread.
+     * <p>
+     * The answer is written on a thread of its own, a robot which does not read would block the timer thread and
+     * every other deadline with it. The socket is closed after a grace period even if the answer is still stuck.
+     * It goes through the session's output between its answers, when the session is sending an answer right then
+     * the socket is closed without it.
+     */
+    private void timeout() {
+        Log.warn(this.handler.getClientNumber(), "Connection timed out.");
+        this.context.getTimer().schedule(this::closeSocket, TIMEOUT_ANSWER_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        Thread.ofVirtual().name("timeout-" + this.handler.getClientNumber()).start(() -> {
             try {
-                System.err.printf("[%d]: Connection timed out\n", this.handler.getClientNumber());
-                this.outputStream.write("502 TIMEOUT\r\n".getBytes());
-                this.outputStream.flush();
-                this.socket.close();
-            } catch (IOException e1) {
+                if (!this.handler.answerBetweenFlushes(Response.TIMEOUT)) {
+                    Log.debug(this.handler.getClientNumber(), "Closing without the timeout answer.");
+                }
+            } catch (IOException ex) {
+                // The robot is gone or the grace period is over
+            } finally {
+                this.closeSocket();
             }
+        });
+    }
+
+    private void closeSocket() {
+        try {
+            this.socket.close();
+        } catch (IOException ex) {
         }
     }
 }
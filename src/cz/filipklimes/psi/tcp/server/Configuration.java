@@ -0,0 +1,447 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Level;
+
+/**
+ * Startup configuration of the server parsed from the command line.
+ * <p>
+ * The first positional argument is the port, every other option has the form {@code --name=value}.
+ *
+ * @author klimesf
+ */
+public class Configuration {
+
+    /**
+     * Server engine which serves the connected robots.
+     */
+    public enum Engine {
+        /**
+         * Blocking accept loop with one platform thread per robot.
+         */
+        BLOCKING,
+        /**
+         * Blocking accept loop with one virtual thread per robot.
+         */
+        VIRTUAL,
+        /**
+         * Non-blocking selector event loops, one per core.
+         */
+        NIO
+    }
+
+    /**
+     * Layout of the stored photos.
+     */
+    public enum PhotoStoreType {
+        /**
+         * foto&lt;client number&gt;.png in the working directory.
+         */
+        WORKDIR,
+        /**
+         * Sharded directory tree keyed by the digest of the photo.
+         */
+        CONTENT
+    }
+
+    private int port = 3000; // Default value
+    private Engine engine = Engine.BLOCKING;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int sessionTimeout = Robot.TIMEOUT_IN_SECONDS;
+    private int photoWriters = 2;
+    private int photoQueueCapacity = 64;
+    private Level logLevel = Level.INFO;
+    private int metricsPort = 0;
+    private int maxSessions = 0;
+    private int maxHandshakes = 0;
+    private int acceptBacklog = 50;
+    private int acceptors = 1;
+    private long fotoIngestRate = 0;
+    private long fotoSessionRate = 0;
+    private int resumeTimeToLive = 0;
+    private int resumeCacheCapacity = 10000;
+    private String tokenPrefix = "";
+    private String partialDirectory = "partial-uploads";
+    private long partialBudget = 0;
+    private int partialTimeToLive = 600;
+    private long partialMinLength = 64 * 1024;
+    private long bufferPoolBytes = 8 * 1024 * 1024;
+    private boolean parkIdle = false;
+    private String captureFile = null;
+    private long captureQueueCapacity = 64 * 1024 * 1024;
+    private int warmupSessions = 0;
+    private PhotoStoreType photoStore = PhotoStoreType.WORKDIR;
+    private String photoDirectory = "photos";
+    private long stagingThreshold = 1024 * 1024;
+    private int stagingPoolChunks = 256;
+    private final int[] phaseTimeouts = {Robot.TIMEOUT_IN_SECONDS, Robot.TIMEOUT_IN_SECONDS, Robot.TIMEOUT_IN_SECONDS};
+
+    /**
+     * Parses configuration from the command line arguments.
+     *
+     * @param args Command line arguments.
+     * @return Parsed configuration.
+     * @throws IllegalArgumentException If an argument could not be parsed.
+     */
+    public static Configuration parse(String[] args) {
+        Configuration configuration = new Configuration();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                configuration.port = Integer.parseInt(arg);
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            String name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+            String value = separator < 0 ? "true" : arg.substring(separator + 1);
+            configuration.set(name, value);
+        }
+        return configuration;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "engine":
+                this.engine = Engine.valueOf(value.toUpperCase());
+                break;
+            case "event-loops":
+                this.eventLoops = Integer.parseInt(value);
+                if (this.eventLoops < 1) {
+                    throw new IllegalArgumentException("Number of event loops must be positive");
+                }
+                break;
+            case "timeout-session":
+                this.sessionTimeout = Integer.parseInt(value);
+                break;
+            case "timeout-login":
+                this.phaseTimeouts[TimeoutPhase.LOGIN.ordinal()] = Integer.parseInt(value);
+                break;
+            case "timeout-idle":
+                this.phaseTimeouts[TimeoutPhase.IDLE.ordinal()] = Integer.parseInt(value);
+                break;
+            case "timeout-foto":
+                this.phaseTimeouts[TimeoutPhase.FOTO.ordinal()] = Integer.parseInt(value);
+                break;
+            case "photo-writers":
+                this.photoWriters = Integer.parseInt(value);
+                break;
+            case "photo-queue":
+                this.photoQueueCapacity = Integer.parseInt(value);
+                if (this.photoQueueCapacity < 1) {
+                    throw new IllegalArgumentException("Photo queue capacity must be positive");
+                }
+                break;
+            case "photo-staging-threshold":
+                this.stagingThreshold = Long.parseLong(value);
+                break;
+            case "photo-staging-pool":
+                this.stagingPoolChunks = Integer.parseInt(value);
+                if (this.stagingPoolChunks < 1) {
+                    throw new IllegalArgumentException("Staging pool size must be positive");
+                }
+                break;
+            case "photo-store":
+                this.photoStore = PhotoStoreType.valueOf(value.toUpperCase());
+                break;
+            case "photo-dir":
+                this.photoDirectory = value;
+                break;
+            case "max-sessions":
+                this.maxSessions = Integer.parseInt(value);
+                break;
+            case "max-handshakes":
+                this.maxHandshakes = Integer.parseInt(value);
+                break;
+            case "accept-backlog":
+                this.acceptBacklog = Integer.parseInt(value);
+                if (this.acceptBacklog < 1) {
+                    throw new IllegalArgumentException("Accept backlog must be positive");
+                }
+                break;
+            case "acceptors":
+                this.acceptors = Integer.parseInt(value);
+                if (this.acceptors < 1) {
+                    throw new IllegalArgumentException("Number of acceptors must be positive");
+                }
+                break;
+            case "foto-ingest-rate":
+                this.fotoIngestRate = Long.parseLong(value);
+                break;
+            case "foto-session-rate":
+                this.fotoSessionRate = Long.parseLong(value);
+                break;
+            case "resume-ttl":
+                this.resumeTimeToLive = Integer.parseInt(value);
+                break;
+            case "resume-cache":
+                this.resumeCacheCapacity = Integer.parseInt(value);
+                if (this.resumeCacheCapacity < 1) {
+                    throw new IllegalArgumentException("Resumption cache capacity must be positive");
+                }
+                break;
+            case "token-prefix":
+                if (value.contains(".") || value.contains(" ")) {
+                    throw new IllegalArgumentException("Token prefix must not contain dots or spaces");
+                }
+                this.tokenPrefix = value;
+                break;
+            case "partial-dir":
+                this.partialDirectory = value;
+                break;
+            case "partial-budget":
+                this.partialBudget = Long.parseLong(value);
+                break;
+            case "partial-ttl":
+                this.partialTimeToLive = Integer.parseInt(value);
+                break;
+            case "partial-min":
+                this.partialMinLength = Long.parseLong(value);
+                break;
+            case "buffer-pool":
+                this.bufferPoolBytes = Long.parseLong(value);
+                break;
+            case "park-idle":
+                this.parkIdle = Boolean.parseBoolean(value);
+                break;
+            case "capture":
+                this.captureFile = value.isEmpty() ? null : value;
+                break;
+            case "capture-queue":
+                this.captureQueueCapacity = Long.parseLong(value);
+                if (this.captureQueueCapacity < 1) {
+                    throw new IllegalArgumentException("Capture queue capacity must be positive");
+                }
+                break;
+            case "warmup":
+                this.warmupSessions = Integer.parseInt(value);
+                if (this.warmupSessions < 0) {
+                    throw new IllegalArgumentException("Number of warmup sessions must not be negative");
+                }
+                break;
+            case "metrics-port":
+                this.metricsPort = Integer.parseInt(value);
+                break;
+            case "log-level":
+                this.logLevel = Level.valueOf(value.toUpperCase());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    /**
+     * @return Port the server listens on.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Engine serving the robots.
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return Number of event loop threads of the NIO engine.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * @return Timeout of the whole session in seconds, 0 if disabled.
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * @param phase Phase of the session.
+     * @return Timeout of the phase in seconds, 0 if disabled.
+     */
+    public int getTimeout(TimeoutPhase phase) {
+        return phaseTimeouts[phase.ordinal()];
+    }
+
+    /**
+     * @return Number of threads writing the photos, 0 if the sessions write them themselves.
+     */
+    public int getPhotoWriters() {
+        return photoWriters;
+    }
+
+    /**
+     * @return Number of chunks queued for a photo writer before the sessions stop reading.
+     */
+    public int getPhotoQueueCapacity() {
+        return photoQueueCapacity;
+    }
+
+    /**
+     * @return Minimum level of the logged events.
+     */
+    public Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * @return Port of the Prometheus metrics endpoint on localhost, 0 if disabled.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return Maximum number of concurrent sessions, 0 if unlimited.
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return Maximum number of sessions which have not logged in yet, 0 if unlimited.
+     */
+    public int getMaxHandshakes() {
+        return maxHandshakes;
+    }
+
+    /**
+     * @return Maximum number of connections queued by the operating system until they are accepted.
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * @return Number of threads accepting the robots, each on its own listening socket.
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * @return Photo bytes per second received from all robots together, 0 if unlimited.
+     */
+    public long getFotoIngestRate() {
+        return fotoIngestRate;
+    }
+
+    /**
+     * @return Photo bytes per second received from a single robot, 0 if unlimited.
+     */
+    public long getFotoSessionRate() {
+        return fotoSessionRate;
+    }
+
+    /**
+     * @return Seconds a resumption token is valid, 0 if the robots cannot resume their sessions.
+     */
+    public int getResumeTimeToLive() {
+        return resumeTimeToLive;
+    }
+
+    /**
+     * @return Maximum number of valid resumption tokens.
+     */
+    public int getResumeCacheCapacity() {
+        return resumeCacheCapacity;
+    }
+
+    /**
+     * @return Prefix of the resumption tokens naming the server which issued them, empty if there is none.
+     */
+    public String getTokenPrefix() {
+        return tokenPrefix;
+    }
+
+    /**
+     * @return Directory of the partial photo uploads.
+     */
+    public String getPartialDirectory() {
+        return partialDirectory;
+    }
+
+    /**
+     * @return Maximum number of bytes of the kept partial uploads, 0 if the uploads cannot be resumed.
+     */
+    public long getPartialBudget() {
+        return partialBudget;
+    }
+
+    /**
+     * @return Seconds a partial upload is kept.
+     */
+    public int getPartialTimeToLive() {
+        return partialTimeToLive;
+    }
+
+    /**
+     * @return Minimum length of a photo whose upload can be resumed.
+     */
+    public long getPartialMinLength() {
+        return partialMinLength;
+    }
+
+    /**
+     * @return Maximum number of bytes of idle I/O buffers kept for reuse.
+     */
+    public long getBufferPoolBytes() {
+        return bufferPoolBytes;
+    }
+
+    /**
+     * @return Are the logged in sessions waiting for a message reduced to parked records?
+     */
+    public boolean isParkIdle() {
+        return parkIdle;
+    }
+
+    /**
+     * @return File capturing the input of the sessions, null if the traffic is not captured.
+     */
+    public String getCaptureFile() {
+        return captureFile;
+    }
+
+    /**
+     * @return Bytes of the captured records waiting for the writer before new ones are dropped.
+     */
+    public long getCaptureQueueCapacity() {
+        return captureQueueCapacity;
+    }
+
+    /**
+     * @return Synthetic sessions run in-process before the server accepts robots.
+     */
+    public int getWarmupSessions() {
+        return warmupSessions;
+    }
+
+    /**
+     * @return Layout of the stored photos.
+     */
+    public PhotoStoreType getPhotoStore() {
+        return photoStore;
+    }
+
+    /**
+     * @return Root directory of the content addressed photo store.
+     */
+    public String getPhotoDirectory() {
+        return photoDirectory;
+    }
+
+    /**
+     * @return Maximum number of bytes of a photo staged in memory before it spills to disk.
+     */
+    public long getStagingThreshold() {
+        return stagingThreshold;
+    }
+
+    /**
+     * @return Maximum number of idle staging chunks kept in the pool.
+     */
+    public int getStagingPoolChunks() {
+        return stagingPoolChunks;
+    }
+}
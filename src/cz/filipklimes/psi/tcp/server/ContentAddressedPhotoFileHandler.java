@@ -0,0 +1,79 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Staged photo file handler which digests the photo while it streams in
+ * and commits it to the path given by the digest, unless a photo with the same digest is stored already.
+ *
+ * @author klimesf
+ */
+class ContentAddressedPhotoFileHandler extends StagedPhotoFileHandler {
+
+    private final ContentAddressedPhotoStore store;
+    private final Client client;
+    private final MessageDigest digest;
+    private String hexDigest;
+
+    ContentAddressedPhotoFileHandler(ContentAddressedPhotoStore store, Client client, long threshold, ChunkPool pool) {
+        super(store.getStagingDirectory(), "foto", threshold, pool);
+        this.store = store;
+        this.client = client;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(byte[] bytes, int offset, int length) {
+        this.digest.update(bytes, offset, length);
+        return super.append(bytes, offset, length);
+    }
+
+    /**
+     * Stores the photo unless it is stored already and records it in the index.
+     *
+     * @return true if the photo is stored, false if not.
+     */
+    @Override
+    public boolean commit() {
+        this.hexDigest = toHex(this.digest.digest());
+        boolean stored;
+        if (Files.exists(this.store.resolve(this.hexDigest))) {
+            // Duplicate, the staged copy is not needed
+            this.removeFile();
+            stored = true;
+        } else {
+            stored = super.commit();
+        }
+        return stored && this.store.getIndex().record(this.client.getSessionId(), this.client.getSession().getLogin(), this.hexDigest);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Path getTarget() throws IOException {
+        Path target = this.store.resolve(this.hexDigest);
+        Files.createDirectories(target.getParent());
+        return target;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Stores every distinct photo once, under a sharded directory tree keyed by the SHA-256 digest of its content.
+ * <p>
+ * A photo with digest {@code abcdef...} is stored as {@code <root>/ab/cd/abcdef....png}.
+ * Which session and robot sent which photo is recorded in the {@link PhotoIndex} in the root.
+ *
+ * @author klimesf
+ */
+public class ContentAddressedPhotoStore implements PhotoStore {
+
+    private final Path root;
+    private final Path stagingDirectory;
+    private final PhotoIndex index;
+    private final long stagingThreshold;
+    private final ChunkPool pool;
+
+    /**
+     * Opens the store, creating its directories if they do not exist.
+     *
+     * @param root             Root directory of the store.
+     * @param stagingThreshold Maximum number of bytes of a photo staged in memory.
+     * @param pool             Pool of the memory chunks.
+     * @throws UncheckedIOException If the store could not be opened.
+     */
+    public ContentAddressedPhotoStore(Path root, long stagingThreshold, ChunkPool pool) {
+        try {
+            this.root = root.toAbsolutePath();
+            this.stagingDirectory = Files.createDirectories(this.root.resolve("staging"));
+            this.index = new PhotoIndex(this.root.resolve("index.log"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open photo store " + root, e);
+        }
+        this.stagingThreshold = stagingThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PhotoFileHandler open(Client client) {
+        return new ContentAddressedPhotoFileHandler(this, client, this.stagingThreshold, this.pool);
+    }
+
+    /**
+     * @return Directory of the temporary files.
+     */
+    Path getStagingDirectory() {
+        return stagingDirectory;
+    }
+
+    /**
+     * @return Index of the committed photos.
+     */
+    PhotoIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @param digest Hex digest of a photo.
+     * @return Path of the photo with the digest.
+     */
+    Path resolve(String digest) {
+        return this.root
+                .resolve(digest.substring(0, 2))
+                .resolve(digest.substring(2, 4))
+                .resolve(digest + ".png");
+    }
+}
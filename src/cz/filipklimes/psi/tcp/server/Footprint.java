@@ -0,0 +1,189 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the server keeps in memory for a robot which logged in and sends nothing.
+ * <p>
+ * Starts the server in this JVM on a free port, logs the robots in and lets them sit idle, then compares
+ * the used heap with the heap before. The same number of bare loopback connections is measured first
+ * and subtracted, so the result is the session on top of its socket. Thread stacks live outside the heap,
+ * the number of threads per robot is reported instead. Compare the runs with and without --park-idle.
+ * <p>
+ * Usage: {@code Footprint <robots> [server options]}
+ *
+ * @author klimesf
+ */
+public class Footprint {
+
+    private static final byte[] LOGIN = "Robot1\r\n567\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Number of lines the server answers the login with: 200 LOGIN, 201 PASSWORD and 202 OK.
+     */
+    private static final int LOGIN_ANSWERS = 3;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: Footprint <robots> [server options]");
+            System.exit(1);
+            return;
+        }
+        int robots = Integer.parseInt(args[0]);
+        int port = freePort();
+
+        // Quiet by default, the options given later win
+        String[] serverArgs = new String[args.length + 1];
+        serverArgs[0] = Integer.toString(port);
+        serverArgs[1] = "--log-level=error";
+        System.arraycopy(args, 1, serverArgs, 2, args.length - 1);
+        Configuration configuration = Configuration.parse(serverArgs);
+        Log.setLevel(configuration.getLogLevel());
+
+        ServerContext context = new ServerContext(configuration);
+        Thread server = new Thread(() -> {
+            try {
+                Robot.createEngine(configuration).serve(context);
+            } catch (IOException ex) {
+                System.err.printf("Could not listen on port: %s%n", port);
+                System.exit(1);
+            }
+        }, "server");
+        server.setDaemon(true);
+        server.start();
+        awaitListening(port);
+
+        long connectionBytes = measureConnections(robots);
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        List<SocketChannel> clients = new ArrayList<>(robots);
+        for (int i = 0; i < robots; i++) {
+            clients.add(login(port));
+        }
+        awaitSettled(context, robots);
+        long heapAfter = usedHeap();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long sessionBytes = (heapAfter - heapBefore) / robots - connectionBytes;
+        System.out.printf("Engine                     %s%s%n", configuration.getEngine().name().toLowerCase(),
+                configuration.isParkIdle() ? ", parking idle sessions" : "");
+        System.out.printf("Idle robots                %d%n", robots);
+        System.out.printf("Parked sessions            %d%n", context.getMetrics().getParkedSessions());
+        System.out.printf("Heap per connection        %d B (both ends of a bare loopback connection)%n", connectionBytes);
+        System.out.printf("Heap per idle session      %d B on top of its connection%n", sessionBytes);
+        System.out.printf("Threads per idle session   %.2f%n", (double) (threadsAfter - threadsBefore) / robots);
+
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Measures the heap taken by bare loopback connections, counting both of their ends.
+     *
+     * @param count Number of connections.
+     * @return Bytes per connection.
+     * @throws IOException
+     */
+    private static long measureConnections(int count) throws IOException, InterruptedException {
+        try (ServerSocketChannel sink = ServerSocketChannel.open()) {
+            sink.bind(new InetSocketAddress("127.0.0.1", 0), count);
+            long before = usedHeap();
+            List<SocketChannel> ends = new ArrayList<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                ends.add(SocketChannel.open(sink.getLocalAddress()));
+                ends.add(sink.accept());
+            }
+            long after = usedHeap();
+            for (SocketChannel end : ends) {
+                end.close();
+            }
+            return (after - before) / count;
+        }
+    }
+
+    /**
+     * Connects a robot and logs it in.
+     *
+     * @param port Port of the server.
+     * @return The connection of the logged in robot.
+     * @throws IOException If the server did not accept the login.
+     */
+    private static SocketChannel login(int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        channel.write(ByteBuffer.wrap(LOGIN));
+        ByteBuffer answers = ByteBuffer.allocate(256);
+        int lines = 0;
+        while (lines < LOGIN_ANSWERS) {
+            int position = answers.position();
+            if (channel.read(answers) < 0) {
+                throw new IOException("The server closed the connection during the login");
+            }
+            for (int i = position; i < answers.position(); i++) {
+                if (answers.get(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+        String answer = new String(answers.array(), 0, answers.position(), StandardCharsets.US_ASCII);
+        if (!answer.endsWith("202 OK\r\n")) {
+            throw new IOException("The server did not accept the login: " + answer.trim());
+        }
+        return channel;
+    }
+
+    /**
+     * Waits until the sessions are parked, or a moment for the threads to block when they are not parked.
+     */
+    private static void awaitSettled(ServerContext context, int robots) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        if (context.getConfiguration().isParkIdle()) {
+            while (context.getMetrics().getParkedSessions() < robots && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+        }
+        Thread.sleep(500);
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            // A full login, the server would complain about a probe leaving in the middle of one
+            try {
+                login(port).close();
+                return;
+            } catch (IOException ex) {
+                Thread.sleep(50);
+            }
+        }
+        System.err.printf("Could not listen on port: %s%n", port);
+        System.exit(1);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            channel.bind(new InetSocketAddress("127.0.0.1", 0));
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.upload.PartialUpload;
+import cz.filipklimes.psi.tcp.server.upload.PartialUploads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Photo file handler which mirrors the photo to a {@link PartialUpload}, so the robot can resume it after a disconnect.
+ * <p>
+ * A resumed upload is replayed into the photo when the handler is created. The mirror is written by the thread
+ * doing the photo's I/O, so with an {@link AsyncPhotoStore} the session never touches the file.
+ * When the photo is committed or removed, the mirror is deleted, unless the session has kept it.
+ *
+ * @author klimesf
+ */
+class MirroredPhotoFileHandler implements PhotoFileHandler {
+
+    private final PhotoFileHandler delegate;
+    private final PartialUpload upload;
+    private final PartialUploads uploads;
+
+    /**
+     * Could not the kept bytes be replayed into the photo?
+     */
+    private boolean replayFailed = false;
+
+    /**
+     * @param delegate Handler of the photo.
+     * @param upload   Mirror of the photo, with the bytes received before if it is resumed.
+     * @param uploads  Staging area the mirror belongs to.
+     */
+    MirroredPhotoFileHandler(PhotoFileHandler delegate, PartialUpload upload, PartialUploads uploads) {
+        this.delegate = delegate;
+        this.upload = upload;
+        this.uploads = uploads;
+        if (upload.getReceived() > 0) {
+            try {
+                upload.replayTo(delegate::append);
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Could not read the kept upload: {}", ex);
+                this.replayFailed = true;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(int i) {
+        return this.append(new byte[]{(byte) i}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(byte[] bytes, int offset, int length) {
+        this.upload.write(ByteBuffer.wrap(bytes, offset, length));
+        return this.delegate.append(bytes, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(ByteBuffer buffer) {
+        this.upload.write(buffer);
+        return this.delegate.append(buffer);
+    }
+
+    /**
+     * A photo whose kept bytes could not be replayed is incomplete.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean close() {
+        return this.delegate.close() && !this.replayFailed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean commit() {
+        this.uploads.complete(this.upload);
+        return !this.replayFailed && this.delegate.commit();
+    }
+
+    /**
+     * Keeps the mirror in the staging area if the session asked for it, deletes it otherwise.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean removeFile() {
+        if (this.upload.isKept() && !this.replayFailed) {
+            this.uploads.suspend(this.upload, this.upload.getChecksum());
+        } else {
+            this.uploads.complete(this.upload);
+        }
+        return this.delegate.removeFile();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean whenWritable(Runnable ready) {
+        return this.delegate.whenWritable(ready);
+    }
+}
@@ -0,0 +1,149 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.timer.HashedWheelTimer;
+import cz.filipklimes.psi.tcp.server.timer.Timeout;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact record of a logged in robot which waits for its next message, kept instead of its client.
+ * <p>
+ * Only robots which have logged in and have nothing unread are parked, so the record holds no handshake
+ * progress and no input, just what the session needs to go on once the robot sends again: the channel,
+ * the client number, the login and the deadlines. The client, its handler, streams and timers are rebuilt
+ * from the record when bytes arrive. The deadlines are watched by the shared timer.
+ *
+ * @author klimesf
+ */
+public final class ParkedSession {
+
+    private final SocketChannel channel;
+    private final int clientNumber;
+    private final String login;
+
+    /**
+     * Deadlines in System.nanoTime() terms, 0 if disabled.
+     */
+    private final long sessionDeadline;
+    private final long idleDeadline;
+
+    /**
+     * Timeout of the earlier deadline, null if the deadlines are disabled or not watched.
+     */
+    private Timeout expiry;
+
+    /**
+     * @param channel         Connection to the robot.
+     * @param clientNumber    Client's number.
+     * @param login           Login of the robot.
+     * @param sessionDeadline Deadline of the whole session, 0 if disabled.
+     * @param idleDeadline    Deadline of the next message, 0 if disabled.
+     */
+    public ParkedSession(SocketChannel channel, int clientNumber, String login, long sessionDeadline, long idleDeadline) {
+        this.channel = channel;
+        this.clientNumber = clientNumber;
+        this.login = login;
+        this.sessionDeadline = sessionDeadline;
+        this.idleDeadline = idleDeadline;
+    }
+
+    /**
+     * Schedules the expiry of the session at its earlier deadline.
+     * The task runs on the timer's thread, it should hand the expiry over to the thread watching the channel.
+     *
+     * @param timer  Timer of the server.
+     * @param expire Task run when the deadline passes.
+     */
+    public void watch(HashedWheelTimer timer, Runnable expire) {
+        long deadline = this.sessionDeadline;
+        if (deadline == 0 || (this.idleDeadline != 0 && this.idleDeadline - deadline < 0)) {
+            deadline = this.idleDeadline;
+        }
+        if (deadline != 0) {
+            long delay = Math.max(0, deadline - System.nanoTime());
+            this.expiry = timer.schedule(expire, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cancels the expiry once the robot has sent something.
+     */
+    public void unwatch() {
+        if (this.expiry != null) {
+            this.expiry.cancel();
+            this.expiry = null;
+        }
+    }
+
+    /**
+     * Answers 502 TIMEOUT and closes the connection of an expired session.
+     * The channel must be in non-blocking mode or the answer must fit its socket buffer.
+     *
+     * @param context Shared services of the server.
+     */
+    public void expire(ServerContext context) {
+        Log.warn(this.clientNumber, "Connection timed out.");
+        context.getMetrics().timedOut();
+        try {
+            this.channel.write(Response.TIMEOUT.toByteBuffer());
+        } catch (IOException ex) {
+            // the robot is gone already
+        }
+        this.close(context);
+    }
+
+    /**
+     * Closes the connection and releases the session's place on the server.
+     *
+     * @param context Shared services of the server.
+     */
+    public void close(ServerContext context) {
+        try {
+            this.channel.close();
+        } catch (IOException ex) {
+            Log.error(this.clientNumber, "Could not close the channel: {}", ex);
+        }
+        context.getMetrics().sessionUnparked();
+        context.getMetrics().sessionClosed();
+        context.getAdmissionControl().sessionClosed(true);
+        Log.info(this.clientNumber, "Left.");
+    }
+
+    /**
+     * @return Connection to the robot.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return Client's number.
+     */
+    public int getClientNumber() {
+        return clientNumber;
+    }
+
+    /**
+     * @return Login of the robot.
+     */
+    public String getLogin() {
+        return login;
+    }
+
+    /**
+     * @return Deadline of the whole session, 0 if disabled.
+     */
+    public long getSessionDeadline() {
+        return sessionDeadline;
+    }
+
+    /**
+     * @return Deadline of the next message, 0 if disabled.
+     */
+    public long getIdleDeadline() {
+        return idleDeadline;
+    }
+}
@@ -1,5 +1,8 @@
 package cz.filipklimes.psi.tcp.server;
 
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
 /**
  * @author klimesf
  */
@@ -13,6 +16,24 @@ public interface PhotoFileHandler {
      */
     boolean append(int i);
 
+    /**
+     * Appends a chunk of bytes to the open file.
+     *
+     * @param bytes  Array with the bytes.
+     * @param offset Index of the first byte to be appended.
+     * @param length Number of bytes to be appended.
+     * @return true if the bytes were appended successfully, false if not.
+     */
+    boolean append(byte[] bytes, int offset, int length);
+
+    /**
+     * Appends the remaining bytes of the buffer to the open file.
+     *
+     * @param buffer Buffer with the bytes, its position is moved to its limit.
+     * @return true if the bytes were appended successfully, false if not.
+     */
+    boolean append(ByteBuffer buffer);
+
     /**
      * Flushes the buffers and closes the open file.
      *
@@ -20,10 +41,46 @@ public interface PhotoFileHandler {
      */
     boolean close();
 
+    /**
+     * Makes the closed file visible under its final name, called once its checksum is verified.
+     *
+     * @return true if the file was committed successfully, false if not.
+     */
+    boolean commit();
+
     /**
      * Removes the opened file.
      *
      * @return true if file was removed successfully, false if not.
      */
     boolean removeFile();
+
+    /**
+     * Tells whether the handler takes more bytes without queuing them up, a handler writing the bytes
+     * on another thread may fall behind the session.
+     *
+     * @param ready Called, possibly from another thread, once the handler takes more bytes.
+     * @return true if the handler takes more bytes now, ready is not called then.
+     */
+    default boolean whenWritable(Runnable ready) {
+        return true;
+    }
+
+    /**
+     * Closes the file and commits it, or removes it if it was not to be committed or could not be stored,
+     * then reports whether the photo was stored.
+     * <p>
+     * The default does it right away. A handler writing the bytes on another thread reports it from that thread
+     * once the photo is on the disk.
+     *
+     * @param commit Should the photo be committed? False if its checksum did not match.
+     * @param stored Called with true if the photo was committed, false if it was removed.
+     */
+    default void finish(boolean commit, Consumer<Boolean> stored) {
+        boolean committed = this.close() && commit && this.commit();
+        if (!committed) {
+            this.removeFile();
+        }
+        stored.accept(committed);
+    }
 }
@@ -1,6 +1,8 @@
 package cz.filipklimes.psi.tcp.server;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Implementation of the PhotoFileHandler interface.
@@ -47,6 +49,43 @@ public class PhotoFileHandlerImpl implements PhotoFileHandler {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(byte[] bytes, int offset, int length) {
+        try {
+            if (fileOutputStream != null) {
+                fileOutputStream.write(bytes, offset, length);
+                return true;
+            } else {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(ByteBuffer buffer) {
+        try {
+            if (fileOutputStream != null) {
+                FileChannel channel = fileOutputStream.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                return true;
+            } else {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -63,6 +102,16 @@ public class PhotoFileHandlerImpl implements PhotoFileHandler {
         }
     }
 
+    /**
+     * The file is written under its final name, there is nothing to commit.
+     *
+     * @return true
+     */
+    @Override
+    public boolean commit() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
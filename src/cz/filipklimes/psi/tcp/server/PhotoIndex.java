@@ -0,0 +1,59 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only index mapping the sessions and robots to the digests of the photos they sent.
+ * <p>
+ * Every committed photo adds one line: session identifier, login of the robot and hex digest, separated by spaces.
+ *
+ * @author klimesf
+ */
+public class PhotoIndex {
+
+    private final BufferedWriter writer;
+
+    /**
+     * Opens the index, creating it if it does not exist.
+     *
+     * @param path Path of the index file.
+     * @throws IOException If the index could not be opened.
+     */
+    public PhotoIndex(Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(
+                path,
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * Records a committed photo.
+     *
+     * @param sessionId Identifier of the session.
+     * @param login     Login of the robot, may be null.
+     * @param digest    Hex digest of the photo.
+     * @return true if the record was written, false if not.
+     */
+    public synchronized boolean record(String sessionId, String login, String digest) {
+        try {
+            this.writer.write(sessionId);
+            this.writer.write(' ');
+            // Logins may contain whitespace, which would break the columns
+            this.writer.write(login == null ? "-" : login.replaceAll("\\s", "_"));
+            this.writer.write(' ');
+            this.writer.write(digest);
+            this.writer.newLine();
+            this.writer.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
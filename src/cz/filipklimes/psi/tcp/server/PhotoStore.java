@@ -0,0 +1,40 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.upload.PartialUpload;
+import cz.filipklimes.psi.tcp.server.upload.PartialUploads;
+
+/**
+ * Storage of the photos received in FOTO messages.
+ *
+ * @author klimesf
+ */
+public interface PhotoStore {
+
+    /**
+     * Opens a file for a new photo of the client.
+     *
+     * @param client The client sending the photo.
+     * @return Handler of the open file.
+     */
+    PhotoFileHandler open(Client client);
+
+    /**
+     * Opens a file for a photo which is mirrored to the staging area, so the robot can resume it.
+     * A resumed upload is replayed into the file first.
+     *
+     * @param client The client sending the photo.
+     * @param upload Mirror of the photo.
+     * @return Handler of the open file.
+     */
+    default PhotoFileHandler open(Client client, PartialUpload upload) {
+        PartialUploads uploads = client.getServerContext().getPartialUploads();
+        PhotoFileHandler handler;
+        try {
+            handler = this.open(client);
+        } catch (RuntimeException ex) {
+            uploads.complete(upload);
+            throw ex;
+        }
+        return new MirroredPhotoFileHandler(handler, upload, uploads);
+    }
+}
@@ -0,0 +1,478 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.ingest.IngestScheduler;
+import cz.filipklimes.psi.tcp.server.ingest.IngestShare;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.metrics.Metrics;
+import cz.filipklimes.psi.tcp.server.protocol.ProtocolListener;
+import cz.filipklimes.psi.tcp.server.upload.PartialUpload;
+import cz.filipklimes.psi.tcp.server.upload.PartialUploads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+
+/**
+ * Answers the messages of one robot, whichever way they were parsed.
+ * <p>
+ * The blocking states and the {@link cz.filipklimes.psi.tcp.server.protocol.ProtocolDecoder}
+ * both report the messages here, so the decisions of the protocol are made in one place.
+ *
+ * @author klimesf
+ */
+public class ProtocolHandler implements ProtocolListener {
+
+    /**
+     * Login of a robot resuming its session, followed by the token.
+     */
+    private static final String RESUME = "RESUME ";
+
+    /**
+     * Number of bytes of the login kept, a longer login is cut off. Its password is still calculated from all of it.
+     */
+    public static final int LOGIN_LIMIT = 1024;
+
+    private final Client client;
+    private final Metrics metrics;
+
+    /**
+     * Login read so far.
+     */
+    private final StringBuilder login = new StringBuilder();
+
+    /**
+     * Photo being received, null between FOTO messages.
+     */
+    private PhotoFileHandler photoFileHandler;
+    private final ByteSumChecksum checksum = new ByteSumChecksum();
+
+    /**
+     * Mirror of the photo being received, written by its file handler, null if the photo is not mirrored.
+     */
+    private PartialUpload partialUpload;
+
+    /**
+     * Was the photo being received resumed at an offset the server does not have?
+     */
+    private boolean resumeRejected = false;
+
+    /**
+     * Upload bandwidth of the session, null if unlimited.
+     */
+    private final IngestScheduler ingestScheduler;
+    private final IngestShare ingestShare;
+
+    /**
+     * Nanoseconds the session should wait before it reads more photo bytes.
+     */
+    private long ingestDelay = 0;
+
+    /**
+     * Time in nanoseconds when the first byte of the message being read arrived, 0 if it was not reported.
+     */
+    private long messageStart = 0;
+
+    /**
+     * Photos the store is finishing which have not been answered yet, in the order of their messages.
+     */
+    private final Queue<FinishingPhoto> finishingPhotos = new ArrayDeque<>();
+
+    /**
+     * Called once the store reports the outcome of a photo, null if nobody waits for it, guarded by the handler.
+     */
+    private Runnable photoStoredReady;
+
+    /**
+     * @param client Client whose messages are handled.
+     */
+    public ProtocolHandler(Client client) {
+        this.client = client;
+        this.metrics = client.getServerContext().getMetrics();
+        this.ingestScheduler = client.getServerContext().getIngestScheduler();
+        this.ingestShare = this.ingestScheduler.createShare();
+    }
+
+    /**
+     * Greets a newly connected robot, the server talks first.
+     *
+     * @throws IOException
+     */
+    public void onConnect() throws IOException {
+        this.client.answer(Response.LOGIN);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageStart() {
+        this.messageStart = System.nanoTime();
+    }
+
+    /**
+     * Records the latency of the message which was just answered.
+     *
+     * @param message Name of the message.
+     */
+    private void answered(String message) {
+        this.answered(message, this.messageStart);
+        this.messageStart = 0;
+    }
+
+    private void answered(String message, long start) {
+        if (start != 0) {
+            this.metrics.messageAnswered(message, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLoginData(ByteBuffer data) {
+        while (data.hasRemaining() && this.login.length() < LOGIN_LIMIT) {
+            this.login.append((char) (data.get() & 0xff));
+        }
+        data.position(data.limit());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onLogin(int calculatedPassword, boolean passwordStartOkay) throws IOException {
+        Session session = this.client.getSession();
+        if (this.resume()) {
+            return true;
+        }
+        session.setCalculatedPassword(calculatedPassword);
+        session.setPasswordStartOkay(passwordStartOkay);
+        session.setLogin(this.login.toString());
+        Log.debug(this.client.getClientNumber(), "Calculated password: {}.", calculatedPassword);
+        this.client.answer(Response.PASSWORD);
+        this.answered("LOGIN");
+        return false;
+    }
+
+    /**
+     * Resumes a session if the login is "RESUME &lt;token&gt;" with a valid token.
+     * Anything else is an ordinary login, which the password then fails as it always did.
+     *
+     * @return true if the session was resumed.
+     * @throws IOException
+     */
+    private boolean resume() throws IOException {
+        ResumptionCache resumptionCache = this.client.getServerContext().getResumptionCache();
+        if (!resumptionCache.isEnabled() || this.login.length() <= RESUME.length() || this.login.indexOf(RESUME) != 0) {
+            return false;
+        }
+        String login = resumptionCache.take(this.login.substring(RESUME.length()));
+        if (login == null) {
+            Log.warn(this.client.getClientNumber(), "Unknown or expired resumption token.");
+            return false;
+        }
+
+        Session session = this.client.getSession();
+        session.setLogin(login);
+        session.setPasswordStartOkay(true);
+        Log.info(this.client.getClientNumber(), "Resumed session.");
+        this.metrics.resumed();
+        this.metrics.loggedIn(System.nanoTime() - this.client.getConnectedAt());
+        this.client.completeHandshake();
+        this.client.answer(Response.OK);
+        this.answered("LOGIN");
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPassword(long password) throws IOException {
+        Session session = this.client.getSession();
+        if (password < 0) {
+            Log.warn(this.client.getClientNumber(), "Could not parse password string.");
+        } else {
+            Log.debug(this.client.getClientNumber(), "Accepted password: {}.", password);
+        }
+
+        if (password >= 0 && session.getCalculatedPassword() == password && session.isPasswordStartOkay()) {
+            Log.info(this.client.getClientNumber(), "Logged in.");
+            this.metrics.loggedIn(System.nanoTime() - this.client.getConnectedAt());
+            this.client.completeHandshake();
+            this.client.answer(Response.OK);
+        } else {
+            this.metrics.loginFailed();
+            this.client.answer(Response.LOGIN_FAILED);
+        }
+        this.answered("PASSWORD");
+    }
+
+    /**
+     * Issues a resumption token, or rejects the request as a syntax error when the resumption is disabled,
+     * as the server always did.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onTokenRequest() throws IOException {
+        ResumptionCache resumptionCache = this.client.getServerContext().getResumptionCache();
+        if (!resumptionCache.isEnabled()) {
+            this.onSyntaxError();
+            return;
+        }
+        String token = resumptionCache.issue(this.client.getSession().getLogin());
+        Log.debug(this.client.getClientNumber(), "Issued resumption token.");
+        this.client.answer(Response.TOKEN, token);
+        this.answered("TOKN");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onInfo() throws IOException {
+        Log.info(this.client.getClientNumber(), "Accepted INFO message.");
+        this.metrics.infoAccepted();
+        this.client.answer(Response.OK);
+        this.answered("INFO");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFotoStart(int length) {
+        Log.debug(this.client.getClientNumber(), "Length of FOTO will be: {}", length);
+        PhotoStore photoStore = this.client.getServerContext().getPhotoStore();
+        this.checksum.reset();
+        this.partialUpload = this.client.getServerContext().getPartialUploads()
+                .start(this.client.getSession().getLogin(), length);
+        this.photoFileHandler = this.partialUpload == null
+                ? photoStore.open(this.client)
+                : photoStore.open(this.client, this.partialUpload);
+    }
+
+    /**
+     * Answers how many bytes of the photo are kept from an upload cut off before, or rejects the request
+     * as a syntax error when the uploads cannot be resumed, as the server always did.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onOffsetRequest(int length) throws IOException {
+        PartialUploads partialUploads = this.client.getServerContext().getPartialUploads();
+        if (!partialUploads.isEnabled()) {
+            this.onSyntaxError();
+            return;
+        }
+        long offset = partialUploads.offset(this.client.getSession().getLogin(), length);
+        Log.debug(this.client.getClientNumber(), "Offset of FOTO is {}.", offset);
+        this.client.answer(Response.OFFSET, Long.toString(offset));
+        this.answered("OFST");
+    }
+
+    /**
+     * Continues the photo from the kept upload. When no upload with the offset is kept, the rest of the photo
+     * is read anyway and answered with 300 BAD CHECKSUM, so the robot sends the whole photo again.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFotoResume(int length, int offset) throws IOException {
+        PartialUploads partialUploads = this.client.getServerContext().getPartialUploads();
+        if (!partialUploads.isEnabled()) {
+            this.onSyntaxError();
+            return;
+        }
+        if (offset == 0) {
+            // Nothing was kept, the robot sends the whole photo
+            this.onFotoStart(length);
+            return;
+        }
+        Log.debug(this.client.getClientNumber(), "FOTO resumed at offset {}.", offset);
+        PhotoStore photoStore = this.client.getServerContext().getPhotoStore();
+        this.checksum.reset();
+        this.partialUpload = partialUploads.resume(this.client.getSession().getLogin(), length, offset);
+        if (this.partialUpload == null) {
+            Log.warn(this.client.getClientNumber(), "No upload of FOTO kept at offset {}.", offset);
+            this.photoFileHandler = photoStore.open(this.client);
+            this.resumeRejected = true;
+            return;
+        }
+
+        // The kept bytes are replayed by the handler, a failed replay fails the photo
+        this.photoFileHandler = photoStore.open(this.client, this.partialUpload);
+        this.checksum.reset(this.partialUpload.getChecksum());
+        this.metrics.fotoResumed(offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFotoData(ByteBuffer data) {
+        int start = data.position();
+        this.checksum.update(data);
+        data.position(start);
+        int length = data.remaining();
+        this.metrics.fotoReceived(length);
+        this.photoFileHandler.append(data);
+        this.ingestDelay = this.ingestScheduler.charge(this.ingestShare, length);
+    }
+
+    /**
+     * Returns the time the session should wait before it reads more photo bytes and forgets it.
+     *
+     * @return Nanoseconds to wait, 0 if the session may go on reading.
+     */
+    public long takeIngestDelay() {
+        long delay = this.ingestDelay;
+        this.ingestDelay = 0;
+        return delay;
+    }
+
+    /**
+     * Tells whether the photo store keeps up with the photo being received and has finished the photo before.
+     *
+     * @param ready Called, possibly from another thread, once the store takes more bytes or has finished the photo.
+     * @return true if the session may go on reading, false if it should wait for ready.
+     */
+    public boolean awaitPhotoStore(Runnable ready) {
+        synchronized (this) {
+            for (FinishingPhoto photo : this.finishingPhotos) {
+                if (photo.stored == null) {
+                    this.photoStoredReady = ready;
+                    return false;
+                }
+            }
+        }
+        return this.photoFileHandler == null || this.photoFileHandler.whenWritable(ready);
+    }
+
+    /**
+     * Saves the photo if the checksum matches, discards it if not.
+     * <p>
+     * The photo is answered once the store has written it, a photo which could not be stored is answered
+     * as a bad checksum, so the robot sends it again. Until then the answers to the following messages
+     * are held back, see {@link #answerStoredPhotos()}.
+     * <p>
+     * {@inheritDoc}
+     */
+    @Override
+    public void onFotoEnd(long checksum) throws IOException {
+        long calculatedChecksum = this.checksum.getValue();
+        boolean checksumOkay = checksum == calculatedChecksum && !this.resumeRejected;
+        this.resumeRejected = false;
+        this.partialUpload = null;
+        Log.debug(this.client.getClientNumber(), "Calculated checksum: {}.", calculatedChecksum);
+        Log.debug(this.client.getClientNumber(), "Sent checksum: {}.", checksum);
+
+        FinishingPhoto photo = new FinishingPhoto(checksumOkay, this.messageStart, this.client.reserveAnswer());
+        this.messageStart = 0;
+        this.finishingPhotos.add(photo);
+        this.photoFileHandler.finish(checksumOkay, stored -> this.photoStored(photo, stored));
+        this.photoFileHandler = null;
+        this.answerStoredPhotos();
+    }
+
+    /**
+     * Receives the outcome of a photo from the store, possibly on another thread.
+     */
+    private void photoStored(FinishingPhoto photo, boolean stored) {
+        Runnable ready;
+        synchronized (this) {
+            photo.stored = stored;
+            ready = this.photoStoredReady;
+            this.photoStoredReady = null;
+        }
+        if (ready != null) {
+            ready.run();
+        }
+    }
+
+    /**
+     * Answers the photos the store has finished, followed by the answers held back behind them.
+     * Called on the session's thread whenever the store may have reported an outcome.
+     *
+     * @return true if a photo was answered.
+     * @throws IOException
+     */
+    public boolean answerStoredPhotos() throws IOException {
+        boolean answered = false;
+        Iterator<FinishingPhoto> photos = this.finishingPhotos.iterator();
+        while (photos.hasNext()) {
+            FinishingPhoto photo = photos.next();
+            Boolean stored;
+            synchronized (this) {
+                stored = photo.stored;
+            }
+            if (stored == null) {
+                continue;
+            }
+            photos.remove();
+            answered = true;
+            if (photo.checksumOkay && !stored) {
+                Log.error(this.client.getClientNumber(), "Could not store the photo.");
+            }
+            Log.info(this.client.getClientNumber(), "Accepted FOTO message.");
+            this.metrics.fotoAccepted(stored);
+            this.client.answer(photo.answer, stored ? Response.OK : Response.BAD_CHECKSUM);
+            this.answered("FOTO", photo.start);
+        }
+        return answered;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSyntaxError() throws IOException {
+        this.metrics.syntaxError();
+        this.client.answer(Response.SYNTAX_ERROR);
+    }
+
+    /**
+     * Discards the photo being received when the connection ends in the middle of it.
+     * A mirrored photo is kept in the staging area, so the robot can resume it.
+     */
+    public void discard() {
+        if (this.partialUpload != null) {
+            this.partialUpload.keep(this.checksum.getValue());
+            this.partialUpload = null;
+        }
+        this.resumeRejected = false;
+        if (this.photoFileHandler != null) {
+            this.photoFileHandler.close();
+            this.photoFileHandler.removeFile();
+            this.photoFileHandler = null;
+        }
+    }
+
+    /**
+     * Photo the store is finishing, whose answer waits for the outcome.
+     */
+    private static class FinishingPhoto {
+
+        private final boolean checksumOkay;
+
+        /**
+         * Time in nanoseconds when the message started, 0 if it was not reported.
+         */
+        private final long start;
+        private final Client.PendingAnswer answer;
+
+        /**
+         * Was the photo stored? Null until the store reports it, guarded by the handler.
+         */
+        private Boolean stored;
+
+        private FinishingPhoto(boolean checksumOkay, long start, Client.PendingAnswer answer) {
+            this.checksumOkay = checksumOkay;
+            this.start = start;
+            this.answer = answer;
+        }
+    }
+}
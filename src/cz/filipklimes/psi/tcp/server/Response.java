@@ -0,0 +1,88 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers of the server, encoded once.
+ *
+ * @author klimesf
+ */
+public enum Response {
+    LOGIN("200 LOGIN", false),
+    PASSWORD("201 PASSWORD", false),
+    OK("202 OK", false),
+    TOKEN("203 TOKEN", false),
+    OFFSET("204 OFFSET", false),
+    BAD_CHECKSUM("300 BAD CHECKSUM", false),
+    LOGIN_FAILED("500 LOGIN FAILED", true),
+    SYNTAX_ERROR("501 SYNTAX ERROR", true),
+    TIMEOUT("502 TIMEOUT", true),
+    BUSY("503 BUSY", true);
+
+    private final String text;
+    private final byte[] bytes;
+    private final boolean closing;
+
+    Response(String text, boolean closing) {
+        this.text = text;
+        this.bytes = (text + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.closing = closing;
+    }
+
+    /**
+     * Writes the answer including its "\r\n".
+     *
+     * @param output Output stream to the robot.
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(this.bytes, 0, this.bytes.length);
+    }
+
+    /**
+     * Writes the answer followed by a space, an argument and "\r\n".
+     *
+     * @param output   Output stream to the robot.
+     * @param argument The argument.
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output, String argument) throws IOException {
+        output.write(this.bytes, 0, this.bytes.length - 2);
+        output.write(' ');
+        output.write(argument.getBytes(StandardCharsets.US_ASCII));
+        output.write('\r');
+        output.write('\n');
+    }
+
+    /**
+     * @return The answer including its "\r\n" for writing to a channel.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(this.bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Is the connection closed after the answer?
+     */
+    public boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * @return Is it an error answer?
+     */
+    public boolean isError() {
+        return this.text.charAt(0) != '2';
+    }
+
+    /**
+     * @return The answer without its "\r\n".
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+}
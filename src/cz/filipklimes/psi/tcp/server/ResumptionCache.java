@@ -0,0 +1,136 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Tokens which let a robot that logged in before skip the password when it reconnects.
+ * <p>
+ * A token is valid for one use within its time to live. The cache holds a bounded number of tokens,
+ * the oldest ones are evicted first. All tokens live equally long, so the order of issue is also
+ * the order of expiry and the expired tokens are pruned from the head of the map.
+ * <p>
+ * A token may start with a prefix naming the server, separated by a dot, so a dispatcher in front of several
+ * servers can route the token back to the server which knows it.
+ *
+ * @author klimesf
+ */
+public class ResumptionCache {
+
+    /**
+     * Number of random bytes of a token.
+     */
+    private static final int TOKEN_BYTES = 16;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    /**
+     * Login and expiry of a token.
+     */
+    private static class Entry {
+
+        private final String login;
+        private final long expiresAt;
+
+        private Entry(String login, long expiresAt) {
+            this.login = login;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long timeToLive;
+    private final int capacity;
+    private final String prefix;
+    private final SecureRandom random = new SecureRandom();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param timeToLiveSeconds Seconds a token is valid, 0 disables the resumption.
+     * @param capacity          Maximum number of valid tokens.
+     * @param prefix            Prefix of the tokens naming the server, empty if there is none.
+     */
+    public ResumptionCache(int timeToLiveSeconds, int capacity, String prefix) {
+        this.timeToLive = timeToLiveSeconds * 1_000_000_000L;
+        this.capacity = capacity;
+        this.prefix = prefix.isEmpty() ? "" : prefix + ".";
+    }
+
+    /**
+     * @return Can the robots resume their sessions?
+     */
+    public boolean isEnabled() {
+        return this.timeToLive > 0;
+    }
+
+    /**
+     * Issues a token for a logged in robot.
+     *
+     * @param login Login of the robot.
+     * @return The token.
+     */
+    public String issue(String login) {
+        return this.issue(login, System.nanoTime());
+    }
+
+    /**
+     * Issues a token for a logged in robot at the given time.
+     *
+     * @param login Login of the robot.
+     * @param now   Current time in nanoseconds.
+     * @return The token.
+     */
+    synchronized String issue(String login, long now) {
+        this.prune(now);
+        if (this.entries.size() >= this.capacity) {
+            Iterator<String> eldest = this.entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        this.random.nextBytes(bytes);
+        String token = this.prefix + ENCODER.encodeToString(bytes);
+        this.entries.put(token, new Entry(login, now + this.timeToLive));
+        return token;
+    }
+
+    /**
+     * Uses up a token.
+     *
+     * @param token The token.
+     * @return Login of the robot the token was issued to, null if the token is unknown or expired.
+     */
+    public String take(String token) {
+        return this.take(token, System.nanoTime());
+    }
+
+    /**
+     * Uses up a token at the given time.
+     *
+     * @param token The token.
+     * @param now   Current time in nanoseconds.
+     * @return Login of the robot the token was issued to, null if the token is unknown or expired.
+     */
+    synchronized String take(String token, long now) {
+        this.prune(now);
+        Entry entry = this.entries.remove(token);
+        return entry == null ? null : entry.login;
+    }
+
+    /**
+     * @return Number of valid tokens.
+     */
+    public synchronized int size() {
+        this.prune(System.nanoTime());
+        return this.entries.size();
+    }
+
+    private void prune(long now) {
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().expiresAt - now <= 0) {
+            iterator.remove();
+        }
+    }
+}
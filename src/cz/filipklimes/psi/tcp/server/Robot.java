@@ -1,10 +1,14 @@
 package cz.filipklimes.psi.tcp.server;
 
+import cz.filipklimes.psi.tcp.server.log.Level;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.metrics.MetricsMBean;
+import cz.filipklimes.psi.tcp.server.metrics.PrometheusExporter;
+import cz.filipklimes.psi.tcp.server.nio.NioServerEngine;
+
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 /**
  * @author klimesf
@@ -12,54 +16,104 @@ import java.util.Iterator;
 public class Robot {
 
     /**
-     * Timeout for a client handler in seconds.
+     * Default timeout for a client handler in seconds.
      */
     public static final int TIMEOUT_IN_SECONDS = 45;
 
     /**
      * Launches the Server and listens on given port.
-     * When a new client connects, starts a new thread which then communicates with the client.
+     * When a new client connects, the configured engine starts communicating with the client.
      *
      * @param args Command line arguments.
      */
     public static void main(String[] args) {
-        ServerSocket serverSocket;
-        int port = Robot.parsePort(args); // Get port number from arguments
+        Configuration configuration;
+        try {
+            configuration = Configuration.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.printf("Invalid arguments: %s\n", ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Log.setLevel(configuration.getLogLevel());
+        Robot.warmUp(configuration);
+
+        ServerContext context = new ServerContext(configuration);
+        // Starting the platform MBean server takes longer than the rest of the startup, the robots need not wait
+        Thread metrics = new Thread(() -> Robot.exposeMetrics(context), "metrics-setup");
+        metrics.setDaemon(true);
+        metrics.start();
+
+        int port = configuration.getPort();
         System.out.println(port);
         try {
-            serverSocket = new ServerSocket(port);
+            Robot.createEngine(configuration).serve(context);
         } catch (IOException ex) {
             System.err.printf("Could not listen on port: %s\r", port);
             System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the configured synthetic sessions, so the first robots are served by compiled code.
+     * Only errors of the synthetic sessions are logged.
+     *
+     * @param configuration Configuration of the server.
+     */
+    private static void warmUp(Configuration configuration) {
+        if (configuration.getWarmupSessions() == 0) {
             return;
         }
+        Log.setLevel(Level.ERROR);
+        long start = System.nanoTime();
+        try {
+            StartupWarmup.run(configuration, configuration.getWarmupSessions());
+        } catch (IOException ex) {
+            System.err.printf("Warmup failed: %s\n", ex.getMessage());
+        } finally {
+            Log.setLevel(configuration.getLogLevel());
+        }
+        Log.info(Log.NO_CLIENT, "Warmed up in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Registers the metrics in JMX and starts the Prometheus endpoint if it is configured.
+     *
+     * @param context Services of the server.
+     */
+    private static void exposeMetrics(ServerContext context) {
+        try {
+            new MetricsMBean(context.getMetrics()).register();
+        } catch (JMException ex) {
+            System.err.printf("Could not register metrics in JMX: %s\n", ex.getMessage());
+        }
 
-        int clientNumber = 1;
-        while (true) {
+        int metricsPort = context.getConfiguration().getMetricsPort();
+        if (metricsPort > 0) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                // Start client's own thread
-                Client handler = new Client(clientSocket, clientNumber++);
-                Runnable clientExecutor = new ClientHandlerExecutor(handler, clientSocket);
-                new Thread(clientExecutor).start();
+                new PrometheusExporter(context.getMetrics()).start(metricsPort);
             } catch (IOException ex) {
-                System.err.println("Accept failed.");
+                System.err.printf("Could not serve metrics on port: %s\n", metricsPort);
             }
         }
     }
 
     /**
-     * Parses port from the command line arguments
+     * Creates the engine selected in the configuration.
      *
-     * @param args Command line arguments
-     * @return
+     * @param configuration Configuration of the server.
+     * @return The engine.
      */
-    private static int parsePort(String[] args) {
-        int port = 3000; // Default value
-        Iterator<String> iterator = Arrays.asList(args).iterator();
-        if (iterator.hasNext()) {
-            port = Integer.parseInt(iterator.next());
+    static ServerEngine createEngine(Configuration configuration) {
+        switch (configuration.getEngine()) {
+            case NIO:
+                return new NioServerEngine();
+            case VIRTUAL:
+                return new BlockingServerEngine(Thread.ofVirtual().name("client-", 1).factory());
+            case BLOCKING:
+            default:
+                return new BlockingServerEngine(Thread::new);
         }
-        return port;
     }
 }
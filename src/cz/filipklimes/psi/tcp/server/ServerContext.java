@@ -0,0 +1,199 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.buffer.BufferPool;
+import cz.filipklimes.psi.tcp.server.capture.TrafficCapture;
+import cz.filipklimes.psi.tcp.server.ingest.IngestScheduler;
+import cz.filipklimes.psi.tcp.server.metrics.Metrics;
+import cz.filipklimes.psi.tcp.server.timer.HashedWheelTimer;
+import cz.filipklimes.psi.tcp.server.upload.PartialUploads;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Services shared by all sessions of the server process.
+ *
+ * @author klimesf
+ */
+public class ServerContext {
+
+    /**
+     * Size of the chunks staging the photos in memory.
+     */
+    private static final int STAGING_CHUNK_SIZE = 64 * 1024;
+
+    private final Configuration configuration;
+
+    /**
+     * Identifier of this run of the server.
+     */
+    private final String launchId = Long.toString(System.currentTimeMillis(), 36);
+    private final HashedWheelTimer timer;
+    private final PhotoStore photoStore;
+    private final Metrics metrics = new Metrics();
+    private final AdmissionControl admissionControl;
+    private final IngestScheduler ingestScheduler;
+    private final ResumptionCache resumptionCache;
+    private final PartialUploads partialUploads;
+    private final BufferPool bufferPool;
+    private final TrafficCapture trafficCapture;
+
+    /**
+     * Creates the shared services for the given configuration.
+     *
+     * @param configuration Configuration of the server.
+     */
+    public ServerContext(Configuration configuration) {
+        this(configuration, createPhotoStore(configuration));
+    }
+
+    /**
+     * Creates the shared services for the given configuration with the given photo store.
+     *
+     * @param configuration Configuration of the server.
+     * @param photoStore    Storage of the received photos.
+     */
+    ServerContext(Configuration configuration, PhotoStore photoStore) {
+        this.configuration = configuration;
+        this.timer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 512);
+        this.photoStore = photoStore;
+        this.bufferPool = new BufferPool(
+                configuration.getEngine() == Configuration.Engine.NIO,
+                configuration.getBufferPoolBytes(),
+                this.metrics
+        );
+        this.admissionControl = new AdmissionControl(configuration.getMaxSessions(), configuration.getMaxHandshakes());
+        this.ingestScheduler = new IngestScheduler(
+                configuration.getFotoIngestRate(),
+                configuration.getFotoSessionRate(),
+                this.metrics
+        );
+        this.resumptionCache = new ResumptionCache(
+                configuration.getResumeTimeToLive(),
+                configuration.getResumeCacheCapacity(),
+                configuration.getTokenPrefix()
+        );
+        this.partialUploads = new PartialUploads(
+                Paths.get(configuration.getPartialDirectory()),
+                configuration.getPartialMinLength(),
+                configuration.getPartialTimeToLive(),
+                configuration.getPartialBudget()
+        );
+        this.trafficCapture = new TrafficCapture(
+                configuration.getCaptureFile() == null ? null : Paths.get(configuration.getCaptureFile()),
+                configuration.getCaptureQueueCapacity()
+        );
+        this.trafficCapture.start();
+    }
+
+    private static PhotoStore createPhotoStore(Configuration configuration) {
+        ChunkPool pool = new ChunkPool(STAGING_CHUNK_SIZE, configuration.getStagingPoolChunks());
+        PhotoStore store;
+        switch (configuration.getPhotoStore()) {
+            case CONTENT:
+                store = new ContentAddressedPhotoStore(
+                        Paths.get(configuration.getPhotoDirectory()),
+                        configuration.getStagingThreshold(),
+                        pool
+                );
+                break;
+            case WORKDIR:
+            default:
+                store = new WorkingDirectoryPhotoStore(configuration.getStagingThreshold(), pool);
+        }
+        if (configuration.getPhotoWriters() > 0) {
+            store = new AsyncPhotoStore(store, configuration.getPhotoWriters(), configuration.getPhotoQueueCapacity());
+        }
+        return store;
+    }
+
+    /**
+     * @return Configuration of the server.
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return Identifier of this run of the server.
+     */
+    public String getLaunchId() {
+        return launchId;
+    }
+
+    /**
+     * @return Timer tracking the deadlines of all sessions.
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return Storage of the received photos.
+     */
+    public PhotoStore getPhotoStore() {
+        return photoStore;
+    }
+
+    /**
+     * @return Metrics of the server.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Limits of the concurrent sessions.
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * @return Scheduler sharing the upload bandwidth among the sessions.
+     */
+    public IngestScheduler getIngestScheduler() {
+        return ingestScheduler;
+    }
+
+    /**
+     * @return Tokens of the sessions which can be resumed.
+     */
+    public ResumptionCache getResumptionCache() {
+        return resumptionCache;
+    }
+
+    /**
+     * @return Pool of the I/O buffers of the sessions, direct for the NIO engine, heap for the stream based ones.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return Staging area of the photo uploads cut off by a disconnect.
+     */
+    public PartialUploads getPartialUploads() {
+        return partialUploads;
+    }
+
+    /**
+     * @return Capture of the input of the sessions.
+     */
+    public TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
+    /**
+     * Creates the deadlines of a new session.
+     *
+     * @param onTimeout Action taken when a deadline passes.
+     * @return The session's deadlines, not started yet.
+     */
+    public SessionTimeouts createSessionTimeouts(Runnable onTimeout) {
+        return new SessionTimeouts(this.timer, this.configuration, () -> {
+            this.metrics.timedOut();
+            onTimeout.run();
+        });
+    }
+}
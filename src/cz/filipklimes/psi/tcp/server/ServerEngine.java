@@ -0,0 +1,19 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.IOException;
+
+/**
+ * Engine which accepts the robots and drives their Clients.
+ *
+ * @author klimesf
+ */
+public interface ServerEngine {
+
+    /**
+     * Listens on the configured port and serves the robots until the server shuts down.
+     *
+     * @param context Shared services and configuration of the server.
+     * @throws IOException If the engine could not listen on the port.
+     */
+    void serve(ServerContext context) throws IOException;
+}
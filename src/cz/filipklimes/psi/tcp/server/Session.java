@@ -0,0 +1,87 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.states.State;
+
+/**
+ * Per-session data of the state machine. The states are shared by all sessions and keep nothing themselves.
+ *
+ * @author klimesf
+ */
+public class Session {
+
+    /**
+     * Byte sum of the login the password is checked against.
+     */
+    private int calculatedPassword;
+
+    /**
+     * Does the login start with "Robot"?
+     */
+    private boolean passwordStartOkay = false;
+
+    /**
+     * Login the robot sent, null before it is read.
+     */
+    private String login;
+
+    /**
+     * State which reads the next message.
+     */
+    private State nextState;
+
+    /**
+     * @param nextState State which reads the next message.
+     */
+    public void setNextState(State nextState) {
+        this.nextState = nextState;
+    }
+
+    /**
+     * @return State which reads the next message.
+     */
+    public State getNextState() {
+        return nextState;
+    }
+
+    /**
+     * @param calculatedPassword Byte sum of the login.
+     */
+    public void setCalculatedPassword(int calculatedPassword) {
+        this.calculatedPassword = calculatedPassword;
+    }
+
+    /**
+     * @return The calculated password. Might not be initialized.
+     */
+    public int getCalculatedPassword() {
+        return calculatedPassword;
+    }
+
+    /**
+     * @param passwordStartOkay Does the login start with "Robot"?
+     */
+    public void setPasswordStartOkay(boolean passwordStartOkay) {
+        this.passwordStartOkay = passwordStartOkay;
+    }
+
+    /**
+     * @return true if the login starts with "Robot", false if not. Might not be initialized.
+     */
+    public boolean isPasswordStartOkay() {
+        return passwordStartOkay;
+    }
+
+    /**
+     * @param login Login the robot sent.
+     */
+    public void setLogin(String login) {
+        this.login = login;
+    }
+
+    /**
+     * @return Login the robot sent. Might not be initialized.
+     */
+    public String getLogin() {
+        return login;
+    }
+}
@@ -0,0 +1,148 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.buffer.BufferPool;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream of a session which flushes the pending answers only before it has to wait for more input.
+ * <p>
+ * A robot which sends several messages at once gets all their answers in one write, in the order of the messages.
+ * <p>
+ * The stream waits for the first byte of the input without a buffer and borrows one from the pool only for the
+ * bytes which have already arrived, returning it once they are consumed. An idle session holds no buffer.
+ * The pool must hand out heap buffers.
+ *
+ * @author klimesf
+ */
+public class SessionInputStream extends InputStream {
+
+    /**
+     * Capacity of the borrowed buffer, larger reads bypass it.
+     */
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    private final InputStream in;
+
+    /**
+     * Buffered answers to the client.
+     */
+    private final Flushable answers;
+
+    private final BufferPool pool;
+
+    /**
+     * Holds the first byte of the input, read without a buffer.
+     */
+    private final byte[] first = new byte[1];
+
+    /**
+     * Bytes read but not consumed yet, null if there are none.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * @param in      Input stream from the client.
+     * @param answers Buffered answers to the client.
+     * @param pool    Pool of heap buffers.
+     */
+    public SessionInputStream(InputStream in, Flushable answers, BufferPool pool) {
+        this.in = in;
+        this.answers = answers;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+        int b = this.buffer.get() & 0xff;
+        this.releaseIfDrained();
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.buffer == null && len >= BUFFER_SIZE) {
+            this.answers.flush();
+            return this.in.read(b, off, len);
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        int read = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, read);
+        this.releaseIfDrained();
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() throws IOException {
+        return (this.buffer != null ? this.buffer.remaining() : 0) + this.in.available();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.buffer != null) {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+        this.in.close();
+    }
+
+    /**
+     * Makes sure some bytes are buffered. When there are none, flushes the answers and waits for the input.
+     *
+     * @return false if the input ended.
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (this.buffer != null) {
+            return true;
+        }
+        this.answers.flush();
+        if (this.in.read(this.first, 0, 1) < 0) {
+            return false;
+        }
+
+        // Take what has arrived together with the first byte
+        ByteBuffer buffer = this.pool.acquire(BUFFER_SIZE);
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset();
+        array[offset] = this.first[0];
+        int count = 1;
+        int available = Math.min(this.in.available(), buffer.capacity() - 1);
+        if (available > 0) {
+            count += Math.max(0, this.in.read(array, offset + 1, available));
+        }
+        buffer.limit(count);
+        this.buffer = buffer;
+        return true;
+    }
+
+    private void releaseIfDrained() {
+        if (!this.buffer.hasRemaining()) {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Parking of the idle sessions of the blocking engines.
+ * <p>
+ * A logged in robot waiting for its next message gives its thread up. Its session is reduced to a
+ * {@link ParkedSession} and its channel is watched by one selector thread, switched to non-blocking mode.
+ * When the robot sends something, the channel is switched back to blocking mode and the session goes on
+ * in a new thread. The deadlines of the parked sessions are watched by the shared timer, which hands the expired
+ * ones over to the selector thread.
+ *
+ * @author klimesf
+ */
+class SessionParking implements Runnable {
+
+    private final Selector selector;
+    private final ServerContext context;
+
+    /**
+     * Continues a parked session whose robot sent something, its channel is in blocking mode again.
+     */
+    private final Consumer<ParkedSession> resume;
+
+    /**
+     * Sessions parked by their threads which wait for registration in the selector.
+     */
+    private final Queue<ParkedSession> arrivals = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Keys of the parked sessions whose deadline has passed, queued by the timer.
+     */
+    private final Queue<SelectionKey> expirations = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param context Shared services of the server.
+     * @param resume  Continues a parked session whose robot sent something.
+     * @throws IOException If the selector could not be opened.
+     */
+    SessionParking(ServerContext context, Consumer<ParkedSession> resume) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+        this.resume = resume;
+    }
+
+    /**
+     * Parks an idle session, called from its thread which must return right after.
+     *
+     * @param client The session.
+     * @return false if the session could not be parked and its thread should go on.
+     * @throws IOException If the pending answers could not be written.
+     */
+    boolean park(Client client) throws IOException {
+        if (client.getChannel() == null) {
+            return false;
+        }
+        client.flushAnswers();
+        ParkedSession parked = client.park(client.getChannel());
+        if (parked == null) {
+            return false;
+        }
+        this.arrivals.add(parked);
+        this.selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Watches the parked sessions until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.selector.select();
+
+                ParkedSession parked;
+                while ((parked = this.arrivals.poll()) != null) {
+                    this.register(parked);
+                }
+
+                List<ParkedSession> ready = new ArrayList<>();
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    key.cancel();
+                    ParkedSession session = (ParkedSession) key.attachment();
+                    session.unwatch();
+                    ready.add(session);
+                }
+                this.selector.selectedKeys().clear();
+
+                // A key cancelled above belongs to a robot which sent something before its deadline
+                List<ParkedSession> expired = new ArrayList<>();
+                SelectionKey key;
+                while ((key = this.expirations.poll()) != null) {
+                    if (key.isValid()) {
+                        key.cancel();
+                        expired.add((ParkedSession) key.attachment());
+                    }
+                }
+
+                // Deregister the cancelled keys, a channel cannot block while it is registered
+                this.selector.selectNow();
+                for (ParkedSession session : ready) {
+                    this.unpark(session);
+                }
+                for (ParkedSession session : expired) {
+                    session.expire(this.context);
+                }
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Parking selector failed: {}", ex);
+                break;
+            }
+        }
+    }
+
+    private void register(ParkedSession parked) {
+        try {
+            parked.getChannel().configureBlocking(false);
+            SelectionKey key = parked.getChannel().register(this.selector, SelectionKey.OP_READ, parked);
+            parked.watch(this.context.getTimer(), () -> {
+                this.expirations.add(key);
+                this.selector.wakeup();
+            });
+        } catch (IOException ex) {
+            Log.warn(parked.getClientNumber(), "Robot disconnected.");
+            parked.close(this.context);
+        }
+    }
+
+    private void unpark(ParkedSession parked) {
+        try {
+            parked.getChannel().configureBlocking(true);
+        } catch (IOException ex) {
+            Log.warn(parked.getClientNumber(), "Robot disconnected.");
+            parked.close(this.context);
+            return;
+        }
+        this.resume.accept(parked);
+    }
+}
@@ -0,0 +1,186 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.timer.HashedWheelTimer;
+import cz.filipklimes.psi.tcp.server.timer.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlines of one client's session: the deadline of the whole session and the deadline of its current phase.
+ * Whichever passes first triggers the timeout action.
+ *
+ * @author klimesf
+ */
+public class SessionTimeouts {
+
+    private final HashedWheelTimer timer;
+    private final Configuration configuration;
+
+    /**
+     * Action taken when a deadline passes, answers 502 TIMEOUT and closes the connection.
+     */
+    private final Runnable onTimeout;
+
+    private final Runnable expireSession = this::expire;
+    private final Runnable expirePhase = this::expirePhase;
+
+    private Timeout sessionTimeout;
+    private Timeout phaseTimeout;
+    private TimeoutPhase phase;
+
+    /**
+     * Time in nanoseconds, as given by System.nanoTime(), when the session times out.
+     */
+    private long sessionDeadline;
+
+    /**
+     * Time in nanoseconds, as given by System.nanoTime(), when the current phase times out.
+     */
+    private long phaseDeadline;
+
+    /**
+     * Has the session timed out or ended?
+     */
+    private boolean finished = false;
+
+    /**
+     * @param timer         Shared timer.
+     * @param configuration Configuration with the timeouts.
+     * @param onTimeout     Action taken when a deadline passes.
+     */
+    public SessionTimeouts(HashedWheelTimer timer, Configuration configuration, Runnable onTimeout) {
+        this.timer = timer;
+        this.configuration = configuration;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Starts the session deadline and the deadline of the first phase.
+     *
+     * @param phase The first phase.
+     */
+    public synchronized void start(TimeoutPhase phase) {
+        int seconds = this.configuration.getSessionTimeout();
+        this.sessionDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        this.sessionTimeout = this.schedule(this.expireSession, seconds);
+        this.enter(phase);
+    }
+
+    /**
+     * Starts the deadlines of a parked session again where they stopped.
+     *
+     * @param phase           Phase the session was parked in.
+     * @param sessionDeadline Deadline of the session, 0 if disabled.
+     * @param phaseDeadline   Deadline of the phase, 0 if disabled.
+     */
+    public synchronized void restore(TimeoutPhase phase, long sessionDeadline, long phaseDeadline) {
+        long now = System.nanoTime();
+        this.phase = phase;
+        if (sessionDeadline != 0) {
+            this.sessionDeadline = sessionDeadline;
+            this.sessionTimeout = this.timer.schedule(
+                    this.expireSession, Math.max(0, sessionDeadline - now), TimeUnit.NANOSECONDS
+            );
+        }
+        if (phaseDeadline != 0) {
+            this.phaseDeadline = phaseDeadline;
+            this.phaseTimeout = this.timer.schedule(
+                    this.expirePhase, Math.max(0, phaseDeadline - now), TimeUnit.NANOSECONDS
+            );
+        }
+    }
+
+    /**
+     * Cancels the deadlines of a session which is being parked, keeping them for {@link #restore}.
+     *
+     * @return false if the session has timed out or ended already.
+     */
+    public synchronized boolean suspend() {
+        if (this.finished) {
+            return false;
+        }
+        this.cancel();
+        return true;
+    }
+
+    /**
+     * @return Time in nanoseconds when the session times out, 0 if disabled.
+     */
+    public synchronized long getSessionDeadline() {
+        return this.sessionTimeout != null ? this.sessionDeadline : 0;
+    }
+
+    /**
+     * @return Time in nanoseconds when the current phase times out, 0 if disabled.
+     */
+    public synchronized long getPhaseDeadline() {
+        return this.phaseTimeout != null ? this.phaseDeadline : 0;
+    }
+
+    /**
+     * Moves the session to the given phase. The phase deadline restarts when the phase changes
+     * and every time the session enters the idle phase.
+     * <p>
+     * Staying in the idle phase only moves the deadline, the pending timeout schedules itself again
+     * when it fires before the deadline, so a chatty robot does not schedule a timeout per message.
+     *
+     * @param phase The phase.
+     */
+    public synchronized void enter(TimeoutPhase phase) {
+        if (this.finished || (phase == this.phase && phase != TimeoutPhase.IDLE)) {
+            return;
+        }
+        int seconds = this.configuration.getTimeout(phase);
+        this.phaseDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        if (phase == this.phase && this.phaseTimeout != null) {
+            return;
+        }
+        this.phase = phase;
+        if (this.phaseTimeout != null) {
+            this.phaseTimeout.cancel();
+        }
+        this.phaseTimeout = this.schedule(this.expirePhase, seconds);
+    }
+
+    /**
+     * Cancels all deadlines of the session.
+     */
+    public synchronized void cancel() {
+        this.finished = true;
+        if (this.sessionTimeout != null) {
+            this.sessionTimeout.cancel();
+        }
+        if (this.phaseTimeout != null) {
+            this.phaseTimeout.cancel();
+        }
+    }
+
+    private Timeout schedule(Runnable task, int seconds) {
+        if (seconds <= 0) {
+            return null; // Disabled
+        }
+        return this.timer.schedule(task, seconds, TimeUnit.SECONDS);
+    }
+
+    private void expirePhase() {
+        synchronized (this) {
+            long remaining = this.phaseDeadline - System.nanoTime();
+            if (!this.finished && remaining > 0) {
+                this.phaseTimeout = this.timer.schedule(this.expirePhase, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+        this.expire();
+    }
+
+    private void expire() {
+        synchronized (this) {
+            if (this.finished) {
+                return;
+            }
+            // Make sure the other deadline does not fire as well
+            this.cancel();
+        }
+        this.onTimeout.run();
+    }
+}
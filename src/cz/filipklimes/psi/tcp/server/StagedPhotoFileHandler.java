@@ -0,0 +1,232 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Photo file handler which keeps the photo in pooled memory and writes it under its name only when committed.
+ * <p>
+ * A photo larger than the threshold spills to a temporary file next to the target.
+ * The commit moves the temporary file to the target atomically, so a partially written photo is never visible
+ * and a removed photo which did not spill never touches the disk.
+ *
+ * @author klimesf
+ */
+public class StagedPhotoFileHandler implements PhotoFileHandler {
+
+    private final Path stagingDirectory;
+    private final String prefix;
+    private final Path target;
+    private final long threshold;
+    private final ChunkPool pool;
+
+    /**
+     * Chunks holding the photo while it is staged in memory.
+     */
+    private final List<byte[]> chunks = new ArrayList<>();
+
+    /**
+     * Number of bytes of the photo received so far.
+     */
+    private long size = 0;
+
+    /**
+     * Temporary file the photo spilled to, null while it is staged in memory.
+     */
+    private Path spillPath;
+    private PhotoFileHandlerImpl spill;
+
+    /**
+     * Has a part of the photo been lost? A failed photo is never committed.
+     */
+    private boolean failed = false;
+
+    /**
+     * @param target    Path the photo is committed to.
+     * @param threshold Maximum number of bytes staged in memory.
+     * @param pool      Pool of the memory chunks.
+     */
+    public StagedPhotoFileHandler(Path target, long threshold, ChunkPool pool) {
+        this(target.toAbsolutePath().getParent(), target.getFileName().toString(), target.toAbsolutePath(), threshold, pool);
+    }
+
+    /**
+     * Constructor for handlers which resolve the target when the photo is committed.
+     *
+     * @param stagingDirectory Directory of the temporary files, on the same file system as the target.
+     * @param prefix           Prefix of the temporary files.
+     * @param threshold        Maximum number of bytes staged in memory.
+     * @param pool             Pool of the memory chunks.
+     */
+    protected StagedPhotoFileHandler(Path stagingDirectory, String prefix, long threshold, ChunkPool pool) {
+        this(stagingDirectory, prefix, null, threshold, pool);
+    }
+
+    private StagedPhotoFileHandler(Path stagingDirectory, String prefix, Path target, long threshold, ChunkPool pool) {
+        this.stagingDirectory = stagingDirectory;
+        this.prefix = prefix;
+        this.target = target;
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * @return Path the photo is committed to.
+     * @throws IOException If the path could not be prepared.
+     */
+    protected Path getTarget() throws IOException {
+        return this.target;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(int i) {
+        return this.append(new byte[]{(byte) i}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(byte[] bytes, int offset, int length) {
+        if (this.failed || this.spill == null && this.size + length > this.threshold && !this.spill()) {
+            return false;
+        }
+        this.size += length;
+        if (this.spill != null) {
+            return this.spill.append(bytes, offset, length) || this.fail();
+        }
+
+        int chunkSize = this.pool.getChunkSize();
+        while (length > 0) {
+            int used = (int) ((this.size - length) % chunkSize);
+            if (used == 0) {
+                this.chunks.add(this.pool.acquire());
+            }
+            int copied = Math.min(length, chunkSize - used);
+            System.arraycopy(bytes, offset, this.chunks.get(this.chunks.size() - 1), used, copied);
+            offset += copied;
+            length -= copied;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean append(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            boolean appended = this.append(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return appended;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return this.append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Finishes receiving the photo. The photo stays staged until it is committed or removed.
+     *
+     * @return true if the staged photo is complete, false if not.
+     */
+    @Override
+    public boolean close() {
+        return !this.failed && (this.spill == null || this.spill.close());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean commit() {
+        try {
+            if (this.failed || this.spill == null && !(this.spill() && this.spill.close())) {
+                this.removeFile();
+                return false;
+            }
+            Files.move(this.spillPath, this.getTarget(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            this.removeFile();
+            return false;
+        } finally {
+            this.releaseChunks();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean removeFile() {
+        this.releaseChunks();
+        if (this.spillPath == null) {
+            return true;
+        }
+        if (this.spill != null) {
+            this.spill.close();
+        }
+        try {
+            return Files.deleteIfExists(this.spillPath);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Moves the photo from memory to a temporary file.
+     * If it fails, the temporary file is deleted and the handler is failed.
+     *
+     * @return true if the photo spilled successfully, false if not.
+     */
+    private boolean spill() {
+        boolean written = true;
+        try {
+            this.spillPath = this.createTemporaryFile();
+            this.spill = new PhotoFileHandlerImpl(this.spillPath.toString());
+            long left = this.size;
+            for (byte[] chunk : this.chunks) {
+                int length = (int) Math.min(left, chunk.length);
+                written &= this.spill.append(chunk, 0, length);
+                left -= length;
+            }
+        } catch (IOException | RuntimeException e) {
+            written = false;
+        }
+        this.releaseChunks();
+        return written || this.fail();
+    }
+
+    /**
+     * Gives the photo up and deletes its temporary file.
+     *
+     * @return false, for the failed operation to return.
+     */
+    private boolean fail() {
+        this.failed = true;
+        this.removeFile();
+        this.spill = null;
+        this.spillPath = null;
+        return false;
+    }
+
+    private Path createTemporaryFile() throws IOException {
+        return Files.createTempFile(this.stagingDirectory, this.prefix + ".", ".part");
+    }
+
+    private void releaseChunks() {
+        for (byte[] chunk : this.chunks) {
+            this.pool.release(chunk);
+        }
+        this.chunks.clear();
+    }
+}
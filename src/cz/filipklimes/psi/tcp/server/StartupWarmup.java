@@ -0,0 +1,184 @@
+package cz.filipklimes.psi.tcp.server;
+
+import cz.filipklimes.psi.tcp.server.buffer.PooledOutputStream;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.protocol.ProtocolDecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Synthetic sessions run in-process before the server accepts robots, so the JIT compiles the protocol's hot paths
+ * before the first robot arrives instead of while serving it.
+ * <p>
+ * The sessions take the path the engine serves the robots with: the state machine reading a session stream for the
+ * blocking engines, the decoder fed from a direct buffer for the NIO engine. Every session logs in, sends INFO
+ * messages, a large and a small photo, a photo with a bad checksum and ends with a syntax error. The sessions have
+ * their own services with default options and a photo store which drops the photos, so they leave no trace in the
+ * metrics, the stored photos, the partial uploads or the capture.
+ *
+ * @author klimesf
+ */
+final class StartupWarmup {
+
+    private static final String LOGIN = "Robot 345 warming up";
+
+    /**
+     * Bytes of the NIO engine's reads, a typical segment.
+     */
+    private static final int READ_SIZE = 1460;
+
+    private static final byte[] TRANSCRIPT = transcript();
+
+    private StartupWarmup() {
+    }
+
+    /**
+     * Runs the synthetic sessions.
+     *
+     * @param configuration Configuration of the server, only its engine is taken over.
+     * @param sessions      Number of the sessions.
+     * @throws IOException If a session failed, which is a bug.
+     */
+    static void run(Configuration configuration, int sessions) throws IOException {
+        Configuration warmupConfiguration = Configuration.parse(new String[]{
+                "--engine=" + configuration.getEngine().name().toLowerCase()
+        });
+        ServerContext context = new ServerContext(warmupConfiguration, new DiscardingPhotoStore());
+        try {
+            for (int i = 0; i < sessions; i++) {
+                if (configuration.getEngine() == Configuration.Engine.NIO) {
+                    decode(context);
+                } else {
+                    stream(context);
+                }
+            }
+        } finally {
+            context.getTimer().stop();
+        }
+    }
+
+    /**
+     * Runs a session through the state machine as the blocking engines do.
+     */
+    private static void stream(ServerContext context) {
+        OutputStream output = new PooledOutputStream(OutputStream.nullOutputStream(), context.getBufferPool());
+        Client client = new Client(
+                () -> {
+                },
+                Log.NO_CLIENT,
+                new SessionInputStream(new ByteArrayInputStream(TRANSCRIPT), output, context.getBufferPool()),
+                output,
+                context
+        );
+        client.run();
+    }
+
+    /**
+     * Runs a session through the decoder as the NIO engine does.
+     */
+    private static void decode(ServerContext context) throws IOException {
+        // The engine's session output needs a channel, the answers are short and dropped anyway
+        OutputStream output = OutputStream.nullOutputStream();
+        Client client = new Client(
+                () -> {
+                },
+                Log.NO_CLIENT,
+                null,
+                output,
+                context
+        );
+        ProtocolDecoder decoder = new ProtocolDecoder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_SIZE);
+        client.getHandler().onConnect();
+        for (int offset = 0; offset < TRANSCRIPT.length && !client.isClosed(); offset += READ_SIZE) {
+            buffer.clear();
+            buffer.put(TRANSCRIPT, offset, Math.min(READ_SIZE, TRANSCRIPT.length - offset));
+            buffer.flip();
+            decoder.decode(buffer, client.getHandler());
+            output.flush();
+        }
+    }
+
+    private static byte[] transcript() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int password = 0;
+        for (byte b : LOGIN.getBytes(StandardCharsets.US_ASCII)) {
+            password += b & 0xff;
+        }
+        text(bytes, LOGIN + "\r\n" + password + "\r\n");
+        for (int i = 0; i < 8; i++) {
+            text(bytes, "INFO position " + i + ", all systems nominal\r\n");
+        }
+        // Photos of 0x11 bytes, their byte sums have no byte below 0x10 the server would misread
+        foto(bytes, 65793, 0x111111);
+        foto(bytes, 257, 0x1111);
+        foto(bytes, 257, 0x1112);
+        text(bytes, "INFO done\r\nLOGOUT\r\n");
+        return bytes.toByteArray();
+    }
+
+    private static void foto(ByteArrayOutputStream bytes, int length, int checksum) {
+        text(bytes, "FOTO " + length + " ");
+        byte[] photo = new byte[length];
+        Arrays.fill(photo, (byte) 0x11);
+        bytes.writeBytes(photo);
+        bytes.writeBytes(new byte[]{
+                (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum
+        });
+    }
+
+    private static void text(ByteArrayOutputStream bytes, String text) {
+        bytes.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Photo store of the synthetic sessions, which accepts the photos and drops them.
+     */
+    private static class DiscardingPhotoStore implements PhotoStore {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public PhotoFileHandler open(Client client) {
+            return new PhotoFileHandler() {
+                @Override
+                public boolean append(int i) {
+                    return true;
+                }
+
+                @Override
+                public boolean append(byte[] bytes, int offset, int length) {
+                    return true;
+                }
+
+                @Override
+                public boolean append(ByteBuffer buffer) {
+                    buffer.position(buffer.limit());
+                    return true;
+                }
+
+                @Override
+                public boolean close() {
+                    return true;
+                }
+
+                @Override
+                public boolean commit() {
+                    return true;
+                }
+
+                @Override
+                public boolean removeFile() {
+                    return true;
+                }
+            };
+        }
+    }
+}
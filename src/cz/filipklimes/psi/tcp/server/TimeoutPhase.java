@@ -0,0 +1,21 @@
+package cz.filipklimes.psi.tcp.server;
+
+/**
+ * Phase of the session which has its own timeout.
+ *
+ * @author klimesf
+ */
+public enum TimeoutPhase {
+    /**
+     * From the connection until the password is accepted.
+     */
+    LOGIN,
+    /**
+     * Waiting for the next message and reading an INFO message, restarted with every message.
+     */
+    IDLE,
+    /**
+     * Transfer of a FOTO message.
+     */
+    FOTO
+}
@@ -0,0 +1,36 @@
+package cz.filipklimes.psi.tcp.server;
+
+import java.nio.file.Paths;
+
+/**
+ * Stores the photos as foto&lt;client number&gt;.png in the working directory.
+ * The photos are staged until their checksum is verified.
+ *
+ * @author klimesf
+ */
+public class WorkingDirectoryPhotoStore implements PhotoStore {
+
+    private final long stagingThreshold;
+    private final ChunkPool pool;
+
+    /**
+     * @param stagingThreshold Maximum number of bytes of a photo staged in memory.
+     * @param pool             Pool of the memory chunks.
+     */
+    public WorkingDirectoryPhotoStore(long stagingThreshold, ChunkPool pool) {
+        this.stagingThreshold = stagingThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PhotoFileHandler open(Client client) {
+        return new StagedPhotoFileHandler(
+                Paths.get("foto" + client.getClientNumber() + ".png"),
+                this.stagingThreshold,
+                this.pool
+        );
+    }
+}
@@ -0,0 +1,106 @@
+package cz.filipklimes.psi.tcp.server.buffer;
+
+import cz.filipklimes.psi.tcp.server.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of I/O buffers shared by all sessions.
+ * <p>
+ * A session borrows a buffer only while it reads or writes and returns it once the buffer is drained,
+ * so an idle session holds no buffer at all. Buffers come in a few size classes, a request is served
+ * from the smallest class it fits. Larger requests are allocated and left to the garbage collector.
+ * When a class is empty a new buffer is allocated, when it is full a returned buffer is dropped.
+ *
+ * @author klimesf
+ */
+public class BufferPool {
+
+    /**
+     * Capacities of the size classes, ascending: an answer, a read of the stream, a chunk of a photo.
+     */
+    private static final int[] SIZE_CLASSES = {512, 4 * 1024, 64 * 1024};
+
+    private final boolean direct;
+    private final List<BlockingQueue<ByteBuffer>> idle;
+    private final Metrics metrics;
+
+    /**
+     * @param direct    Should the buffers be direct? Direct buffers suit channels, streams need heap buffers.
+     * @param idleBytes Maximum number of bytes of idle buffers kept, split evenly among the size classes.
+     * @param metrics   Metrics counting the hits, misses and borrowed buffers.
+     */
+    public BufferPool(boolean direct, long idleBytes, Metrics metrics) {
+        this.direct = direct;
+        this.metrics = metrics;
+        this.idle = new ArrayList<>(SIZE_CLASSES.length);
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            long capacity = idleBytes / SIZE_CLASSES.length / SIZE_CLASSES[i];
+            this.idle.add(new ArrayBlockingQueue<>((int) Math.max(1, Math.min(capacity, Integer.MAX_VALUE))));
+        }
+    }
+
+    /**
+     * @return Are the buffers direct?
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Borrows a cleared buffer of at least the given capacity. Its contents are undefined.
+     *
+     * @param capacity Minimum capacity in bytes.
+     * @return The buffer.
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            this.metrics.bufferAcquired(false, 0);
+            return this.allocate(capacity);
+        }
+        ByteBuffer buffer = this.idle.get(sizeClass).poll();
+        if (buffer == null) {
+            this.metrics.bufferAcquired(false, 0);
+            return this.allocate(SIZE_CLASSES[sizeClass]);
+        }
+        this.metrics.bufferAcquired(true, buffer.capacity());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a borrowed buffer. The caller must not touch it afterwards.
+     *
+     * @param buffer The buffer.
+     */
+    public void release(ByteBuffer buffer) {
+        int sizeClass = sizeClass(buffer.capacity());
+        boolean pooled = sizeClass >= 0
+                && SIZE_CLASSES[sizeClass] == buffer.capacity()
+                && buffer.isDirect() == this.direct
+                && this.idle.get(sizeClass).offer(buffer);
+        this.metrics.bufferReleased(pooled, buffer.capacity());
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * @param capacity Requested capacity.
+     * @return Index of the smallest size class the capacity fits, -1 if none.
+     */
+    private static int sizeClass(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+package cz.filipklimes.psi.tcp.server.buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffered output stream which borrows its buffer from a {@link BufferPool} on the first write
+ * and returns it on flush, so a stream with nothing to send holds no buffer.
+ * <p>
+ * The pool must hand out heap buffers. The stream is written by one thread, only
+ * {@link #writeBetweenFlushes(byte[], int, int)} may be called from another.
+ *
+ * @author klimesf
+ */
+public class PooledOutputStream extends OutputStream {
+
+    /**
+     * Capacity of the borrowed buffer, larger writes bypass it.
+     */
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    private final OutputStream out;
+    private final BufferPool pool;
+
+    /**
+     * Bytes not yet written to the underlying stream, null if there are none.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Held while bytes are written to the underlying stream.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Have bytes been written to the underlying stream since the last flush? Guarded by the write lock.
+     */
+    private boolean unflushed = false;
+
+    /**
+     * @param out  Underlying output stream.
+     * @param pool Pool of heap buffers.
+     */
+    public PooledOutputStream(OutputStream out, BufferPool pool) {
+        this.out = out;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        this.ensureRemaining(1);
+        this.buffer.put((byte) b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= BUFFER_SIZE) {
+            this.writeLock.lock();
+            try {
+                this.writeBuffer();
+                this.out.write(b, off, len);
+                this.unflushed = true;
+            } finally {
+                this.writeLock.unlock();
+            }
+            return;
+        }
+        this.ensureRemaining(len);
+        this.buffer.put(b, off, len);
+    }
+
+    /**
+     * Writes the buffered bytes, returns the buffer to the pool and flushes the underlying stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        this.writeLock.lock();
+        try {
+            this.writeBuffer();
+            this.releaseBuffer();
+            this.out.flush();
+            this.unflushed = false;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the bytes straight to the underlying stream and flushes it, called from a thread other than the
+     * stream's writer. The bytes are written only between two flushes of the writer, never in the middle of what it
+     * sends. The bytes it has buffered meanwhile are not sent before them.
+     *
+     * @param b   The bytes.
+     * @param off Offset of the first byte.
+     * @param len Number of the bytes.
+     * @return true if the bytes were written, false if the writer is sending at the moment or has sent a part.
+     * @throws IOException
+     */
+    public boolean writeBetweenFlushes(byte[] b, int off, int len) throws IOException {
+        if (!this.writeLock.tryLock()) {
+            return false;
+        }
+        try {
+            if (this.unflushed) {
+                return false;
+            }
+            this.out.write(b, off, len);
+            this.out.flush();
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.releaseBuffer();
+            this.out.close();
+        }
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (this.buffer == null) {
+            this.buffer = this.pool.acquire(BUFFER_SIZE);
+        } else if (this.buffer.remaining() < length) {
+            this.writeBuffer();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (this.buffer != null && this.buffer.position() > 0) {
+            this.writeLock.lock();
+            try {
+                this.out.write(this.buffer.array(), this.buffer.arrayOffset(), this.buffer.position());
+                this.unflushed = true;
+            } finally {
+                this.writeLock.unlock();
+            }
+            this.buffer.clear();
+        }
+    }
+
+    private void releaseBuffer() {
+        if (this.buffer != null) {
+            this.pool.release(this.buffer);
+            this.buffer = null;
+        }
+    }
+}
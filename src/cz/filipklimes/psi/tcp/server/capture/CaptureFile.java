@@ -0,0 +1,93 @@
+package cz.filipklimes.psi.tcp.server.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a file written by the {@link TrafficCapture}.
+ *
+ * @author klimesf
+ */
+public final class CaptureFile {
+
+    private CaptureFile() {
+    }
+
+    /**
+     * Reads the captured sessions. A record cut off at the end of the file, e.g. by a crash of the server, is ignored.
+     *
+     * @param file The capture file.
+     * @return Sessions in the order the robots connected.
+     * @throws IOException If the file could not be read or is not a capture.
+     */
+    public static List<CapturedSession> read(Path file) throws IOException {
+        Map<Integer, CapturedSession> sessions = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (in.readInt() != TrafficCapture.MAGIC) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != TrafficCapture.VERSION) {
+                throw new IOException("Unsupported capture version: " + version);
+            }
+            in.readLong(); // wall-clock start
+
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                try {
+                    int clientNumber = (int) readVarint(in);
+                    long micros = readVarint(in);
+                    CapturedSession session = sessions.computeIfAbsent(clientNumber, CapturedSession::new);
+                    switch (type) {
+                        case TrafficCapture.CONNECTED:
+                            session.connected(micros);
+                            break;
+                        case TrafficCapture.RECEIVED:
+                            byte[] data = new byte[(int) readVarint(in)];
+                            in.readFully(data);
+                            session.received(micros, data);
+                            break;
+                        case TrafficCapture.ENDED:
+                            session.ended(micros);
+                            break;
+                        case TrafficCapture.LOST:
+                            session.lost();
+                            break;
+                        default:
+                            throw new IOException("Unknown capture record: " + type);
+                    }
+                } catch (EOFException ex) {
+                    break;
+                }
+            }
+        }
+
+        List<CapturedSession> ordered = new ArrayList<>(sessions.values());
+        ordered.sort(Comparator.comparingLong(CapturedSession::getConnectedMicros));
+        return ordered;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the capture");
+    }
+}
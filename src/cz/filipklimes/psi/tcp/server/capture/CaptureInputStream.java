@@ -0,0 +1,77 @@
+package cz.filipklimes.psi.tcp.server.capture;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream of a session which passes everything it reads to the {@link TrafficCapture}.
+ *
+ * @author klimesf
+ */
+class CaptureInputStream extends FilterInputStream {
+
+    private final TrafficCapture capture;
+    private final int clientNumber;
+
+    /**
+     * Has the end of the input been recorded?
+     */
+    private boolean ended = false;
+
+    /**
+     * @param in           Input stream from the robot.
+     * @param capture      The capture.
+     * @param clientNumber Client's number.
+     */
+    CaptureInputStream(InputStream in, TrafficCapture capture, int clientNumber) {
+        super(in);
+        this.capture = capture;
+        this.clientNumber = clientNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b < 0) {
+            this.end();
+        } else {
+            this.capture.received(this.clientNumber, new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = this.in.read(b, off, len);
+        if (read < 0) {
+            this.end();
+        } else {
+            this.capture.received(this.clientNumber, b, off, read);
+        }
+        return read;
+    }
+
+    /**
+     * Skipped bytes would be missing in the capture, they are read instead.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(n, 8192)];
+        int read = this.read(skipped, 0, skipped.length);
+        return Math.max(read, 0);
+    }
+
+    private void end() {
+        if (!this.ended) {
+            this.ended = true;
+            this.capture.ended(this.clientNumber);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cz.filipklimes.psi.tcp.server.capture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input of one session read back from a capture file.
+ *
+ * @author klimesf
+ */
+public class CapturedSession {
+
+    /**
+     * Bytes which arrived from the robot at once.
+     */
+    public static class Chunk {
+
+        private final long micros;
+        private final byte[] data;
+
+        Chunk(long micros, byte[] data) {
+            this.micros = micros;
+            this.data = data;
+        }
+
+        /**
+         * @return Microseconds since the start of the capture.
+         */
+        public long getMicros() {
+            return micros;
+        }
+
+        /**
+         * @return The bytes.
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private final int clientNumber;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long connectedMicros = -1;
+    private long endedMicros = -1;
+    private boolean lost = false;
+
+    CapturedSession(int clientNumber) {
+        this.clientNumber = clientNumber;
+    }
+
+    void connected(long micros) {
+        this.connectedMicros = micros;
+    }
+
+    void received(long micros, byte[] data) {
+        this.chunks.add(new Chunk(micros, data));
+    }
+
+    void ended(long micros) {
+        this.endedMicros = micros;
+    }
+
+    void lost() {
+        this.lost = true;
+    }
+
+    /**
+     * @return Client's number in the captured server.
+     */
+    public int getClientNumber() {
+        return clientNumber;
+    }
+
+    /**
+     * @return Microseconds since the start of the capture when the robot connected, the first chunk
+     * for a session which was already connected when the capture started.
+     */
+    public long getConnectedMicros() {
+        if (this.connectedMicros < 0 && !this.chunks.isEmpty()) {
+            return this.chunks.get(0).getMicros();
+        }
+        return Math.max(this.connectedMicros, 0);
+    }
+
+    /**
+     * @return The robot's input in the order it arrived.
+     */
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return Microseconds since the start of the capture when the robot's input ended,
+     * -1 if the server closed the session or the capture stopped first.
+     */
+    public long getEndedMicros() {
+        return endedMicros;
+    }
+
+    /**
+     * @return Were some records of the session dropped during the capture?
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * @return Number of the bytes the robot sent.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Chunk chunk : this.chunks) {
+            bytes += chunk.getData().length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,333 @@
+package cz.filipklimes.psi.tcp.server.capture;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the raw input of every session into an append-only file, for replaying it later with the replayer.
+ * <p>
+ * The sessions only copy the bytes they read into a queue and never wait for the disk, a single writer thread
+ * encodes the records into a buffered stream. The queue is bounded by the bytes it holds, when a record does not fit
+ * it is dropped and its session is marked as lost, so the replayer skips it rather than sending a damaged session.
+ * <p>
+ * The file starts with the magic number, the version and the wall-clock time of the start in milliseconds. Then
+ * follow the records of all sessions interleaved, each of them a type byte, the client number and the microseconds
+ * since the start as unsigned varints, and for {@link #RECEIVED} the length as a varint followed by the bytes.
+ *
+ * @author klimesf
+ */
+public class TrafficCapture {
+
+    static final int MAGIC = 0x52434150; // "RCAP"
+    static final int VERSION = 1;
+
+    /**
+     * A robot connected.
+     */
+    static final int CONNECTED = 1;
+
+    /**
+     * Bytes arrived from a robot.
+     */
+    static final int RECEIVED = 2;
+
+    /**
+     * The robot's input ended.
+     */
+    static final int ENDED = 3;
+
+    /**
+     * Some records of the session were dropped.
+     */
+    static final int LOST = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How long the writer waits for a record before it flushes the buffered ones.
+     */
+    private static final long FLUSH_MILLIS = 100;
+
+    /**
+     * Bytes a record takes in the queue on top of its data.
+     */
+    private static final int RECORD_OVERHEAD = 32;
+
+    private final BlockingQueue<Record> queue;
+    private final long queueCapacity;
+
+    /**
+     * Bytes of the records in the queue.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+
+    /**
+     * Sessions with dropped records not yet reported in the file.
+     */
+    private final Set<Integer> lost = ConcurrentHashMap.newKeySet();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Sessions reported as lost, owned by the writer.
+     */
+    private final Set<Integer> reported = new HashSet<>();
+
+    private boolean closed = false;
+
+    /**
+     * @param file          File of the capture, replaced if it exists, null disables the capture.
+     * @param queueCapacity Bytes of the records waiting for the writer before new ones are dropped.
+     * @throws UncheckedIOException If the file could not be created.
+     */
+    public TrafficCapture(Path file, long queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        if (file == null) {
+            this.queue = null;
+            this.out = null;
+            return;
+        }
+        this.queue = new LinkedBlockingQueue<>();
+        try {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(System.currentTimeMillis());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not create capture file " + file, ex);
+        }
+    }
+
+    /**
+     * Starts the writer, which flushes the records on shutdown too. Does nothing if the capture is disabled.
+     */
+    public void start() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        Thread writer = new Thread(this::write, "capture-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "capture-flush"));
+    }
+
+    /**
+     * @return Is the traffic captured?
+     */
+    public boolean isEnabled() {
+        return this.queue != null;
+    }
+
+    /**
+     * Wraps the input stream of a session, so everything read from it is captured.
+     *
+     * @param clientNumber Client's number.
+     * @param in           Input stream from the robot.
+     * @return The capturing stream, or the given one if the capture is disabled.
+     */
+    public InputStream wrap(int clientNumber, InputStream in) {
+        return this.isEnabled() ? new CaptureInputStream(in, this, clientNumber) : in;
+    }
+
+    /**
+     * Records a robot which connected.
+     *
+     * @param clientNumber Client's number.
+     */
+    public void connected(int clientNumber) {
+        if (this.isEnabled()) {
+            this.offer(new Record(CONNECTED, clientNumber, this.now(), null));
+        }
+    }
+
+    /**
+     * Records bytes read from a robot.
+     *
+     * @param clientNumber Client's number.
+     * @param bytes        The bytes are copied, the array can be reused.
+     * @param offset       Offset of the bytes.
+     * @param length       Number of the bytes.
+     */
+    public void received(int clientNumber, byte[] bytes, int offset, int length) {
+        if (this.isEnabled() && length > 0) {
+            byte[] data = new byte[length];
+            System.arraycopy(bytes, offset, data, 0, length);
+            this.offer(new Record(RECEIVED, clientNumber, this.now(), data));
+        }
+    }
+
+    /**
+     * Records bytes read from a robot.
+     *
+     * @param clientNumber Client's number.
+     * @param buffer       The remaining bytes are copied, the buffer's position does not move.
+     */
+    public void received(int clientNumber, ByteBuffer buffer) {
+        if (this.isEnabled() && buffer.hasRemaining()) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            this.offer(new Record(RECEIVED, clientNumber, this.now(), data));
+        }
+    }
+
+    /**
+     * Records the end of a robot's input.
+     *
+     * @param clientNumber Client's number.
+     */
+    public void ended(int clientNumber) {
+        if (this.isEnabled()) {
+            this.offer(new Record(ENDED, clientNumber, this.now(), null));
+        }
+    }
+
+    /**
+     * Writes the records still waiting and closes the file.
+     */
+    public void close() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            try {
+                this.drain();
+                this.out.close();
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Could not write the capture: {}", ex);
+            }
+            this.closed = true;
+        }
+    }
+
+    private void offer(Record record) {
+        if (this.queuedBytes.addAndGet(record.size()) > this.queueCapacity) {
+            this.queuedBytes.addAndGet(-record.size());
+            this.lost.add(record.clientNumber);
+            this.dropped.incrementAndGet();
+            return;
+        }
+        this.queue.add(record);
+    }
+
+    /**
+     * Releases the bytes of a record taken off the queue.
+     *
+     * @param record The record, may be null.
+     * @return The record.
+     */
+    private Record dequeued(Record record) {
+        if (record != null) {
+            this.queuedBytes.addAndGet(-record.size());
+        }
+        return record;
+    }
+
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.start);
+    }
+
+    /**
+     * Writes the records as they come, flushing the stream whenever the queue runs empty.
+     */
+    private void write() {
+        try {
+            while (true) {
+                Record first = this.dequeued(this.queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS));
+                synchronized (this) {
+                    if (this.closed) {
+                        return;
+                    }
+                    if (first != null) {
+                        this.writeRecord(first);
+                    }
+                    this.drain();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not write the capture, capturing stopped: {}", ex);
+        }
+    }
+
+    /**
+     * Writes the waiting records and the lost sessions and flushes the stream.
+     */
+    private void drain() throws IOException {
+        Record record;
+        while ((record = this.dequeued(this.queue.poll())) != null) {
+            this.writeRecord(record);
+        }
+        for (Integer clientNumber : this.lost) {
+            this.lost.remove(clientNumber);
+            if (this.reported.add(clientNumber)) {
+                this.writeRecord(new Record(LOST, clientNumber, this.now(), null));
+            }
+        }
+        long dropped = this.dropped.getAndSet(0);
+        if (dropped > 0) {
+            Log.warn(Log.NO_CLIENT, "Capture queue full, records dropped: {}", dropped);
+        }
+        this.out.flush();
+    }
+
+    private void writeRecord(Record record) throws IOException {
+        this.out.writeByte(record.type);
+        writeVarint(this.out, record.clientNumber);
+        writeVarint(this.out, record.micros);
+        if (record.data != null) {
+            writeVarint(this.out, record.data.length);
+            this.out.write(record.data);
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * One record waiting for the writer.
+     */
+    private static class Record {
+
+        final int type;
+        final int clientNumber;
+        final long micros;
+        final byte[] data;
+
+        Record(int type, int clientNumber, long micros, byte[] data) {
+            this.type = type;
+            this.clientNumber = clientNumber;
+            this.micros = micros;
+            this.data = data;
+        }
+
+        int size() {
+            return RECORD_OVERHEAD + (this.data == null ? 0 : this.data.length);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package cz.filipklimes.psi.tcp.server.ingest;
+
+import cz.filipklimes.psi.tcp.server.metrics.Metrics;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the bandwidth for photo uploads among the sessions.
+ * <p>
+ * Every photo chunk a session receives is charged to the session's own bucket and to the global one.
+ * When its own bucket is in debt, the session stops reading until it is paid, so no upload exceeds its rate.
+ * When the global bucket is in debt, the session waits for its chunk at an equal share of the global rate,
+ * so all uploads together stay under the global cap and a session reading small chunks gets the same rate as one
+ * reading large chunks. Logins and INFO messages are never charged, so they are read as soon as they arrive
+ * while uploads wait.
+ *
+ * @author klimesf
+ */
+public class IngestScheduler {
+
+    /**
+     * Smallest burst of a bucket, one chunk read from the socket.
+     */
+    private static final long MIN_BURST = 64 * 1024;
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /**
+     * Nanoseconds a session still counts as uploading after it may read again.
+     */
+    private static final long UPLOADING_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Bucket shared by all sessions, null if the total rate is unlimited.
+     */
+    private final TokenBucket global;
+
+    /**
+     * Rate of all sessions together in bytes per second, 0 if unlimited.
+     */
+    private final long globalRate;
+
+    /**
+     * Rate of a single session in bytes per second, 0 if unlimited.
+     */
+    private final long sessionRate;
+
+    private final Metrics metrics;
+
+    /**
+     * Sessions sharing the global rate, some of which may have stopped uploading since the last prune.
+     */
+    private final List<IngestShare> uploads = new ArrayList<>();
+
+    /**
+     * Time in nanoseconds when the sessions which stopped uploading were last dropped from the uploads.
+     */
+    private long prunedAt = 0;
+
+    /**
+     * @param globalRate  Rate of all sessions together in bytes per second, 0 if unlimited.
+     * @param sessionRate Rate of a single session in bytes per second, 0 if unlimited.
+     * @param metrics     Metrics counting the waiting sessions.
+     */
+    public IngestScheduler(long globalRate, long sessionRate, Metrics metrics) {
+        this.global = globalRate > 0 ? new TokenBucket(globalRate, burst(globalRate)) : null;
+        this.globalRate = globalRate;
+        this.sessionRate = sessionRate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * The bucket holds a tenth of a second of its rate, at least one chunk,
+     * so waits rounded up to a tick of the timer are caught up.
+     */
+    private static long burst(long rate) {
+        return Math.max(rate / 10, MIN_BURST);
+    }
+
+    /**
+     * @return Bandwidth of a new session, null if the uploads are unlimited.
+     */
+    public IngestShare createShare() {
+        if (this.global == null && this.sessionRate == 0) {
+            return null;
+        }
+        TokenBucket bucket = this.sessionRate > 0 ? new TokenBucket(this.sessionRate, burst(this.sessionRate)) : null;
+        return new IngestShare(bucket);
+    }
+
+    /**
+     * Charges received photo bytes.
+     *
+     * @param share Bandwidth of the session, null if unlimited.
+     * @param bytes Number of received bytes.
+     * @return Nanoseconds the session should wait before it reads more photo bytes, 0 if it may go on.
+     */
+    public long charge(IngestShare share, int bytes) {
+        return share == null ? 0 : this.charge(share, bytes, System.nanoTime());
+    }
+
+    /**
+     * Charges received photo bytes at the given time.
+     * <p>
+     * A session waits out the debt of the global bucket only up to the time its own bytes take at an equal share
+     * of the global rate. Waiting out the whole debt, to which every upload contributes, would give each session
+     * the same number of reads rather than the same number of bytes.
+     *
+     * @param share Bandwidth of the session.
+     * @param bytes Number of received bytes.
+     * @param now   Current time in nanoseconds.
+     * @return Nanoseconds the session should wait before it reads more photo bytes, 0 if it may go on.
+     */
+    long charge(IngestShare share, int bytes, long now) {
+        long delay = share.getBucket() == null ? 0 : share.getBucket().take(bytes, now);
+        if (this.global == null) {
+            return delay;
+        }
+        synchronized (this) {
+            int uploads = this.countUploads(share, now);
+            long debt = this.global.take(bytes, now);
+            if (debt > 0) {
+                long fair = (long) (bytes * uploads * NANOS_PER_SECOND / this.globalRate);
+                delay = Math.max(delay, Math.min(debt, fair));
+            }
+            share.setUploadingUntil(now + delay + UPLOADING_GRACE_NANOS);
+        }
+        return delay;
+    }
+
+    /**
+     * Counts the sessions uploading now, including the given one. Guarded by the scheduler.
+     */
+    private int countUploads(IngestShare share, long now) {
+        if (!share.isCounted()) {
+            share.setCounted(true);
+            this.uploads.add(share);
+        }
+        if (now - this.prunedAt >= UPLOADING_GRACE_NANOS) {
+            this.prunedAt = now;
+            Iterator<IngestShare> uploads = this.uploads.iterator();
+            while (uploads.hasNext()) {
+                IngestShare upload = uploads.next();
+                if (upload != share && upload.getUploadingUntil() - now < 0) {
+                    upload.setCounted(false);
+                    uploads.remove();
+                }
+            }
+        }
+        return this.uploads.size();
+    }
+
+    /**
+     * Blocks the calling session's thread for the given time.
+     *
+     * @param nanos Nanoseconds to wait.
+     * @throws InterruptedIOException If the thread was interrupted.
+     */
+    public void await(long nanos) throws InterruptedIOException {
+        this.paused();
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload bandwidth");
+        } finally {
+            this.resumed();
+        }
+    }
+
+    /**
+     * A session stopped reading to wait for bandwidth.
+     */
+    public void paused() {
+        this.metrics.ingestPaused();
+    }
+
+    /**
+     * A session which waited for bandwidth reads again or was closed.
+     */
+    public void resumed() {
+        this.metrics.ingestResumed();
+    }
+}
@@ -0,0 +1,51 @@
+package cz.filipklimes.psi.tcp.server.ingest;
+
+/**
+ * Upload bandwidth of one session: its own bucket and its part in the global rate.
+ *
+ * @author klimesf
+ */
+public class IngestShare {
+
+    /**
+     * Bucket of the session, null if the rate of a session is unlimited.
+     */
+    private final TokenBucket bucket;
+
+    /**
+     * Time in nanoseconds until which the session counts as uploading, guarded by the scheduler.
+     */
+    private long uploadingUntil = 0;
+
+    /**
+     * Is the session among the scheduler's uploads? Guarded by the scheduler.
+     */
+    private boolean counted = false;
+
+    /**
+     * @param bucket Bucket of the session, null if the rate of a session is unlimited.
+     */
+    IngestShare(TokenBucket bucket) {
+        this.bucket = bucket;
+    }
+
+    TokenBucket getBucket() {
+        return bucket;
+    }
+
+    long getUploadingUntil() {
+        return uploadingUntil;
+    }
+
+    void setUploadingUntil(long uploadingUntil) {
+        this.uploadingUntil = uploadingUntil;
+    }
+
+    boolean isCounted() {
+        return counted;
+    }
+
+    void setCounted(boolean counted) {
+        this.counted = counted;
+    }
+}
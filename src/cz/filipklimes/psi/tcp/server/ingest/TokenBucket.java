@@ -0,0 +1,60 @@
+package cz.filipklimes.psi.tcp.server.ingest;
+
+/**
+ * Token bucket which lends: taking more bytes than it holds succeeds and leaves a debt,
+ * which tells the taker how long to wait before it takes again.
+ * <p>
+ * Takers who wait out their debt before taking again share the rate in the order they took,
+ * so concurrent uploads get equal shares of it.
+ *
+ * @author klimesf
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /**
+     * Refill rate in bytes per second.
+     */
+    private final long rate;
+
+    /**
+     * Maximum number of bytes the bucket holds, the largest burst it allows.
+     */
+    private final long capacity;
+
+    /**
+     * Bytes in the bucket, negative when in debt.
+     */
+    private double tokens;
+
+    /**
+     * Time in nanoseconds of the last refill.
+     */
+    private long refilledAt;
+
+    /**
+     * @param rate     Refill rate in bytes per second.
+     * @param capacity Maximum number of bytes the bucket holds.
+     */
+    public TokenBucket(long rate, long capacity) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes bytes from the bucket.
+     *
+     * @param bytes Number of bytes.
+     * @param now   Current time in nanoseconds.
+     * @return Nanoseconds until the debt is paid, 0 if there is none.
+     */
+    public synchronized long take(long bytes, long now) {
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.refilledAt) * this.rate / NANOS_PER_SECOND);
+        this.refilledAt = now;
+        this.tokens -= bytes;
+        return this.tokens >= 0 ? 0 : (long) (-this.tokens * NANOS_PER_SECOND / this.rate);
+    }
+}
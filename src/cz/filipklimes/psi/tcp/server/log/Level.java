@@ -0,0 +1,29 @@
+package cz.filipklimes.psi.tcp.server.log;
+
+/**
+ * Severity of a log event.
+ *
+ * @author klimesf
+ */
+public enum Level {
+    /**
+     * Details of the protocol, such as state changes and answers.
+     */
+    DEBUG,
+    /**
+     * Accepted messages and important events of a session.
+     */
+    INFO,
+    /**
+     * Robots misbehaving, timing out or disconnecting.
+     */
+    WARN,
+    /**
+     * Failures of the server.
+     */
+    ERROR,
+    /**
+     * Nothing is logged.
+     */
+    OFF
+}
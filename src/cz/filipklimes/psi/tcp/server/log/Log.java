@@ -0,0 +1,271 @@
+package cz.filipklimes.psi.tcp.server.log;
+
+import java.io.PrintStream;
+
+/**
+ * Asynchronous logger of the server.
+ * <p>
+ * Logging captures the event into a lock-free ring buffer and returns, a background thread formats and prints it.
+ * The thread sleeps while there is nothing to print and is woken by the next event.
+ * Events below the configured level are rejected by a single comparison before anything is captured.
+ * The message may contain one {} which is replaced by the argument, a Throwable argument also prints its stack trace.
+ * Events of a client are prefixed with its number, DEBUG and INFO events go to the standard output,
+ * WARN and ERROR events to the standard error output. When the ring is full, events are dropped and counted.
+ *
+ * @author klimesf
+ */
+public final class Log {
+
+    /**
+     * Client number of events which do not belong to a client.
+     */
+    public static final int NO_CLIENT = 0;
+
+    private static final int CAPACITY = 16 * 1024;
+
+    private static final RingBuffer RING = new RingBuffer(CAPACITY);
+
+    private static volatile int threshold = Level.INFO.ordinal();
+
+    static {
+        Thread writer = new Thread(new Writer(), "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Writer::flushRemaining, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @param level Minimum level of the logged events.
+     */
+    public static void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    /**
+     * @param level The level.
+     * @return true if events of the level are logged.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    /**
+     * Logs a DEBUG event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     */
+    public static void debug(int clientNumber, String message) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            RING.publish(Level.DEBUG, clientNumber, message, LogEvent.ArgumentKind.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a DEBUG event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void debug(int clientNumber, String message, long argument) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            RING.publish(Level.DEBUG, clientNumber, message, LogEvent.ArgumentKind.NUMBER, argument, null);
+        }
+    }
+
+    /**
+     * Logs a DEBUG event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void debug(int clientNumber, String message, Object argument) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            RING.publish(Level.DEBUG, clientNumber, message, LogEvent.ArgumentKind.OBJECT, 0, argument);
+        }
+    }
+
+    /**
+     * Logs a INFO event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     */
+    public static void info(int clientNumber, String message) {
+        if (Level.INFO.ordinal() >= threshold) {
+            RING.publish(Level.INFO, clientNumber, message, LogEvent.ArgumentKind.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a INFO event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void info(int clientNumber, String message, long argument) {
+        if (Level.INFO.ordinal() >= threshold) {
+            RING.publish(Level.INFO, clientNumber, message, LogEvent.ArgumentKind.NUMBER, argument, null);
+        }
+    }
+
+    /**
+     * Logs a INFO event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void info(int clientNumber, String message, Object argument) {
+        if (Level.INFO.ordinal() >= threshold) {
+            RING.publish(Level.INFO, clientNumber, message, LogEvent.ArgumentKind.OBJECT, 0, argument);
+        }
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     */
+    public static void warn(int clientNumber, String message) {
+        if (Level.WARN.ordinal() >= threshold) {
+            RING.publish(Level.WARN, clientNumber, message, LogEvent.ArgumentKind.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void warn(int clientNumber, String message, long argument) {
+        if (Level.WARN.ordinal() >= threshold) {
+            RING.publish(Level.WARN, clientNumber, message, LogEvent.ArgumentKind.NUMBER, argument, null);
+        }
+    }
+
+    /**
+     * Logs a WARN event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void warn(int clientNumber, String message, Object argument) {
+        if (Level.WARN.ordinal() >= threshold) {
+            RING.publish(Level.WARN, clientNumber, message, LogEvent.ArgumentKind.OBJECT, 0, argument);
+        }
+    }
+
+    /**
+     * Logs a ERROR event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     */
+    public static void error(int clientNumber, String message) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            RING.publish(Level.ERROR, clientNumber, message, LogEvent.ArgumentKind.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a ERROR event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void error(int clientNumber, String message, long argument) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            RING.publish(Level.ERROR, clientNumber, message, LogEvent.ArgumentKind.NUMBER, argument, null);
+        }
+    }
+
+    /**
+     * Logs a ERROR event.
+     *
+     * @param clientNumber Number of the client, {@link #NO_CLIENT} if none.
+     * @param message      The message.
+     * @param argument     Argument replacing {} in the message.
+     */
+    public static void error(int clientNumber, String message, Object argument) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            RING.publish(Level.ERROR, clientNumber, message, LogEvent.ArgumentKind.OBJECT, 0, argument);
+        }
+    }
+
+    /**
+     * Formats and prints the captured events.
+     */
+    private static class Writer implements Runnable {
+
+        private static final StringBuilder LINE = new StringBuilder(256);
+
+        @Override
+        public void run() {
+            while (true) {
+                if (flushRemaining() == 0) {
+                    RING.await();
+                }
+            }
+        }
+
+        /**
+         * Prints all captured events.
+         *
+         * @return Number of printed events.
+         */
+        static synchronized int flushRemaining() {
+            int printed = RING.drain(Writer::print);
+            long dropped = RING.takeDropped();
+            if (dropped > 0) {
+                System.err.printf("Log buffer full, %d events dropped.\n", dropped);
+            }
+            if (printed > 0) {
+                System.out.flush();
+                System.err.flush();
+            }
+            return printed;
+        }
+
+        private static void print(LogEvent event) {
+            StringBuilder line = LINE;
+            line.setLength(0);
+            if (event.clientNumber != NO_CLIENT) {
+                line.append('[').append(event.clientNumber).append("]: ");
+            }
+
+            String message = event.message;
+            int placeholder = event.argumentKind == LogEvent.ArgumentKind.NONE ? -1 : message.indexOf("{}");
+            if (placeholder < 0) {
+                line.append(message);
+            } else {
+                line.append(message, 0, placeholder);
+                if (event.argumentKind == LogEvent.ArgumentKind.NUMBER) {
+                    line.append(event.numberArgument);
+                } else if (event.objectArgument instanceof Throwable) {
+                    line.append(((Throwable) event.objectArgument).getMessage());
+                } else {
+                    line.append(event.objectArgument);
+                }
+                line.append(message, placeholder + 2, message.length());
+            }
+
+            PrintStream stream = event.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+            stream.println(line);
+            if (event.objectArgument instanceof Throwable) {
+                ((Throwable) event.objectArgument).printStackTrace(stream);
+            }
+        }
+    }
+}
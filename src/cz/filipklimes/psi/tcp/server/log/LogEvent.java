@@ -0,0 +1,32 @@
+package cz.filipklimes.psi.tcp.server.log;
+
+/**
+ * Slot of the {@link RingBuffer}, reused for many events.
+ * <p>
+ * The event keeps the message template and its argument unformatted,
+ * so capturing it allocates nothing.
+ *
+ * @author klimesf
+ */
+class LogEvent {
+
+    /**
+     * Sequence number guarding the slot, see {@link RingBuffer}.
+     */
+    volatile long sequence;
+
+    Level level;
+    int clientNumber;
+    String message;
+
+    /**
+     * Kind of the argument substituted for {} in the message.
+     */
+    ArgumentKind argumentKind;
+    long numberArgument;
+    Object objectArgument;
+
+    enum ArgumentKind {
+        NONE, NUMBER, OBJECT
+    }
+}
@@ -0,0 +1,136 @@
+package cz.filipklimes.psi.tcp.server.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring of preallocated log events with many producers and a single consumer.
+ * <p>
+ * A slot may be claimed by a producer when its sequence equals the claimed position,
+ * it holds a published event when its sequence is one past the position,
+ * and the consumer frees it by moving its sequence one lap ahead.
+ * An empty ring parks the consumer, the producers unpark it only when it is parked.
+ *
+ * @author klimesf
+ */
+class RingBuffer {
+
+    private final LogEvent[] events;
+    private final int mask;
+
+    /**
+     * Next position claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position read by the consumer, owned by the consumer thread.
+     */
+    private long head = 0;
+
+    /**
+     * Number of events dropped because the ring was full.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Consumer thread parked until an event is published, null while it is running.
+     */
+    private volatile Thread parkedConsumer;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.events = new LogEvent[size];
+        for (int i = 0; i < size; i++) {
+            this.events[i] = new LogEvent();
+            this.events[i].sequence = i;
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Publishes an event, drops it when the ring is full. Can be called from any thread.
+     */
+    void publish(Level level, int clientNumber, String message, LogEvent.ArgumentKind kind, long number, Object object) {
+        while (true) {
+            long position = this.tail.get();
+            LogEvent event = this.events[(int) (position & this.mask)];
+            long difference = event.sequence - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    event.level = level;
+                    event.clientNumber = clientNumber;
+                    event.message = message;
+                    event.argumentKind = kind;
+                    event.numberArgument = number;
+                    event.objectArgument = object;
+                    event.sequence = position + 1;
+                    this.wakeConsumer();
+                    return;
+                }
+            } else if (difference < 0) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+            // Another producer claimed the slot, try the next position
+        }
+    }
+
+    /**
+     * Passes the published events to the consumer. Called from the consumer thread only.
+     *
+     * @param consumer Consumer of the events, must not keep them.
+     * @return Number of consumed events.
+     */
+    int drain(Consumer<LogEvent> consumer) {
+        int consumed = 0;
+        while (true) {
+            LogEvent event = this.events[(int) (this.head & this.mask)];
+            if (event.sequence != this.head + 1) {
+                return consumed;
+            }
+            consumer.accept(event);
+            event.objectArgument = null;
+            event.sequence = this.head + this.events.length;
+            this.head++;
+            consumed++;
+        }
+    }
+
+    /**
+     * Parks the consumer until an event is published. Called from the consumer thread only.
+     * <p>
+     * The consumer announces itself before it checks the ring and the producers check for it after they publish,
+     * both through volatile fields, so either the consumer sees the event or the producer sees the consumer.
+     */
+    void await() {
+        this.parkedConsumer = Thread.currentThread();
+        if (this.isEmpty()) {
+            LockSupport.park(this);
+        }
+        this.parkedConsumer = null;
+    }
+
+    private boolean isEmpty() {
+        return this.events[(int) (this.head & this.mask)].sequence != this.head + 1;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = this.parkedConsumer;
+        if (consumer != null) {
+            this.parkedConsumer = null;
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return Number of events dropped since the last call.
+     */
+    long takeDropped() {
+        return this.dropped.getAndSet(0);
+    }
+}
@@ -0,0 +1,102 @@
+package cz.filipklimes.psi.tcp.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets, in the style of HdrHistogram.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets,
+ * so a recorded value is known with a relative error below 1/{@value #SUB_BUCKETS}.
+ *
+ * @author klimesf
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a value, negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return Sum of the recorded values.
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Returns the value below which the given fraction of the recorded values lies.
+     * The result is the upper bound of the bucket, recording and reading concurrently gives an approximation.
+     *
+     * @param quantile Fraction between 0 and 1.
+     * @return The value, 0 if nothing was recorded.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Values below {@value #SUB_BUCKETS} have a bucket each, larger values are bucketed
+     * by the position of their highest bit and the {@value #SUB_BUCKET_BITS} bits following it.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return group * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        long subBucket = bucket % SUB_BUCKETS;
+        if (group == 0) {
+            return subBucket;
+        }
+        long lowerBound = (SUB_BUCKETS + subBucket) << (group - 1);
+        long width = 1L << (group - 1);
+        return lowerBound + width - 1;
+    }
+}
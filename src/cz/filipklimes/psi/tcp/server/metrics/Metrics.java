@@ -0,0 +1,366 @@
+package cz.filipklimes.psi.tcp.server.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the server.
+ * <p>
+ * Recording is lock-free: counters are striped {@link LongAdder}s and histograms use atomic buckets,
+ * so the sessions never contend on a lock when they record.
+ * Latencies are recorded in nanoseconds.
+ *
+ * @author klimesf
+ */
+public class Metrics {
+
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder accepts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder fotoBytes = new LongAdder();
+    private final LongAdder fotoMessages = new LongAdder();
+    private final LongAdder checksumFailures = new LongAdder();
+    private final LongAdder infoMessages = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder syntaxErrors = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder resumptions = new LongAdder();
+    private final LongAdder fotoResumptions = new LongAdder();
+    private final LongAdder fotoBytesResumed = new LongAdder();
+    private final LongAdder ingestWaiting = new LongAdder();
+    private final LongAdder ingestPauses = new LongAdder();
+    private final LongAdder parkedSessions = new LongAdder();
+    private final LongAdder bufferHits = new LongAdder();
+    private final LongAdder bufferMisses = new LongAdder();
+    private final LongAdder buffersInUse = new LongAdder();
+    private final LongAdder bufferPoolBytes = new LongAdder();
+    private final Histogram timeToLogin = new Histogram();
+
+    /**
+     * Latency of each kind of message, keyed by its name.
+     */
+    private final Map<String, Histogram> messageLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * A robot connected.
+     */
+    public void sessionOpened() {
+        this.activeSessions.increment();
+    }
+
+    /**
+     * A robot's connection was closed.
+     */
+    public void sessionClosed() {
+        this.activeSessions.decrement();
+    }
+
+    /**
+     * The engine accepted a connection.
+     */
+    public void accepted() {
+        this.accepts.increment();
+    }
+
+    /**
+     * The engine rejected a connection over the admission limits.
+     */
+    public void rejected() {
+        this.rejections.increment();
+    }
+
+    /**
+     * @param bytes Number of photo bytes read from a robot.
+     */
+    public void fotoReceived(long bytes) {
+        this.fotoBytes.add(bytes);
+    }
+
+    /**
+     * @param checksumOkay Did the checksum of the photo match?
+     */
+    public void fotoAccepted(boolean checksumOkay) {
+        this.fotoMessages.increment();
+        if (!checksumOkay) {
+            this.checksumFailures.increment();
+        }
+    }
+
+    /**
+     * An INFO message was accepted.
+     */
+    public void infoAccepted() {
+        this.infoMessages.increment();
+    }
+
+    /**
+     * A session timed out.
+     */
+    public void timedOut() {
+        this.timeouts.increment();
+    }
+
+    /**
+     * A robot sent a message with invalid syntax.
+     */
+    public void syntaxError() {
+        this.syntaxErrors.increment();
+    }
+
+    /**
+     * A robot sent a wrong password.
+     */
+    public void loginFailed() {
+        this.loginFailures.increment();
+    }
+
+    /**
+     * A robot resumed its session with a token.
+     */
+    public void resumed() {
+        this.resumptions.increment();
+    }
+
+    /**
+     * A robot resumed a photo upload cut off by a disconnect.
+     *
+     * @param offset Number of bytes of the photo the robot did not have to send again.
+     */
+    public void fotoResumed(long offset) {
+        this.fotoResumptions.increment();
+        this.fotoBytesResumed.add(offset);
+    }
+
+    /**
+     * A session stopped reading its photo to wait for upload bandwidth.
+     */
+    public void ingestPaused() {
+        this.ingestWaiting.increment();
+        this.ingestPauses.increment();
+    }
+
+    /**
+     * A session waiting for upload bandwidth reads again or was closed.
+     */
+    public void ingestResumed() {
+        this.ingestWaiting.decrement();
+    }
+
+    /**
+     * An idle session was reduced to its parked record.
+     */
+    public void sessionParked() {
+        this.parkedSessions.increment();
+    }
+
+    /**
+     * A parked session was restored or closed.
+     */
+    public void sessionUnparked() {
+        this.parkedSessions.decrement();
+    }
+
+    /**
+     * A session borrowed an I/O buffer.
+     *
+     * @param hit      Was the buffer taken from the pool?
+     * @param capacity Capacity of the buffer taken from the pool.
+     */
+    public void bufferAcquired(boolean hit, int capacity) {
+        this.buffersInUse.increment();
+        if (hit) {
+            this.bufferHits.increment();
+            this.bufferPoolBytes.add(-capacity);
+        } else {
+            this.bufferMisses.increment();
+        }
+    }
+
+    /**
+     * A session returned an I/O buffer.
+     *
+     * @param pooled   Was the buffer kept in the pool?
+     * @param capacity Capacity of the buffer.
+     */
+    public void bufferReleased(boolean pooled, int capacity) {
+        this.buffersInUse.decrement();
+        if (pooled) {
+            this.bufferPoolBytes.add(capacity);
+        }
+    }
+
+    /**
+     * @param nanos Time from the connection to the accepted password.
+     */
+    public void loggedIn(long nanos) {
+        this.timeToLogin.record(nanos);
+    }
+
+    /**
+     * @param message Name of the message, e.g. INFO.
+     * @param nanos   Time from the first byte of the message to its answer.
+     */
+    public void messageAnswered(String message, long nanos) {
+        Histogram histogram = this.messageLatencies.get(message);
+        if (histogram == null) {
+            histogram = this.messageLatencies.computeIfAbsent(message, key -> new Histogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * @return Number of connected robots.
+     */
+    public long getActiveSessions() {
+        return this.activeSessions.sum();
+    }
+
+    /**
+     * @return Number of accepted connections.
+     */
+    public long getAccepts() {
+        return this.accepts.sum();
+    }
+
+    /**
+     * @return Number of connections rejected over the admission limits.
+     */
+    public long getRejections() {
+        return this.rejections.sum();
+    }
+
+    /**
+     * @return Number of received photo bytes.
+     */
+    public long getFotoBytes() {
+        return this.fotoBytes.sum();
+    }
+
+    /**
+     * @return Number of accepted FOTO messages.
+     */
+    public long getFotoMessages() {
+        return this.fotoMessages.sum();
+    }
+
+    /**
+     * @return Number of FOTO messages with a bad checksum.
+     */
+    public long getChecksumFailures() {
+        return this.checksumFailures.sum();
+    }
+
+    /**
+     * @return Number of accepted INFO messages.
+     */
+    public long getInfoMessages() {
+        return this.infoMessages.sum();
+    }
+
+    /**
+     * @return Number of timed out sessions.
+     */
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    /**
+     * @return Number of messages with invalid syntax.
+     */
+    public long getSyntaxErrors() {
+        return this.syntaxErrors.sum();
+    }
+
+    /**
+     * @return Number of wrong passwords.
+     */
+    public long getLoginFailures() {
+        return this.loginFailures.sum();
+    }
+
+    /**
+     * @return Number of sessions resumed with a token.
+     */
+    public long getResumptions() {
+        return this.resumptions.sum();
+    }
+
+    /**
+     * @return Number of resumed photo uploads.
+     */
+    public long getFotoResumptions() {
+        return this.fotoResumptions.sum();
+    }
+
+    /**
+     * @return Number of photo bytes the robots did not have to send again.
+     */
+    public long getFotoBytesResumed() {
+        return this.fotoBytesResumed.sum();
+    }
+
+    /**
+     * @return Number of sessions waiting for upload bandwidth.
+     */
+    public long getIngestWaiting() {
+        return this.ingestWaiting.sum();
+    }
+
+    /**
+     * @return Number of times a session waited for upload bandwidth.
+     */
+    public long getIngestPauses() {
+        return this.ingestPauses.sum();
+    }
+
+    /**
+     * @return Number of idle sessions kept as parked records.
+     */
+    public long getParkedSessions() {
+        return this.parkedSessions.sum();
+    }
+
+    /**
+     * @return Number of I/O buffers taken from the pool.
+     */
+    public long getBufferHits() {
+        return this.bufferHits.sum();
+    }
+
+    /**
+     * @return Number of I/O buffers allocated because the pool had none.
+     */
+    public long getBufferMisses() {
+        return this.bufferMisses.sum();
+    }
+
+    /**
+     * @return Number of I/O buffers borrowed by the sessions.
+     */
+    public long getBuffersInUse() {
+        return this.buffersInUse.sum();
+    }
+
+    /**
+     * @return Number of bytes of the idle buffers kept in the pool.
+     */
+    public long getBufferPoolBytes() {
+        return this.bufferPoolBytes.sum();
+    }
+
+    /**
+     * @return Histogram of the time from the connection to the accepted password.
+     */
+    public Histogram getTimeToLogin() {
+        return this.timeToLogin;
+    }
+
+    /**
+     * @return Latency histograms keyed by the name of the message.
+     */
+    public Map<String, Histogram> getMessageLatencies() {
+        return new TreeMap<>(this.messageLatencies);
+    }
+}
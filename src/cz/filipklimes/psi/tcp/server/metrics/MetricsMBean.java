@@ -0,0 +1,154 @@
+package cz.filipklimes.psi.tcp.server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the {@link Metrics} through JMX.
+ *
+ * @author klimesf
+ */
+public class MetricsMBean implements MetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Metrics metrics;
+
+    public MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the bean in the platform MBean server as cz.filipklimes.psi.tcp.server:type=Metrics.
+     *
+     * @throws JMException If the bean could not be registered.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                this,
+                new ObjectName("cz.filipklimes.psi.tcp.server:type=Metrics")
+        );
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return this.metrics.getActiveSessions();
+    }
+
+    @Override
+    public long getAccepts() {
+        return this.metrics.getAccepts();
+    }
+
+    @Override
+    public long getRejections() {
+        return this.metrics.getRejections();
+    }
+
+    @Override
+    public long getFotoBytes() {
+        return this.metrics.getFotoBytes();
+    }
+
+    @Override
+    public long getFotoMessages() {
+        return this.metrics.getFotoMessages();
+    }
+
+    @Override
+    public long getChecksumFailures() {
+        return this.metrics.getChecksumFailures();
+    }
+
+    @Override
+    public long getInfoMessages() {
+        return this.metrics.getInfoMessages();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return this.metrics.getTimeouts();
+    }
+
+    @Override
+    public long getSyntaxErrors() {
+        return this.metrics.getSyntaxErrors();
+    }
+
+    @Override
+    public long getLoginFailures() {
+        return this.metrics.getLoginFailures();
+    }
+
+    @Override
+    public long getResumptions() {
+        return this.metrics.getResumptions();
+    }
+
+    @Override
+    public long getFotoResumptions() {
+        return this.metrics.getFotoResumptions();
+    }
+
+    @Override
+    public long getFotoBytesResumed() {
+        return this.metrics.getFotoBytesResumed();
+    }
+
+    @Override
+    public long getIngestWaiting() {
+        return this.metrics.getIngestWaiting();
+    }
+
+    @Override
+    public long getIngestPauses() {
+        return this.metrics.getIngestPauses();
+    }
+
+    @Override
+    public long getParkedSessions() {
+        return this.metrics.getParkedSessions();
+    }
+
+    @Override
+    public long getBufferHits() {
+        return this.metrics.getBufferHits();
+    }
+
+    @Override
+    public long getBufferMisses() {
+        return this.metrics.getBufferMisses();
+    }
+
+    @Override
+    public long getBuffersInUse() {
+        return this.metrics.getBuffersInUse();
+    }
+
+    @Override
+    public long getBufferPoolBytes() {
+        return this.metrics.getBufferPoolBytes();
+    }
+
+    @Override
+    public double getTimeToLoginP50Millis() {
+        return this.metrics.getTimeToLogin().getValueAtQuantile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTimeToLoginP99Millis() {
+        return this.metrics.getTimeToLogin().getValueAtQuantile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Double> getMessageLatencyP99Millis() {
+        Map<String, Double> latencies = new TreeMap<>();
+        this.metrics.getMessageLatencies().forEach(
+                (message, histogram) -> latencies.put(message, histogram.getValueAtQuantile(0.99) / NANOS_PER_MILLI)
+        );
+        return latencies;
+    }
+}
@@ -0,0 +1,60 @@
+package cz.filipklimes.psi.tcp.server.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link Metrics}. Latencies are in milliseconds.
+ *
+ * @author klimesf
+ */
+public interface MetricsMXBean {
+
+    long getActiveSessions();
+
+    long getAccepts();
+
+    long getRejections();
+
+    long getFotoBytes();
+
+    long getFotoMessages();
+
+    long getChecksumFailures();
+
+    long getInfoMessages();
+
+    long getTimeouts();
+
+    long getSyntaxErrors();
+
+    long getLoginFailures();
+
+    long getResumptions();
+
+    long getFotoResumptions();
+
+    long getFotoBytesResumed();
+
+    long getIngestWaiting();
+
+    long getIngestPauses();
+
+    long getParkedSessions();
+
+    long getBufferHits();
+
+    long getBufferMisses();
+
+    long getBuffersInUse();
+
+    long getBufferPoolBytes();
+
+    double getTimeToLoginP50Millis();
+
+    double getTimeToLoginP99Millis();
+
+    /**
+     * @return 99th percentile of the latency of each kind of message.
+     */
+    Map<String, Double> getMessageLatencyP99Millis();
+}
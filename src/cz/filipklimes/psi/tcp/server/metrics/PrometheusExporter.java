@@ -0,0 +1,111 @@
+package cz.filipklimes.psi.tcp.server.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serves the {@link Metrics} in the Prometheus text format on http://localhost:&lt;port&gt;/metrics.
+ *
+ * @author klimesf
+ */
+public class PrometheusExporter {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Metrics metrics;
+
+    public PrometheusExporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts the HTTP server on the loopback interface.
+     *
+     * @param port The port.
+     * @throws IOException If the server could not listen on the port.
+     */
+    public void start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = this.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return Current values of the metrics in the Prometheus text format.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(2048);
+        gauge(sb, "robot_active_sessions", "Number of connected robots.", this.metrics.getActiveSessions());
+        counter(sb, "robot_accepts_total", "Number of accepted connections.", this.metrics.getAccepts());
+        counter(sb, "robot_rejections_total", "Number of connections rejected over the admission limits.", this.metrics.getRejections());
+        counter(sb, "robot_foto_bytes_total", "Number of received photo bytes.", this.metrics.getFotoBytes());
+        counter(sb, "robot_foto_messages_total", "Number of accepted FOTO messages.", this.metrics.getFotoMessages());
+        counter(sb, "robot_checksum_failures_total", "Number of FOTO messages with a bad checksum.", this.metrics.getChecksumFailures());
+        counter(sb, "robot_info_messages_total", "Number of accepted INFO messages.", this.metrics.getInfoMessages());
+        counter(sb, "robot_timeouts_total", "Number of timed out sessions.", this.metrics.getTimeouts());
+        counter(sb, "robot_syntax_errors_total", "Number of messages with invalid syntax.", this.metrics.getSyntaxErrors());
+        counter(sb, "robot_login_failures_total", "Number of wrong passwords.", this.metrics.getLoginFailures());
+        counter(sb, "robot_resumptions_total", "Number of sessions resumed with a token.", this.metrics.getResumptions());
+        counter(sb, "robot_foto_resumptions_total", "Number of resumed photo uploads.", this.metrics.getFotoResumptions());
+        counter(sb, "robot_foto_bytes_resumed_total", "Number of photo bytes the robots did not have to send again.", this.metrics.getFotoBytesResumed());
+        gauge(sb, "robot_ingest_waiting_sessions", "Number of sessions waiting for upload bandwidth.", this.metrics.getIngestWaiting());
+        counter(sb, "robot_ingest_pauses_total", "Number of times a session waited for upload bandwidth.", this.metrics.getIngestPauses());
+        gauge(sb, "robot_parked_sessions", "Number of idle sessions kept as parked records.", this.metrics.getParkedSessions());
+        counter(sb, "robot_buffer_pool_hits_total", "Number of I/O buffers taken from the pool.", this.metrics.getBufferHits());
+        counter(sb, "robot_buffer_pool_misses_total", "Number of I/O buffers allocated because the pool had none.", this.metrics.getBufferMisses());
+        gauge(sb, "robot_buffers_in_use", "Number of I/O buffers borrowed by the sessions.", this.metrics.getBuffersInUse());
+        gauge(sb, "robot_buffer_pool_idle_bytes", "Number of bytes of the idle buffers kept in the pool.", this.metrics.getBufferPoolBytes());
+
+        header(sb, "robot_time_to_login_seconds", "Time from the connection to the accepted password.", "summary");
+        summary(sb, "robot_time_to_login_seconds", "", this.metrics.getTimeToLogin());
+
+        header(sb, "robot_message_latency_seconds", "Time from the first byte of a message to its answer.", "summary");
+        for (Map.Entry<String, Histogram> entry : this.metrics.getMessageLatencies().entrySet()) {
+            summary(sb, "robot_message_latency_seconds", "message=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, Histogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labels).append(separator)
+                    .append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getValueAtQuantile(quantile) / NANOS_PER_SECOND).append('\n');
+        }
+        String suffixLabels = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_sum").append(suffixLabels).append(' ')
+                .append(histogram.getSum() / NANOS_PER_SECOND).append('\n');
+        sb.append(name).append("_count").append(suffixLabels).append(' ')
+                .append(histogram.getCount()).append('\n');
+    }
+}
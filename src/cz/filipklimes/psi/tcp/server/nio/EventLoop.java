@@ -0,0 +1,202 @@
+package cz.filipklimes.psi.tcp.server.nio;
+
+import cz.filipklimes.psi.tcp.server.ParkedSession;
+import cz.filipklimes.psi.tcp.server.ServerContext;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Thread multiplexing many robot sessions over one selector.
+ *
+ * @author klimesf
+ */
+class EventLoop implements Runnable, Executor {
+
+    /**
+     * Size of the buffer the sessions read into.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+
+    /**
+     * Sessions accepted by the acceptor which wait for registration in the selector.
+     */
+    private final Queue<NioSession> registrations = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Tasks submitted from other threads, such as expired timeouts.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final ServerContext context;
+
+    /**
+     * Buffer shared by the sessions of the loop, a session decodes everything it reads before the next one reads.
+     * It is direct, so the channel reads into it without copying through a temporary buffer.
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    EventLoop(ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+    }
+
+    /**
+     * Hands a newly accepted channel over to the loop. May be called from any thread.
+     *
+     * @param channel      Accepted channel.
+     * @param clientNumber Number of the client.
+     */
+    void register(SocketChannel channel, int clientNumber) {
+        this.registrations.add(new NioSession(this, channel, clientNumber, this.context));
+        this.selector.wakeup();
+    }
+
+    /**
+     * Runs the task on the loop's thread. May be called from any thread.
+     *
+     * @param task The task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Runs the task of a session on the loop's thread, closing the session if the task fails.
+     * May be called from any thread.
+     *
+     * @param session Session the task belongs to.
+     * @param task    The task.
+     */
+    void execute(NioSession session, Runnable task) {
+        this.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                session.abort(ex);
+            }
+        });
+    }
+
+    /**
+     * Serves the sessions until the thread is interrupted.
+     * <p>
+     * Parked sessions are kept as {@link ParkedSession} records attached to their keys, a record is restored
+     * when its robot sends something and expired on the loop when the timer says a deadline has passed.
+     * <p>
+     * An unexpected exception closes only the session it came from, the loop goes on serving the others.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.selector.select();
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Selector failed: {}", ex);
+                break;
+            }
+
+            NioSession session;
+            while ((session = this.registrations.poll()) != null) {
+                try {
+                    session.start(this.selector, this.context.createSessionTimeouts(session::expire));
+                } catch (RuntimeException ex) {
+                    session.abort(ex);
+                }
+            }
+
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    Log.error(Log.NO_CLIENT, "Event loop task failed: {}", ex);
+                }
+            }
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioSession ready = null;
+                try {
+                    if (key.attachment() instanceof ParkedSession) {
+                        ParkedSession parked = (ParkedSession) key.attachment();
+                        parked.unwatch();
+                        ready = new NioSession(this, key, parked, this.context);
+                    } else {
+                        ready = (NioSession) key.attachment();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        ready.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        ready.onReadable(this.readBuffer);
+                    }
+                } catch (RuntimeException ex) {
+                    if (ready != null) {
+                        ready.abort(ex);
+                    } else {
+                        this.abort(key, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the channel of a parked session which could not be restored or expired.
+     *
+     * @param key Key of the channel.
+     * @param ex  The failure.
+     */
+    private void abort(SelectionKey key, RuntimeException ex) {
+        Log.error(Log.NO_CLIENT, "Parked session failed: {}", ex);
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException closeEx) {
+            Log.error(Log.NO_CLIENT, "Could not close the channel: {}", closeEx);
+        }
+    }
+
+    /**
+     * Keeps a parked record in place of its session and schedules its expiry.
+     *
+     * @param key    Key of the session's channel.
+     * @param parked Record of the session.
+     */
+    void park(SelectionKey key, ParkedSession parked) {
+        key.attach(parked);
+        parked.watch(this.context.getTimer(), () -> this.execute(() -> this.expire(key, parked)));
+    }
+
+    /**
+     * Closes a parked session whose deadline has passed, unless its robot has sent something meanwhile.
+     *
+     * @param key    Key of the session's channel.
+     * @param parked Record of the session.
+     */
+    private void expire(SelectionKey key, ParkedSession parked) {
+        if (key.isValid() && key.attachment() == parked) {
+            key.cancel();
+            try {
+                parked.expire(this.context);
+            } catch (RuntimeException ex) {
+                this.abort(key, ex);
+            }
+        }
+    }
+}
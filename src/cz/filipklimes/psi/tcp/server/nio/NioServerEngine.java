@@ -0,0 +1,133 @@
+package cz.filipklimes.psi.tcp.server.nio;
+
+import cz.filipklimes.psi.tcp.server.AdmissionControl;
+import cz.filipklimes.psi.tcp.server.Configuration;
+import cz.filipklimes.psi.tcp.server.Response;
+import cz.filipklimes.psi.tcp.server.ServerContext;
+import cz.filipklimes.psi.tcp.server.ServerEngine;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Engine which serves the robots from a fixed set of selector event loops instead of a thread per robot.
+ * <p>
+ * The calling thread and the other acceptors accept the connections and hand them over to the loops in round robin.
+ *
+ * @author klimesf
+ */
+public class NioServerEngine implements ServerEngine {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serve(ServerContext context) throws IOException {
+        Configuration configuration = context.getConfiguration();
+        int acceptors = configuration.getAcceptors();
+
+        // Bind all listeners first, so a failure is reported before any robot is served
+        ServerSocketChannel[] serverChannels = new ServerSocketChannel[acceptors];
+        for (int shard = 0; shard < acceptors; shard++) {
+            serverChannels[shard] = listen(configuration);
+        }
+
+        EventLoop[] eventLoops = new EventLoop[configuration.getEventLoops()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(context);
+            new Thread(eventLoops[i], "event-loop-" + i).start();
+        }
+
+        for (int shard = 1; shard < acceptors; shard++) {
+            ServerSocketChannel serverChannel = serverChannels[shard];
+            int first = shard + 1;
+            new Thread(() -> accept(serverChannel, first, acceptors, eventLoops, context), "acceptor-" + shard).start();
+        }
+        accept(serverChannels[0], 1, acceptors, eventLoops, context);
+    }
+
+    /**
+     * Opens a listening channel, shared with the other acceptors through SO_REUSEPORT if there are more of them.
+     *
+     * @param configuration Configuration of the server.
+     * @return The bound channel.
+     * @throws IOException If the channel could not be bound.
+     */
+    private static ServerSocketChannel listen(Configuration configuration) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        if (configuration.getAcceptors() > 1) {
+            if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverChannel.close();
+                throw new IOException("SO_REUSEPORT is not supported, use a single acceptor");
+            }
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverChannel.bind(new InetSocketAddress(configuration.getPort()), configuration.getAcceptBacklog());
+        return serverChannel;
+    }
+
+    /**
+     * Accepts the robots of one listening channel until the server shuts down.
+     * <p>
+     * The acceptors number their clients first, first + step, first + 2 * step, ...,
+     * so the numbers are unique across the acceptors without any shared counter.
+     * With as many event loops as a multiple of the acceptors, every acceptor feeds its own subset of the loops.
+     *
+     * @param serverChannel The listening channel.
+     * @param first         Number of the first client of this acceptor.
+     * @param step          Number of the acceptors.
+     * @param eventLoops    Event loops serving the robots.
+     * @param context       Shared services of the server.
+     */
+    private static void accept(
+            ServerSocketChannel serverChannel,
+            int first,
+            int step,
+            EventLoop[] eventLoops,
+            ServerContext context
+    ) {
+        AdmissionControl admissionControl = context.getAdmissionControl();
+
+        int clientNumber = first;
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                context.getMetrics().accepted();
+                if (!admissionControl.tryAdmit()) {
+                    reject(channel, context);
+                    continue;
+                }
+                eventLoops[Math.floorMod(clientNumber - 1, eventLoops.length)].register(channel, clientNumber);
+                clientNumber += step;
+            } catch (IOException ex) {
+                Log.error(Log.NO_CLIENT, "Accept failed.");
+            }
+        }
+    }
+
+    /**
+     * Answers 503 BUSY to a connection over the admission limits and closes it.
+     * The channel is still blocking, the answer fits into the empty socket buffer.
+     *
+     * @param channel The connection.
+     * @param context Shared services of the server.
+     */
+    private static void reject(SocketChannel channel, ServerContext context) {
+        context.getMetrics().rejected();
+        Log.debug(Log.NO_CLIENT, "Rejecting a robot, the server is busy.");
+        try {
+            channel.write(Response.BUSY.toByteBuffer());
+        } catch (IOException ex) {
+            // the robot is gone already
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not close the channel: {}", ex);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package cz.filipklimes.psi.tcp.server.nio;
+
+import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.ParkedSession;
+import cz.filipklimes.psi.tcp.server.Response;
+import cz.filipklimes.psi.tcp.server.ServerContext;
+import cz.filipklimes.psi.tcp.server.SessionTimeouts;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.log.Log;
+import cz.filipklimes.psi.tcp.server.protocol.ProtocolDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection of one robot served by an event loop.
+ * <p>
+ * The received bytes are pushed through a {@link ProtocolDecoder} as they arrive, so a session keeps
+ * no unprocessed input between reads.
+ * All methods are called from the thread of the owning event loop.
+ *
+ * @author klimesf
+ */
+class NioSession implements Closeable {
+
+    /**
+     * Bytes of unwritten answers above which the session stops reading from its robot.
+     */
+    private static final int READ_PENDING_LIMIT = 64 * 1024;
+
+    /**
+     * Bytes of unwritten answers above which the robot is disconnected, it does not read what it asked for.
+     */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private final EventLoop eventLoop;
+    private final SocketChannel channel;
+    private final ProtocolDecoder decoder;
+    private final SessionOutputStream output;
+    private final Client client;
+    private final ServerContext context;
+
+    private SelectionKey key;
+
+    /**
+     * Timeout phase and number of decoded messages when the deadlines were last moved.
+     */
+    private TimeoutPhase phase = TimeoutPhase.LOGIN;
+    private int messages = 0;
+
+    /**
+     * Number of things the session waits for before it reads again, the upload bandwidth and the photo store.
+     */
+    private int pauses = 0;
+
+    /**
+     * Has the robot's input ended? The session closes once the photo store has finished its photos.
+     */
+    private boolean inputEnded = false;
+
+    /**
+     * Should the channel be closed once the pending answers are written?
+     */
+    private boolean closeRequested = false;
+
+    /**
+     * Has the channel been closed?
+     */
+    private boolean closed = false;
+
+    NioSession(EventLoop eventLoop, SocketChannel channel, int clientNumber, ServerContext context) {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.decoder = new ProtocolDecoder();
+        this.output = new SessionOutputStream(this, context.getBufferPool());
+        this.client = new Client(this, clientNumber, null, this.output, context);
+        this.context = context;
+        this.context.getMetrics().sessionOpened();
+        this.context.getTrafficCapture().connected(clientNumber);
+    }
+
+    /**
+     * Restores a parked session whose robot sent something and takes its place in the selector.
+     *
+     * @param eventLoop Loop serving the session.
+     * @param key       Key of the channel in the loop's selector.
+     * @param parked    Record of the session.
+     * @param context   Shared services of the server.
+     */
+    NioSession(EventLoop eventLoop, SelectionKey key, ParkedSession parked, ServerContext context) {
+        this.eventLoop = eventLoop;
+        this.channel = parked.getChannel();
+        this.decoder = new ProtocolDecoder(ProtocolDecoder.Phase.COMMAND);
+        this.output = new SessionOutputStream(this, context.getBufferPool());
+        this.client = new Client(this, parked.getClientNumber(), null, this.output, context);
+        this.context = context;
+        this.key = key;
+        this.phase = TimeoutPhase.IDLE;
+        key.attach(this);
+        this.client.restore(parked, context.createSessionTimeouts(this::expire));
+    }
+
+    /**
+     * Registers the session in the selector and lets the server talk first.
+     *
+     * @param selector Selector of the event loop.
+     * @param timeouts Deadlines of the session.
+     */
+    void start(Selector selector, SessionTimeouts timeouts) {
+        try {
+            this.channel.configureBlocking(false);
+            this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException ex) {
+            Log.error(this.client.getClientNumber(), "Could not register the robot: {}", ex);
+            this.closeNow();
+            return;
+        }
+        this.client.setTimeouts(timeouts);
+        try {
+            this.client.getHandler().onConnect();
+            this.flush();
+        } catch (IOException ex) {
+            this.fail(ex);
+        }
+    }
+
+    /**
+     * Reads the bytes available in the channel and decodes them.
+     *
+     * @param buffer Buffer to read into, shared by the sessions of the event loop.
+     */
+    void onReadable(ByteBuffer buffer) {
+        int read;
+        buffer.clear();
+        try {
+            read = this.channel.read(buffer);
+        } catch (IOException ex) {
+            Log.warn(this.client.getClientNumber(), "Robot disconnected.");
+            this.closeNow();
+            return;
+        }
+
+        if (read < 0) {
+            // Answers to the messages decoded so far are still written
+            Log.warn(this.client.getClientNumber(), "Robot disconnected.");
+            this.context.getTrafficCapture().ended(this.client.getClientNumber());
+            this.client.getHandler().discard();
+            this.decoder.close();
+            this.inputEnded = true;
+            if (!this.client.getHandler().awaitPhotoStore(this::resumeLater)) {
+                this.pause();
+                return;
+            }
+            try {
+                this.close();
+            } catch (IOException ex) {
+                this.closeNow();
+            }
+            return;
+        }
+
+        buffer.flip();
+        this.context.getTrafficCapture().received(this.client.getClientNumber(), buffer);
+        try {
+            this.decoder.decode(buffer, this.client.getHandler());
+            if (!this.client.isClosed()) {
+                this.enterPhase();
+                this.flush();
+                long delay = this.client.getHandler().takeIngestDelay();
+                if (delay > 0 && !this.closed) {
+                    this.pause();
+                    this.context.getTimer().schedule(this::resumeLater, delay, TimeUnit.NANOSECONDS);
+                }
+                if (!this.closed && !this.client.getHandler().awaitPhotoStore(this::resumeLater)) {
+                    this.pause();
+                }
+                if (this.context.getConfiguration().isParkIdle()) {
+                    this.parkIfIdle();
+                }
+            }
+        } catch (IOException ex) {
+            this.fail(ex);
+        }
+    }
+
+    /**
+     * Writes the answers which did not fit into the socket buffer before.
+     */
+    void onWritable() {
+        try {
+            this.flush();
+        } catch (IOException ex) {
+            Log.warn(this.client.getClientNumber(), "Robot disconnected.");
+            this.closeNow();
+        }
+    }
+
+    /**
+     * Called from the timer thread when a deadline of the session passes.
+     */
+    void expire() {
+        this.eventLoop.execute(this, this::timeout);
+    }
+
+    /**
+     * Answers 502 TIMEOUT and closes the connection.
+     */
+    private void timeout() {
+        if (this.closed || this.closeRequested) {
+            return;
+        }
+        Log.warn(this.client.getClientNumber(), "Connection timed out.");
+        this.client.getHandler().discard();
+        this.decoder.close();
+        try {
+            Response.TIMEOUT.writeTo(this.output);
+            this.close();
+        } catch (IOException e) {
+            this.closeNow();
+        }
+    }
+
+    /**
+     * Moves the deadlines when the decoder finished a message or entered another phase,
+     * as the blocking engines do when they change the state.
+     */
+    private void enterPhase() {
+        TimeoutPhase phase;
+        switch (this.decoder.getPhase()) {
+            case LOGIN:
+            case PASSWORD:
+                phase = TimeoutPhase.LOGIN;
+                break;
+            case COMMAND:
+            case INFO:
+            case OFFSET_LENGTH:
+                phase = TimeoutPhase.IDLE;
+                break;
+            case CLOSED:
+                return;
+            default:
+                phase = TimeoutPhase.FOTO;
+        }
+        if (phase != this.phase || this.decoder.getMessages() != this.messages) {
+            this.phase = phase;
+            this.messages = this.decoder.getMessages();
+            this.client.enterPhase(phase);
+        }
+    }
+
+    /**
+     * Reduces the session to a parked record attached to its key when the robot is logged in
+     * and everything it sent has been decoded and answered.
+     */
+    private void parkIfIdle() {
+        if (this.closed || this.closeRequested || this.pauses > 0 || !this.decoder.isIdle() || !this.output.isEmpty()) {
+            return;
+        }
+        ParkedSession parked = this.client.park(this.channel);
+        if (parked != null) {
+            this.eventLoop.park(this.key, parked);
+        }
+    }
+
+    /**
+     * Stops reading from the robot until its photo upload may go on.
+     */
+    private void pause() {
+        if (this.pauses++ > 0) {
+            return;
+        }
+        this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+        this.context.getIngestScheduler().paused();
+    }
+
+    /**
+     * Resumes the session on its loop, called from any thread. Every pause is ended by one resume,
+     * which runs on this loop, so it cannot come before the pause.
+     */
+    private void resumeLater() {
+        this.eventLoop.execute(this, this::resume);
+    }
+
+    /**
+     * Answers the photos the store has finished meanwhile and reads from the robot again once nothing pauses
+     * the session.
+     */
+    private void resume() {
+        if (this.pauses == 0) {
+            return;
+        }
+        try {
+            if (this.client.getHandler().answerStoredPhotos()) {
+                this.flush();
+            }
+        } catch (IOException ex) {
+            this.fail(ex);
+            return;
+        }
+        if (this.pauses == 0 || --this.pauses > 0) {
+            return;
+        }
+        // The store may still be finishing a later photo, the robot may be waiting for its answer
+        if (!this.closed && !this.client.getHandler().awaitPhotoStore(this::resumeLater)) {
+            this.pauses++;
+            return;
+        }
+        this.context.getIngestScheduler().resumed();
+        if (this.inputEnded) {
+            try {
+                this.close();
+            } catch (IOException ex) {
+                this.closeNow();
+            }
+            return;
+        }
+        if (!this.closed && !this.closeRequested && this.output.pendingBytes() <= READ_PENDING_LIMIT) {
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void fail(IOException ex) {
+        if (ex instanceof SocketException || ex instanceof ClosedChannelException) {
+            Log.warn(this.client.getClientNumber(), "Robot disconnected.");
+        } else {
+            Log.error(this.client.getClientNumber(), "An I/O exception occurred: {}", ex);
+        }
+        this.closeNow();
+    }
+
+    /**
+     * Writes pending answers without blocking.
+     * <p>
+     * While too many answers wait for the robot, the session stops reading its messages,
+     * a robot which does not read its answers at all is disconnected.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        if (this.output.writeTo(this.channel)) {
+            if (this.closeRequested) {
+                this.closeNow();
+            } else {
+                this.key.interestOps(this.pauses > 0 ? 0 : SelectionKey.OP_READ);
+            }
+            return;
+        }
+        int pending = this.output.pendingBytes();
+        if (pending > MAX_PENDING_OUTPUT) {
+            Log.warn(this.client.getClientNumber(), "Robot does not read its answers, {} bytes pending.", pending);
+            this.closeNow();
+            return;
+        }
+        int ops = SelectionKey.OP_WRITE;
+        if (this.pauses == 0 && !this.closeRequested && pending <= READ_PENDING_LIMIT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        this.key.interestOps(ops);
+    }
+
+    /**
+     * Closes the connection once the pending answers are written.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closeRequested || this.closed) {
+            return;
+        }
+        this.closeRequested = true;
+        this.decoder.close();
+        this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+        this.flush();
+    }
+
+    /**
+     * Closes the session whose handling failed unexpectedly, the loop goes on serving the others.
+     *
+     * @param ex The failure.
+     */
+    void abort(RuntimeException ex) {
+        Log.error(this.client.getClientNumber(), "Session failed: {}", ex);
+        try {
+            this.closeNow();
+        } catch (RuntimeException closeEx) {
+            Log.error(this.client.getClientNumber(), "Could not close the failed session: {}", closeEx);
+        }
+    }
+
+    /**
+     * Closes the connection immediately.
+     */
+    private void closeNow() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.decoder.close();
+        if (this.key != null) {
+            this.key.cancel();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            Log.error(this.client.getClientNumber(), "Could not close the channel: {}", e);
+        }
+        this.client.cancelTimeouts();
+        this.client.getHandler().discard();
+        this.client.releaseAdmission();
+        this.output.release();
+        if (this.pauses > 0) {
+            this.pauses = 0;
+            this.context.getIngestScheduler().resumed();
+        }
+        this.context.getMetrics().sessionClosed();
+    }
+}
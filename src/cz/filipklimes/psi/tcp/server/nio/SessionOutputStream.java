@@ -0,0 +1,129 @@
+package cz.filipklimes.psi.tcp.server.nio;
+
+import cz.filipklimes.psi.tcp.server.buffer.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output stream which collects the answers for a non-blocking channel.
+ * <p>
+ * Flushing writes as much as the channel accepts, the rest is written when the channel becomes writable.
+ * The answers are collected in a buffer borrowed from the pool, which is returned once they are all written,
+ * so a session with nothing to send holds no buffer.
+ *
+ * @author klimesf
+ */
+class SessionOutputStream extends OutputStream {
+
+    private static final int INITIAL_SIZE = 512;
+
+    private final NioSession session;
+    private final BufferPool pool;
+
+    /**
+     * Answers not written to the channel yet, null if there are none.
+     */
+    private ByteBuffer pending;
+
+    SessionOutputStream(NioSession session, BufferPool pool) {
+        this.session = session;
+        this.pool = pool;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        this.pending.put((byte) b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        this.pending.put(b, off, len);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.session.flush();
+    }
+
+    /**
+     * Closing the client's output closes the whole session once the answers are written.
+     */
+    @Override
+    public void close() throws IOException {
+        this.session.close();
+    }
+
+    /**
+     * Writes pending bytes to the channel without blocking.
+     *
+     * @param channel The channel.
+     * @return true if all pending bytes were written.
+     * @throws IOException
+     */
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+        if (this.pending == null) {
+            return true;
+        }
+        this.pending.flip();
+        try {
+            channel.write(this.pending);
+        } finally {
+            this.pending.compact();
+        }
+        if (this.pending.position() > 0) {
+            return false;
+        }
+        this.release();
+        return true;
+    }
+
+    /**
+     * @return Bytes of the answers not written yet.
+     */
+    int pendingBytes() {
+        return this.pending == null ? 0 : this.pending.position();
+    }
+
+    /**
+     * @return Have all answers been written?
+     */
+    boolean isEmpty() {
+        return this.pending == null;
+    }
+
+    /**
+     * Returns the buffer to the pool, dropping the answers not written yet.
+     */
+    void release() {
+        if (this.pending != null) {
+            this.pool.release(this.pending);
+            this.pending = null;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (this.pending == null) {
+            this.pending = this.pool.acquire(Math.max(INITIAL_SIZE, length));
+        } else if (this.pending.remaining() < length) {
+            ByteBuffer grown = this.pool.acquire(Math.max(this.pending.capacity() * 2, this.pending.position() + length));
+            this.pending.flip();
+            grown.put(this.pending);
+            this.pool.release(this.pending);
+            this.pending = grown;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package cz.filipklimes.psi.tcp.server.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Resumable decoder of the robot protocol.
+ * <p>
+ * The received bytes are pushed in fragments of any size, every fragment is consumed completely
+ * and the decoder remembers where in a message it stopped, so a message split at any byte decodes
+ * the same as a message received at once. Photo bytes are passed to the listener without copying.
+ * <p>
+ * Not thread safe, a decoder belongs to one session.
+ *
+ * @author klimesf
+ */
+public class ProtocolDecoder {
+
+    /**
+     * Part of the protocol the decoder expects next.
+     */
+    public enum Phase {
+        LOGIN, PASSWORD, COMMAND, INFO, OFFSET_LENGTH, RESUME_LENGTH, RESUME_OFFSET, FOTO_LENGTH, FOTO_DATA,
+        FOTO_CHECKSUM, CLOSED
+    }
+
+    private static final byte[] INFO = {'I', 'N', 'F', 'O', ' '};
+    private static final byte[] FOTO = {'F', 'O', 'T', 'O', ' '};
+    private static final byte[] TOKN = {'T', 'O', 'K', 'N', '\r', '\n'};
+    private static final byte[] OFST = {'O', 'F', 'S', 'T', ' '};
+    private static final byte[] RSUM = {'R', 'S', 'U', 'M', ' '};
+    private static final byte[] ROBOT = {'r', 'o', 'b', 'o', 't'};
+    private static final byte[] CR = {'\r'};
+
+    private Phase phase = Phase.LOGIN;
+
+    /**
+     * Previous byte of the current line.
+     */
+    private int last = 0;
+
+    /**
+     * Number of bytes of the current login, command prefix or checksum read so far.
+     */
+    private int position = 0;
+
+    /**
+     * Byte sum of the login, the number being read or the checksum.
+     */
+    private long value = 0;
+
+    /**
+     * Number of digits of the number being read.
+     */
+    private int digits = 0;
+
+    /**
+     * Number of photo bytes still to come, the declared length while the offset of a resumed photo is read.
+     */
+    private int remaining = 0;
+
+    /**
+     * Do the login bytes read so far match "Robot"?
+     */
+    private boolean robotPrefix = true;
+
+    /**
+     * Command prefix being matched.
+     */
+    private byte[] command;
+
+    /**
+     * Number of completed messages.
+     */
+    private int messages = 0;
+
+    /**
+     * Number of messages whose start was reported, one more than the completed ones while a message is read.
+     */
+    private int started = 0;
+
+    /**
+     * Creates a decoder of a new connection, which starts with the login.
+     */
+    public ProtocolDecoder() {
+    }
+
+    /**
+     * Creates a decoder which continues a logged in session at a message boundary.
+     *
+     * @param phase Phase to start in, {@link Phase#COMMAND}.
+     */
+    public ProtocolDecoder(Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Decodes all bytes of the buffer and passes the messages to the listener.
+     *
+     * @param buffer   Received bytes, consumed completely unless the decoder is closed.
+     * @param listener Receives the messages.
+     * @throws IOException If the listener fails.
+     */
+    public void decode(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.started == this.messages && this.phase != Phase.CLOSED) {
+                this.started++;
+                listener.onMessageStart();
+            }
+            switch (this.phase) {
+                case LOGIN:
+                    this.decodeLogin(buffer, listener);
+                    break;
+                case PASSWORD:
+                    this.decodePassword(buffer, listener);
+                    break;
+                case COMMAND:
+                    this.decodeCommand(buffer, listener);
+                    break;
+                case INFO:
+                    this.decodeInfo(buffer, listener);
+                    break;
+                case OFFSET_LENGTH:
+                    this.decodeOffsetLength(buffer, listener);
+                    break;
+                case RESUME_LENGTH:
+                    this.decodeResumeLength(buffer, listener);
+                    break;
+                case RESUME_OFFSET:
+                    this.decodeResumeOffset(buffer, listener);
+                    break;
+                case FOTO_LENGTH:
+                    this.decodeFotoLength(buffer, listener);
+                    break;
+                case FOTO_DATA:
+                    this.decodeFotoData(buffer, listener);
+                    break;
+                case FOTO_CHECKSUM:
+                    this.decodeChecksum(buffer, listener);
+                    break;
+                case CLOSED:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Stops decoding, the following bytes are ignored.
+     */
+    public void close() {
+        this.phase = Phase.CLOSED;
+    }
+
+    /**
+     * @return Part of the protocol the decoder expects next.
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return Is the decoder between two messages of a logged in robot, with nothing of the next one read?
+     */
+    public boolean isIdle() {
+        return this.phase == Phase.COMMAND && this.position == 0;
+    }
+
+    /**
+     * @return Number of messages decoded completely, including the login and the password.
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    private void decodeLogin(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        // A '\r' which ended the previous fragment belongs to the login unless '\n' follows
+        if (this.last == '\r' && buffer.get(buffer.position()) != '\n') {
+            listener.onLoginData(ByteBuffer.wrap(CR));
+        }
+
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+
+            // Escape sequence met, the '\r' is neither part of the login nor of the password
+            if (this.last == '\r' && current == '\n') {
+                int end = buffer.position() - 2;
+                if (end > start) {
+                    listener.onLoginData(buffer.slice(start, end - start));
+                }
+                int calculatedPassword = (int) (this.value - '\r');
+                boolean passwordStartOkay = this.robotPrefix && this.position - 1 >= ROBOT.length;
+                this.messages++;
+                boolean resumed = listener.onLogin(calculatedPassword, passwordStartOkay);
+                if (this.phase != Phase.CLOSED) {
+                    this.next(resumed ? Phase.COMMAND : Phase.PASSWORD);
+                }
+                return;
+            }
+
+            if (this.position < ROBOT.length) {
+                this.robotPrefix &= (current | 0x20) == ROBOT[this.position];
+            }
+            this.position++;
+            this.value += current;
+            this.last = current;
+        }
+
+        // Hold back a trailing '\r' until it is known whether it ends the line
+        int end = buffer.position() - (this.last == '\r' ? 1 : 0);
+        if (end > start) {
+            listener.onLoginData(buffer.slice(start, end - start));
+        }
+    }
+
+    private void decodePassword(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+
+            // Escape sequence met
+            if (this.last == '\r' && current == '\n') {
+                long password = this.digits == 0 || this.value > Integer.MAX_VALUE ? -1 : this.value;
+                this.next(Phase.COMMAND);
+                this.messages++;
+                listener.onPassword(password);
+                return;
+            }
+            this.last = current;
+
+            // Other characters are skipped
+            if (current >= '0' && current <= '9' && this.value <= Integer.MAX_VALUE) {
+                this.value = this.value * 10 + (current - '0');
+                this.digits++;
+            }
+        }
+    }
+
+    private void decodeCommand(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+
+            // The first character decides which prefix the rest must match
+            if (this.position == 0) {
+                this.command = command(current);
+            }
+            if (this.command == null || current != this.command[this.position]) {
+                this.syntaxError(listener);
+                return;
+            }
+
+            if (++this.position == this.command.length) {
+                if (this.command == TOKN) {
+                    this.next(Phase.COMMAND);
+                    this.messages++;
+                    listener.onTokenRequest();
+                } else if (this.command == INFO) {
+                    this.next(Phase.INFO);
+                } else if (this.command == FOTO) {
+                    this.next(Phase.FOTO_LENGTH);
+                } else if (this.command == OFST) {
+                    this.next(Phase.OFFSET_LENGTH);
+                } else {
+                    this.next(Phase.RESUME_LENGTH);
+                }
+                return;
+            }
+        }
+    }
+
+    private void decodeInfo(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+
+            // Escape sequence met
+            if (this.last == '\r' && current == '\n') {
+                this.next(Phase.COMMAND);
+                this.messages++;
+                listener.onInfo();
+                return;
+            }
+            this.last = current;
+        }
+    }
+
+    private void decodeFotoLength(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        if (this.readNumber(buffer) < 0) {
+            return;
+        }
+        if (!this.isNumberValid()) {
+            this.syntaxError(listener);
+            return;
+        }
+        int length = (int) this.value;
+        this.next(length > 0 ? Phase.FOTO_DATA : Phase.FOTO_CHECKSUM);
+        this.remaining = length;
+        listener.onFotoStart(length);
+    }
+
+    private void decodeOffsetLength(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        // The number is followed by "\r\n"
+        if (this.last == 0) {
+            this.last = this.readNumber(buffer);
+            if (this.last < 0) {
+                this.last = 0;
+                return;
+            }
+            if (this.last != '\r' || !this.isNumberValid()) {
+                this.syntaxError(listener);
+                return;
+            }
+        }
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        if (buffer.get() != '\n') {
+            this.syntaxError(listener);
+            return;
+        }
+        int length = (int) this.value;
+        this.next(Phase.COMMAND);
+        this.messages++;
+        listener.onOffsetRequest(length);
+    }
+
+    private void decodeResumeLength(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        if (this.readNumber(buffer) < 0) {
+            return;
+        }
+        if (!this.isNumberValid()) {
+            this.syntaxError(listener);
+            return;
+        }
+        int length = (int) this.value;
+        this.next(Phase.RESUME_OFFSET);
+        this.remaining = length;
+    }
+
+    private void decodeResumeOffset(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        if (this.readNumber(buffer) < 0) {
+            return;
+        }
+        if (!this.isNumberValid() || this.value > this.remaining) {
+            this.syntaxError(listener);
+            return;
+        }
+        int length = this.remaining;
+        int offset = (int) this.value;
+        this.next(length > offset ? Phase.FOTO_DATA : Phase.FOTO_CHECKSUM);
+        this.remaining = length - offset;
+        listener.onFotoResume(length, offset);
+    }
+
+    /**
+     * Reads the digits of a number up to the first non-digit, which ends the number.
+     *
+     * @return The non-digit, -1 if the buffer ended first.
+     */
+    private int readNumber(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+            if (current < '0' || current > '9') {
+                return current;
+            }
+            if (this.value <= Integer.MAX_VALUE) {
+                this.value = this.value * 10 + (current - '0');
+            }
+            this.digits++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Has the number read some digits and does it fit an int?
+     */
+    private boolean isNumberValid() {
+        return this.digits > 0 && this.value <= Integer.MAX_VALUE;
+    }
+
+    private void syntaxError(ProtocolListener listener) throws IOException {
+        this.phase = Phase.CLOSED;
+        listener.onSyntaxError();
+    }
+
+    /**
+     * @param first The first character of a message.
+     * @return The message prefix starting with the character, null if there is none.
+     */
+    private static byte[] command(int first) {
+        switch (first) {
+            case 'I':
+                return INFO;
+            case 'F':
+                return FOTO;
+            case 'T':
+                return TOKN;
+            case 'O':
+                return OFST;
+            case 'R':
+                return RSUM;
+            default:
+                return null;
+        }
+    }
+
+    private void decodeFotoData(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        int length = Math.min(this.remaining, buffer.remaining());
+        ByteBuffer data = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        this.remaining -= length;
+        if (this.remaining == 0) {
+            this.next(Phase.FOTO_CHECKSUM);
+        }
+        listener.onFotoData(data);
+    }
+
+    private void decodeChecksum(ByteBuffer buffer, ProtocolListener listener) throws IOException {
+        while (buffer.hasRemaining()) {
+            int current = buffer.get() & 0xff;
+
+            // Every byte is joined as a hex number without leading zeros, as the server always did
+            this.value = (this.value << (current < 0x10 ? 4 : 8)) | current;
+
+            if (++this.position == 4) {
+                long checksum = this.value > Integer.MAX_VALUE ? -1 : this.value;
+                this.next(Phase.COMMAND);
+                this.messages++;
+                listener.onFotoEnd(checksum);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves to the next part of the protocol.
+     */
+    private void next(Phase phase) {
+        this.phase = phase;
+        this.last = 0;
+        this.position = 0;
+        this.value = 0;
+        this.digits = 0;
+    }
+}
@@ -0,0 +1,110 @@
+package cz.filipklimes.psi.tcp.server.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the messages of a robot as they are decoded.
+ * <p>
+ * The buffers passed to the listener are only valid during the call.
+ *
+ * @author klimesf
+ */
+public interface ProtocolListener {
+
+    /**
+     * The first byte of a login, a password or a command has arrived.
+     *
+     * @throws IOException
+     */
+    void onMessageStart() throws IOException;
+
+    /**
+     * A part of the login line, without the terminating "\r\n".
+     *
+     * @param data Bytes of the login.
+     * @throws IOException
+     */
+    void onLoginData(ByteBuffer data) throws IOException;
+
+    /**
+     * The login line is complete.
+     *
+     * @param calculatedPassword Byte sum of the login.
+     * @param passwordStartOkay  Does the login start with "Robot"?
+     * @return true if the robot resumed a session and skips the password, false if the password follows.
+     * @throws IOException
+     */
+    boolean onLogin(int calculatedPassword, boolean passwordStartOkay) throws IOException;
+
+    /**
+     * The password line is complete.
+     *
+     * @param password Digits of the line read as a number, -1 if there are none or they do not fit an int.
+     * @throws IOException
+     */
+    void onPassword(long password) throws IOException;
+
+    /**
+     * The robot asked for a token to resume its session with, "TOKN\r\n".
+     *
+     * @throws IOException
+     */
+    void onTokenRequest() throws IOException;
+
+    /**
+     * An INFO message is complete.
+     *
+     * @throws IOException
+     */
+    void onInfo() throws IOException;
+
+    /**
+     * A FOTO message starts.
+     *
+     * @param length Number of bytes of the photo.
+     * @throws IOException
+     */
+    void onFotoStart(int length) throws IOException;
+
+    /**
+     * The robot asked how many bytes of a photo the server received before a disconnect, "OFST &lt;length&gt;\r\n".
+     *
+     * @param length Length of the photo.
+     * @throws IOException
+     */
+    void onOffsetRequest(int length) throws IOException;
+
+    /**
+     * A FOTO message resumed at an offset starts, "RSUM &lt;length&gt; &lt;offset&gt; ", the rest of the photo
+     * and the checksum of the whole photo follow.
+     *
+     * @param length Length of the whole photo.
+     * @param offset Number of bytes the robot skips, at most the length.
+     * @throws IOException
+     */
+    void onFotoResume(int length, int offset) throws IOException;
+
+    /**
+     * A part of the photo.
+     *
+     * @param data Bytes of the photo.
+     * @throws IOException
+     */
+    void onFotoData(ByteBuffer data) throws IOException;
+
+    /**
+     * The FOTO message is complete.
+     *
+     * @param checksum Checksum sent by the robot, -1 if it does not fit an int.
+     * @throws IOException
+     */
+    void onFotoEnd(long checksum) throws IOException;
+
+    /**
+     * The robot sent something the protocol does not allow, nothing is decoded after it.
+     *
+     * @throws IOException
+     */
+    void onSyntaxError() throws IOException;
+}
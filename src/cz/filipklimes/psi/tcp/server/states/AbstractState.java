@@ -1,18 +1,41 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.log.Log;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * State which reports the parsed message to the client's {@link cz.filipklimes.psi.tcp.server.ProtocolHandler},
+ * which writes the answer, and moves on to the state its {@link #readMessage} chose.
+ */
 abstract public class AbstractState implements State {
 
     /**
-     * The client context.
+     * Leaves the answer buffered, it is flushed together with the answers to the messages the robot
+     * has already sent once the input has to wait for more of them.
+     */
+    @Override
+    public void printOutput(Client client, OutputStream output) throws IOException {
+        // do nothing
+    }
+
+    /**
+     * {@inheritDoc}
      */
-    protected Client context;
+    @Override
+    public void setNextState(Client client) throws IOException {
+        State next = client.getSession().getNextState();
+        Log.debug(client.getClientNumber(), "Changing state to: {}.", next);
+        client.setState(next);
+    }
 
     /**
-     * @param context
+     * @return Name of the state.
      */
-    public AbstractState(Client context) {
-        this.context = context;
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName();
     }
-}
\ No newline at end of file
+}
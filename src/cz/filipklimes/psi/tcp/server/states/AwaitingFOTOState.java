@@ -1,181 +1,203 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
-import cz.filipklimes.psi.tcp.server.PhotoFileHandler;
-import cz.filipklimes.psi.tcp.server.PhotoFileHandlerImpl;
+import cz.filipklimes.psi.tcp.server.ProtocolHandler;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.buffer.BufferPool;
+import cz.filipklimes.psi.tcp.server.ingest.IngestScheduler;
+import cz.filipklimes.psi.tcp.server.log.Log;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * @author klimesf
  */
 public class AwaitingFOTOState extends AbstractState {
 
-    private ChecksumStatus checksumStatus;
-    private PhotoFileHandler photoFileHandler;
+    static final AwaitingFOTOState INSTANCE = new AwaitingFOTOState();
 
     /**
-     * @param context
+     * Maximum number of photo bytes read from the socket and written to the file at once.
      */
-    public AwaitingFOTOState(Client context) {
-        super(context);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private AwaitingFOTOState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void readMessage(BufferedInputStream input) throws IOException {
-        int numberOfBytes;
-        long calculatedChecksum;
+    public void readMessage(Client client, InputStream input) throws IOException {
+        ProtocolHandler handler = client.getHandler();
+        client.getSession().setNextState(AwaitingMessageState.INSTANCE);
+
+        int numberOfBytes = readNumberOfBytes(client, input);
+        if (numberOfBytes < 0) {
+            handler.onSyntaxError();
+            return;
+        }
 
-        numberOfBytes = readNumberOfBytes(input);
-        if (numberOfBytes < 0) return;
+        handler.onFotoStart(numberOfBytes);
+        readRest(client, input, numberOfBytes, handler);
+    }
 
-        calculatedChecksum = readPhoto(input, numberOfBytes);
-        assertChecksum(input, calculatedChecksum);
+    /**
+     * Reads the photo and its checksum and passes them to the handler.
+     * A robot disconnecting in the middle of the photo is disconnected, so its upload can be resumed.
+     *
+     * @param client        Client sending the photo.
+     * @param input         Input stream.
+     * @param numberOfBytes Number of bytes of the photo still to come.
+     * @param handler       Handler saving the photo.
+     * @throws IOException
+     */
+    static void readRest(Client client, InputStream input, int numberOfBytes, ProtocolHandler handler) throws IOException {
+        if (!readPhoto(client, input, numberOfBytes, handler)) {
+            Log.warn(client.getClientNumber(), "Robot disconnected in the middle of a photo.");
+            client.disconnect();
+            return;
+        }
+        handler.onFotoEnd(readChecksum(client, input));
+
+        // The photo is answered once the store has written it
+        CountDownLatch stored = new CountDownLatch(1);
+        if (!handler.awaitPhotoStore(stored::countDown)) {
+            client.flushAnswers();
+            awaitPhotoStore(stored);
+        }
+        handler.answerStoredPhotos();
     }
 
     /**
-     * Reads info about how many bytes the photo will have.
+     * Reads info about how many bytes the photo will have, or another number of a photo message.
      *
-     * @param input Input stream.
+     * @param client Client sending the photo.
+     * @param input  Input stream.
      * @return Number of bytes or -1 if invalid data were provided.
      * @throws IOException
      */
-    private int readNumberOfBytes(BufferedInputStream input) throws IOException {
+    static int readNumberOfBytes(Client client, InputStream input) throws IOException {
 
         int current;
-        StringBuilder sb = new StringBuilder();
+        int digits = 0;
+        long numberOfBytes = 0;
 
-        // Get number of bytes
-        do {
-            // Read the input
-            current = input.read();
-
-            // Escape sequence met
-            if (current == ' ' || !Character.isDigit(current)) {
-                break;
+        // Get number of bytes, up to the first non-digit
+        while ((current = input.read()) >= '0' && current <= '9') {
+            if (numberOfBytes <= Integer.MAX_VALUE) {
+                numberOfBytes = numberOfBytes * 10 + (current - '0');
             }
+            digits++;
+        }
 
-            sb.append((char) current);
-
-        } while (current != -1);
-
-        try {
-            int numberOfBytes = Integer.parseInt(sb.toString().trim());
-            System.out.printf("[%d]: Length of FOTO will be: %d\n", this.context.getClientNumber(), numberOfBytes);
-            return numberOfBytes;
-        } catch (NumberFormatException ex) {
-            System.out.printf("[%d]: Could not parse FOTO byte length number: %s\n", this.context.getClientNumber(), sb.toString().trim());
-            this.checksumStatus = ChecksumStatus.INVALID_SYNTAX;
+        if (digits == 0 || numberOfBytes > Integer.MAX_VALUE) {
+            Log.warn(client.getClientNumber(), "Could not parse FOTO byte length number of {} digits.", digits);
             return -1;
         }
+        return (int) numberOfBytes;
     }
 
     /**
-     * Reads the photo and saves it to a file.
+     * Reads the photo in chunks and passes them to the handler.
      *
+     * @param client        Client sending the photo.
      * @param input         Input stream.
      * @param numberOfBytes Number of bytes of the photo.
-     * @return Calculated checksum of the photo.
+     * @param handler       Handler saving the photo.
+     * @return true if the whole photo was read, false if the stream ended before.
      * @throws IOException
      */
-    private long readPhoto(BufferedInputStream input, int numberOfBytes) throws IOException {
-
-        int counter = 0;
-        int current = 0;
-        long calculatedChecksum = 0;
-
-        // Prepare file
-        photoFileHandler = new PhotoFileHandlerImpl("foto" + this.context.getClientNumber() + ".png");
-
-        // Calculate checksum and save the photo to file
-        while (current != -1 && counter < numberOfBytes) {
-            // Read the input
-            current = input.read();
-            calculatedChecksum += current;
-            counter++;
-            photoFileHandler.append(current);
-        }
-        photoFileHandler.close();
-        return calculatedChecksum;
-    }
-
-    /**
-     * Reads and asserts the checksum of the photo.
-     *
-     * @param input              Input stream.
-     * @param calculatedChecksum Calculated checksum of the accepted photo.
-     * @throws IOException
-     */
-    private void assertChecksum(BufferedInputStream input, long calculatedChecksum) throws IOException {
-        int counter;
-        int current = 0;
-        long checksum;// Assert checksum
-        counter = 3;
-        StringBuilder checksumStringBuilder = new StringBuilder();
-
-        while (current != -1 && counter > -1) {
-            // Read the input
-            current = input.read();
-            checksumStringBuilder.append(Integer.toHexString(current));
-            System.out.printf("[%d]: Checksum byte: %d = %c.\n", this.context.getClientNumber(), current, (char) current);
-            counter--;
-        }
+    private static boolean readPhoto(
+            Client client,
+            InputStream input,
+            int numberOfBytes,
+            ProtocolHandler handler
+    ) throws IOException {
+        IngestScheduler scheduler = client.getServerContext().getIngestScheduler();
+
+        BufferPool pool = client.getServerContext().getBufferPool();
+
+        int remaining = numberOfBytes;
+        ByteBuffer buffer = pool.acquire(Math.min(numberOfBytes, CHUNK_SIZE));
+        byte[] chunk = buffer.array();
+        int offset = buffer.arrayOffset();
+        int capacity = buffer.capacity();
 
         try {
-            checksum = Integer.parseInt(checksumStringBuilder.toString().trim(), 16);
-        } catch (NumberFormatException ex) {
-            checksum = -1;
+            while (remaining > 0) {
+                // Read the input, chunks larger than the stream's buffer bypass it
+                int read = input.read(chunk, offset, Math.min(remaining, capacity));
+                if (read == -1) {
+                    return false;
+                }
+                remaining -= read;
+                buffer.clear().limit(read);
+                handler.onFotoData(buffer);
+
+                // Wait for the bandwidth before reading on
+                long delay = handler.takeIngestDelay();
+                if (delay > 0) {
+                    client.flushAnswers();
+                    scheduler.await(delay);
+                }
+
+                // Wait for the photo store before reading on
+                CountDownLatch ready = new CountDownLatch(1);
+                if (!handler.awaitPhotoStore(ready::countDown)) {
+                    client.flushAnswers();
+                    awaitPhotoStore(ready);
+                }
+            }
+            return true;
+        } finally {
+            pool.release(buffer);
         }
+    }
 
-        if (checksum == calculatedChecksum) {
-            this.checksumStatus = ChecksumStatus.OK;
-        } else {
-            this.checksumStatus = ChecksumStatus.BAD;
-            this.photoFileHandler.removeFile();
+    private static void awaitPhotoStore(CountDownLatch ready) throws InterruptedIOException {
+        try {
+            ready.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the photo store");
         }
-
-        System.out.printf("[%d]: Calculated checksum: %d.\n", this.context.getClientNumber(), calculatedChecksum);
-        System.out.printf("[%d]: Sent checksum: %d.\n", this.context.getClientNumber(), checksum);
-        System.out.printf("[%d]: Accepted checksum string: %s.\n", this.context.getClientNumber(), checksumStringBuilder.toString());
-        System.out.printf("[%d]: Accepted FOTO message.\n", this.context.getClientNumber());
     }
 
     /**
-     * {@inheritDoc}
+     * Reads the checksum of the photo.
+     * <p>
+     * Every byte of the checksum is taken as a hex number without leading zeros and the numbers are joined,
+     * as the server always did, so only the leading bytes may be smaller than 0x10.
+     *
+     * @param client Client sending the photo.
+     * @param input  Input stream.
+     * @return The checksum, -1 if it does not fit an int.
+     * @throws IOException
      */
-    @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        if (this.checksumStatus == ChecksumStatus.BAD) {
-            System.out.printf("[%d]: Sending 300 BAD CHECKSUM answer.\n", this.context.getClientNumber());
-            output.write("300 BAD CHECKSUM\r\n".getBytes());
-            output.flush();
-        } else if (this.checksumStatus == ChecksumStatus.INVALID_SYNTAX) {
-            System.out.printf("[%d]: Sending 501 SYNTAX ERROR answer.\n", this.context.getClientNumber());
-            output.write("501 SYNTAX ERROR\r\n".getBytes());
-            output.flush();
-            this.context.disconnect();
-        } else {
-            output.write("202 OK\r\n".getBytes());
-            output.flush();
-            System.out.printf("[%d]: Sending 202 OK answer.\n", this.context.getClientNumber());
+    private static long readChecksum(Client client, InputStream input) throws IOException {
+        long checksum = 0;
+        for (int i = 0; i < 4; i++) {
+            int current = input.read();
+            if (current == -1) {
+                // The end of the stream joins as "ffffffff"
+                checksum = (checksum << 32) | 0xffffffffL;
+                break;
+            }
+            checksum = (checksum << (current < 0x10 ? 4 : 8)) | current;
+            Log.debug(client.getClientNumber(), "Checksum byte: {}.", current);
         }
-    }
 
-    /**
-     * {@inheritDoc}
-     */
-    public void setNextState() throws IOException {
-        System.out.printf("[%d]: Changing state to: AwaitingMessageState.\n", this.context.getClientNumber());
-        this.context.setState(new AwaitingMessageState(this.context));
+        return checksum > Integer.MAX_VALUE ? -1 : checksum;
     }
 
     /**
-     * Status of the incoming message.
+     * {@inheritDoc}
      */
-    enum ChecksumStatus {
-        OK, INVALID_SYNTAX, BAD
+    @Override
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.FOTO;
     }
 }
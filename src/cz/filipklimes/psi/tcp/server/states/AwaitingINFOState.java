@@ -1,28 +1,26 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author klimesf
  */
 public class AwaitingINFOState extends AbstractState {
 
-    /**
-     * @param context
-     */
-    public AwaitingINFOState(Client context) {
-        super(context);
+    static final AwaitingINFOState INSTANCE = new AwaitingINFOState();
+
+    private AwaitingINFOState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void readMessage(BufferedInputStream input) throws IOException {
+    public void readMessage(Client client, InputStream input) throws IOException {
 
         int current;
         int last = 0;
@@ -40,25 +38,15 @@ public class AwaitingINFOState extends AbstractState {
 
         } while (current != -1);
 
-        System.out.printf("[%d]: Accepted INFO message.\n", this.context.getClientNumber());
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        output.write("202 OK\r\n".getBytes());
-        output.flush();
-        System.out.printf("[%d]: Sending 202 OK answer.\n", this.context.getClientNumber());
+        client.getHandler().onInfo();
+        client.getSession().setNextState(AwaitingMessageState.INSTANCE);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setNextState() throws IOException {
-        System.out.printf("[%d]: Changing state to: AwaitingMessageState.\n", this.context.getClientNumber());
-        this.context.setState(new AwaitingMessageState(this.context));
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.IDLE;
     }
 }
@@ -1,74 +1,82 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.ProtocolHandler;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author klimesf
  */
 class AwaitingLoginState extends AbstractState {
 
-    public AwaitingLoginState(Client context) {
-        super(context);
+    static final AwaitingLoginState INSTANCE = new AwaitingLoginState();
+
+    private AwaitingLoginState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void readMessage(BufferedInputStream input) throws IOException {
+    public void readMessage(Client client, InputStream input) throws IOException {
 
         int current;
         int last = 0;
         int calculatedPassword = 0;
-        int counter = 0;
-        StringBuilder sb = new StringBuilder(5);
+        int length = 0;
+        int kept = 0;
+        byte[] login = new byte[32];
 
         do {
             // Read the input
             current = input.read();
-
-            // Save the first 5 chars of the password
-            if (counter++ < 5) {
-                sb.append((char) current);
+            if (length == 0) {
+                client.getHandler().onMessageStart();
             }
 
             // Escape sequence met, subtract '\r' value from calculated password's value
             if (last == '\r' && current == '\n') {
                 calculatedPassword -= last;
+                length--;
                 break;
             }
 
+            // Save the beginning of the login, its first 5 chars are checked with the password,
+            // one more byte is kept for the '\r' which may end it
+            if (current != -1) {
+                if (kept < ProtocolHandler.LOGIN_LIMIT + 1) {
+                    if (kept == login.length) {
+                        login = Arrays.copyOf(login, kept * 2);
+                    }
+                    login[kept++] = (byte) current;
+                }
+                length++;
+            }
+
             // Iterate
             last = current;
             calculatedPassword += current;
 
         } while (current != -1);
 
-        this.context.setCalculatedPassword(calculatedPassword);
-        this.context.setPasswordStartOkay(sb.toString().equalsIgnoreCase("Robot"));
-        System.out.printf("[%d]: Calculated password: %d.\n", this.context.getClientNumber(), calculatedPassword);
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        output.write("201 PASSWORD\r\n".getBytes());
-        output.flush();
-        System.out.printf("[%d]: Sending 201 PASSWORD answer.\n", this.context.getClientNumber());
+        boolean passwordStartOkay = length >= 5
+                && new String(login, 0, 5, StandardCharsets.ISO_8859_1).equalsIgnoreCase("Robot");
+        client.getHandler().onLoginData(ByteBuffer.wrap(login, 0, Math.min(kept, length)));
+        boolean resumed = client.getHandler().onLogin(calculatedPassword, passwordStartOkay);
+        client.getSession().setNextState(resumed ? AwaitingMessageState.INSTANCE : AwaitingPasswordState.INSTANCE);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setNextState() throws IOException {
-        System.out.printf("[%d]: Changing state to: AwaitingPasswordState.\n", this.context.getClientNumber());
-        this.context.setState(new AwaitingPasswordState(this.context));
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.LOGIN;
     }
 }
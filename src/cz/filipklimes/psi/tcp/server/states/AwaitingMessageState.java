@@ -1,124 +1,90 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.log.Log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author klimesf
  */
-class AwaitingMessageState extends AbstractState {
+public class AwaitingMessageState extends AbstractState {
 
-    private Next next = Next.INVALID;
+    public static final AwaitingMessageState INSTANCE = new AwaitingMessageState();
 
-    public AwaitingMessageState(Client context) {
-        super(context);
+    private static final byte[] INFO = {'I', 'N', 'F', 'O', ' '};
+    private static final byte[] FOTO = {'F', 'O', 'T', 'O', ' '};
+    private static final byte[] TOKN = {'T', 'O', 'K', 'N', '\r', '\n'};
+    private static final byte[] OFST = {'O', 'F', 'S', 'T', ' '};
+    private static final byte[] RSUM = {'R', 'S', 'U', 'M', ' '};
+
+    private AwaitingMessageState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void readMessage(BufferedInputStream input) throws IOException {
-
-        int current;
-        StringBuilder sb = new StringBuilder();
-
-        current = input.read();
-        if (current != 'F' && current != 'I') {
-            System.out.printf("[%d]: Message 1st fail.\n", this.context.getClientNumber());
-            this.next = Next.INVALID;
-            return;
-        }
-        sb.append((char) current);
-
-        current = input.read();
-        if (current != 'O' && current != 'N') {
-            System.out.printf("[%d]: Message 2nd fail.\n", this.context.getClientNumber());
-            this.next = Next.INVALID;
-            return;
-        }
-        sb.append((char) current);
-
-        current = input.read();
-        if (current != 'T' && current != 'F') {
-            System.out.printf("[%d]: Message 3rd fail.\n", this.context.getClientNumber());
-            this.next = Next.INVALID;
+    public void readMessage(Client client, InputStream input) throws IOException {
+
+        // The first character decides which beginning the rest must match
+        int current = input.read();
+        client.getHandler().onMessageStart();
+        byte[] beginning;
+        State next;
+        if (current == 'I') {
+            beginning = INFO;
+            next = AwaitingINFOState.INSTANCE;
+        } else if (current == 'F') {
+            beginning = FOTO;
+            next = AwaitingFOTOState.INSTANCE;
+        } else if (current == 'T') {
+            beginning = TOKN;
+            next = this;
+        } else if (current == 'O') {
+            beginning = OFST;
+            next = AwaitingOFSTState.INSTANCE;
+        } else if (current == 'R') {
+            beginning = RSUM;
+            next = AwaitingRSUMState.INSTANCE;
+        } else {
+            this.invalid(client, 1);
             return;
         }
-        sb.append((char) current);
 
-        current = input.read();
-        if (current != 'O') {
-            System.out.printf("[%d]: Message 4th fail.\n", this.context.getClientNumber());
-            this.next = Next.INVALID;
-            return;
+        for (int i = 1; i < beginning.length; i++) {
+            current = input.read();
+            if (current != beginning[i]) {
+                this.invalid(client, i + 1);
+                return;
+            }
         }
-        sb.append((char) current);
 
-        current = input.read();
-        if (current != ' ') {
-            System.out.printf("[%d]: Message beginning does not have ending whitespace.\n", this.context.getClientNumber());
-            this.next = Next.INVALID;
+        // A token request is complete already
+        if (beginning == TOKN) {
+            client.getHandler().onTokenRequest();
+            client.getSession().setNextState(this);
             return;
         }
-        sb.append((char) current);
 
-        String beginning = sb.toString();
-
-        System.out.printf("[%d]: Accepted message beginning: %s.\n", this.context.getClientNumber(), beginning);
-
-        if (beginning.equals("FOTO ")) {
-            this.next = Next.FOTO;
-        } else if (beginning.equals("INFO ")) {
-            this.next = Next.INFO;
-        } else {
-            this.next = Next.INVALID;
-        }
+        // The message is answered once the next state has read its body
+        Log.debug(client.getClientNumber(), "Accepted message beginning: {}.", next);
+        client.getSession().setNextState(next);
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        if (this.next == Next.INVALID) {
-            output.write("501 SYNTAX ERROR\r\n".getBytes());
-            output.flush();
-            System.out.printf("[%d]: Sending 501 SYNTAX ERROR answer.\n", this.context.getClientNumber());
-            this.context.disconnect();
-        }
+    private void invalid(Client client, int position) throws IOException {
+        Log.debug(client.getClientNumber(), "Message beginning failed at character {}.", position);
+        client.getHandler().onSyntaxError();
+        client.getSession().setNextState(this);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setNextState() throws IOException {
-        switch (this.next) {
-            case INFO:
-                System.out.printf("[%d]: Changing state to: AwaitingINFOState.\n", this.context.getClientNumber());
-                this.context.setState(new AwaitingINFOState(this.context));
-                break;
-
-            case FOTO:
-                System.out.printf("[%d]: Changing state to: AwaitingFOTOState.\n", this.context.getClientNumber());
-                this.context.setState(new AwaitingFOTOState(this.context));
-                break;
-
-            case INVALID:
-                System.out.printf("[%d]: Changing state to: AwaitingMessageState.\n", this.context.getClientNumber());
-                this.context.setState(new AwaitingMessageState(this.context));
-                break;
-        }
-    }
-
-    /**
-     * What should the next state be?
-     */
-    enum Next {
-        INFO, FOTO, INVALID
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.IDLE;
     }
 }
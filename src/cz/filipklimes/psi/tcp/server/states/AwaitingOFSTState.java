@@ -0,0 +1,56 @@
+package cz.filipklimes.psi.tcp.server.states;
+
+import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the length of the photo whose received offset the robot asks for, "OFST &lt;length&gt;\r\n".
+ *
+ * @author klimesf
+ */
+class AwaitingOFSTState extends AbstractState {
+
+    static final AwaitingOFSTState INSTANCE = new AwaitingOFSTState();
+
+    private AwaitingOFSTState() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readMessage(Client client, InputStream input) throws IOException {
+        client.getSession().setNextState(AwaitingMessageState.INSTANCE);
+
+        int current;
+        int digits = 0;
+        long length = 0;
+
+        // Get the length, up to the first non-digit
+        while ((current = input.read()) >= '0' && current <= '9') {
+            if (length <= Integer.MAX_VALUE) {
+                length = length * 10 + (current - '0');
+            }
+            digits++;
+        }
+
+        if (digits == 0 || length > Integer.MAX_VALUE || current != '\r' || input.read() != '\n') {
+            Log.warn(client.getClientNumber(), "Could not parse OFST message.");
+            client.getHandler().onSyntaxError();
+            return;
+        }
+        client.getHandler().onOffsetRequest((int) length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.IDLE;
+    }
+}
@@ -1,37 +1,42 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.log.Log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author klimesf
  */
 class AwaitingPasswordState extends AbstractState {
 
-    private boolean passwordOkay = false;
+    static final AwaitingPasswordState INSTANCE = new AwaitingPasswordState();
 
-    public AwaitingPasswordState(Client context) {
-        super(context);
+    private AwaitingPasswordState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void readMessage(BufferedInputStream input) throws IOException {
+    public void readMessage(Client client, InputStream input) throws IOException {
 
-        System.out.printf("[%d]: Starting to read password.\n", this.context.getClientNumber());
+        Log.debug(client.getClientNumber(), "Starting to read password.");
 
         int last = 0;
         int current;
-        StringBuilder sb = new StringBuilder();
+        int length = 0;
+        int digits = 0;
+        long password = 0;
 
         do {
             // Read the input
             current = input.read();
+            if (length++ == 0) {
+                client.getHandler().onMessageStart();
+            }
 
             // Escape sequence met
             if (last == '\r' && current == '\n') {
@@ -40,45 +45,23 @@ class AwaitingPasswordState extends AbstractState {
 
             last = current;
 
-            if (Character.isDigit(current)) {
-                sb.append((char) current);
+            // Other characters are skipped, digits past an int overflow are still counted
+            if (current >= '0' && current <= '9' && password <= Integer.MAX_VALUE) {
+                password = password * 10 + (current - '0');
+                digits++;
             }
 
         } while (current != -1);
 
-        try {
-            int password = Integer.parseInt(sb.toString().trim());
-            System.out.printf("[%d]: Accepted password: %d.\n", this.context.getClientNumber(), password);
-            this.passwordOkay = this.context.getCalculatedPassword() == password && this.context.isPasswordStartOkay();
-        } catch (NumberFormatException ex) {
-            System.out.printf("[%d]: Could not parse password string.\n", this.context.getClientNumber());
-        }
-
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        if (this.passwordOkay) {
-            output.write("202 OK\r\n".getBytes());
-            output.flush();
-            System.out.printf("[%d]: Sending 202 OK answer.\n", this.context.getClientNumber());
-        } else {
-            output.write("500 LOGIN FAILED\r\n".getBytes());
-            output.flush();
-            System.out.printf("[%d]: Sending 500 LOGIN FAILED answer.\n", this.context.getClientNumber());
-            this.context.disconnect();
-        }
+        client.getHandler().onPassword(digits == 0 || password > Integer.MAX_VALUE ? -1 : password);
+        client.getSession().setNextState(AwaitingMessageState.INSTANCE);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setNextState() throws IOException {
-        System.out.printf("[%d]: Changing state to: AwaitingMessageState.\n", this.context.getClientNumber());
-        this.context.setState(new AwaitingMessageState(this.context));
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.LOGIN;
     }
 }
@@ -0,0 +1,54 @@
+package cz.filipklimes.psi.tcp.server.states;
+
+import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.ProtocolHandler;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a FOTO message resumed at an offset, "RSUM &lt;length&gt; &lt;offset&gt; " followed by the rest
+ * of the photo and the checksum of the whole photo.
+ *
+ * @author klimesf
+ */
+class AwaitingRSUMState extends AbstractState {
+
+    static final AwaitingRSUMState INSTANCE = new AwaitingRSUMState();
+
+    private AwaitingRSUMState() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readMessage(Client client, InputStream input) throws IOException {
+        ProtocolHandler handler = client.getHandler();
+        client.getSession().setNextState(AwaitingMessageState.INSTANCE);
+
+        int length = AwaitingFOTOState.readNumberOfBytes(client, input);
+        int offset = length < 0 ? -1 : AwaitingFOTOState.readNumberOfBytes(client, input);
+        if (offset < 0 || offset > length) {
+            Log.warn(client.getClientNumber(), "Could not parse RSUM message.");
+            handler.onSyntaxError();
+            return;
+        }
+
+        handler.onFotoResume(length, offset);
+        if (client.isClosed()) {
+            return;
+        }
+        AwaitingFOTOState.readRest(client, input, length - offset, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.FOTO;
+    }
+}
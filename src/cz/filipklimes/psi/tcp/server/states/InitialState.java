@@ -1,47 +1,36 @@
 package cz.filipklimes.psi.tcp.server.states;
 
 import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * @author klimesf
  */
 public class InitialState extends AbstractState {
 
-    /**
-     * @param context
-     */
-    public InitialState(Client context) {
-        super(context);
-    }
+    public static final InitialState INSTANCE = new InitialState();
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void readMessage(BufferedInputStream input) {
-        // do nothing
+    private InitialState() {
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void printOutput(BufferedOutputStream output) throws IOException {
-        output.write("200 LOGIN\r\n".getBytes());
-        output.flush();
-        System.out.printf("[%d]: Sending 200 LOGIN answer.\n", this.context.getClientNumber());
+    public void readMessage(Client client, InputStream input) throws IOException {
+        // Server talks first
+        client.getHandler().onConnect();
+        client.getSession().setNextState(AwaitingLoginState.INSTANCE);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void setNextState() {
-        System.out.printf("[%d]: Changing state to: AwaitingLoginState.\n", this.context.getClientNumber());
-        this.context.setState(new AwaitingLoginState(this.context));
+    public TimeoutPhase getTimeoutPhase() {
+        return TimeoutPhase.LOGIN;
     }
-}
\ No newline at end of file
+}
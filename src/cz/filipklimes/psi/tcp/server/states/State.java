@@ -1,17 +1,28 @@
 package cz.filipklimes.psi.tcp.server.states;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import cz.filipklimes.psi.tcp.server.Client;
+import cz.filipklimes.psi.tcp.server.TimeoutPhase;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
+ * State of the protocol. The states are shared by all clients, the data of a session lives in the client's
+ * {@link cz.filipklimes.psi.tcp.server.Session}.
+ *
  * @author klimesf
  */
 public interface State {
 
-    void readMessage(BufferedInputStream input) throws IOException;
+    void readMessage(Client client, InputStream input) throws IOException;
+
+    void printOutput(Client client, OutputStream output) throws IOException;
 
-    void printOutput(BufferedOutputStream output) throws IOException;
+    void setNextState(Client client) throws IOException;
 
-    void setNextState() throws IOException;
-}
\ No newline at end of file
+    /**
+     * @return Phase of the session whose timeout applies while the client is in this state.
+     */
+    TimeoutPhase getTimeoutPhase();
+}
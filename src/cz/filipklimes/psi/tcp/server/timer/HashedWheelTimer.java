@@ -0,0 +1,200 @@
+package cz.filipklimes.psi.tcp.server.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer which keeps the scheduled tasks in a hashed timing wheel.
+ * <p>
+ * Scheduling and cancelling is O(1) and all tasks share one worker thread, which runs the expired tasks.
+ * The tasks should therefore be short and must not block for long.
+ * The precision of the timer is one tick.
+ *
+ * @author klimesf
+ */
+public class HashedWheelTimer {
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+
+    /**
+     * Timeouts scheduled since the last tick, moved into the wheel by the worker.
+     */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timeouts cancelled since the last tick, removed from the wheel by the worker.
+     */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+
+    /**
+     * Creates and starts the timer.
+     *
+     * @param tickDuration Duration of one tick.
+     * @param unit         Unit of the tick duration.
+     * @param wheelSize    Number of buckets in the wheel, rounded up to a power of two.
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new Bucket[Math.max(size, 1)];
+        for (int i = 0; i < this.wheel.length; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = this.wheel.length - 1;
+        this.startTime = System.nanoTime();
+
+        this.worker = new Thread(new Worker(), "hashed-wheel-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay. Can be called from any thread.
+     *
+     * @param task  The task.
+     * @param delay The delay.
+     * @param unit  Unit of the delay.
+     * @return Handle which can cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay) - this.startTime;
+        Timeout timeout = new Timeout(this, task, deadline);
+        this.scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the worker thread. Pending tasks are not run.
+     */
+    public void stop() {
+        this.worker.interrupt();
+    }
+
+    void cancelled(Timeout timeout) {
+        this.cancelled.add(timeout);
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed to one slot of the wheel.
+     */
+    static class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == this.head) {
+                this.head = next;
+            }
+            if (timeout == this.tail) {
+                this.tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    Timeout next = this.remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel one tick at a time.
+     */
+    private class Worker implements Runnable {
+
+        private long tick = 0;
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                long deadline = this.waitForNextTick();
+                if (deadline < 0) {
+                    break;
+                }
+                this.removeCancelled();
+                this.transferScheduled();
+                HashedWheelTimer.this.wheel[(int) (this.tick & HashedWheelTimer.this.mask)].expire(deadline);
+                this.tick++;
+            }
+        }
+
+        private long waitForNextTick() {
+            long deadline = HashedWheelTimer.this.tickNanos * (this.tick + 1);
+            while (true) {
+                long now = System.nanoTime() - HashedWheelTimer.this.startTime;
+                long sleepMillis = (deadline - now + 999_999) / 1_000_000;
+                if (sleepMillis <= 0) {
+                    return now;
+                }
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = HashedWheelTimer.this.cancelled.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferScheduled() {
+            Timeout timeout;
+            while ((timeout = HashedWheelTimer.this.scheduled.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                long calculated = timeout.deadline / HashedWheelTimer.this.tickNanos;
+                timeout.remainingRounds = (calculated - this.tick) / HashedWheelTimer.this.wheel.length;
+                // Timeouts from the past go to the current tick
+                long ticks = Math.max(calculated, this.tick);
+                HashedWheelTimer.this.wheel[(int) (ticks & HashedWheelTimer.this.mask)].add(timeout);
+            }
+        }
+    }
+}
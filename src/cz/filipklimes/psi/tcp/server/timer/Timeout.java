@@ -0,0 +1,79 @@
+package cz.filipklimes.psi.tcp.server.timer;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of a task scheduled in the {@link HashedWheelTimer}.
+ *
+ * @author klimesf
+ */
+public class Timeout {
+
+    private static final int INITIAL = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+
+    /**
+     * Deadline in nanoseconds relative to the start of the timer.
+     */
+    final long deadline;
+
+    /**
+     * Number of wheel revolutions left before the timeout expires.
+     */
+    long remainingRounds;
+
+    /**
+     * Neighbours in the bucket, owned by the timer's worker thread.
+     */
+    Timeout next;
+    Timeout prev;
+    HashedWheelTimer.Bucket bucket;
+
+    private final AtomicInteger state = new AtomicInteger(INITIAL);
+
+    Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+        this.timer = timer;
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the task. Can be called from any thread.
+     *
+     * @return true if the task was cancelled, false if it has expired or was cancelled before.
+     */
+    public boolean cancel() {
+        if (!this.state.compareAndSet(INITIAL, CANCELLED)) {
+            return false;
+        }
+        this.timer.cancelled(this);
+        return true;
+    }
+
+    /**
+     * @return true if the task was cancelled.
+     */
+    public boolean isCancelled() {
+        return this.state.get() == CANCELLED;
+    }
+
+    /**
+     * Runs the task unless it was cancelled.
+     */
+    void expire() {
+        if (!this.state.compareAndSet(INITIAL, EXPIRED)) {
+            return;
+        }
+        try {
+            this.task.run();
+        } catch (RuntimeException ex) {
+            Log.error(Log.NO_CLIENT, "Timeout task failed: {}", ex);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package cz.filipklimes.psi.tcp.server.upload;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Photo bytes of one upload mirrored to the staging area, so the upload can go on after a disconnect.
+ * <p>
+ * Used by one session at a time. The file is opened on the first write or replay, the file I/O runs on the thread
+ * which writes the photo, which is not the session's thread when the photo store has writer threads.
+ *
+ * @author klimesf
+ */
+public class PartialUpload {
+
+    /**
+     * Size of the buffer the mirrored bytes are read back with.
+     */
+    private static final int REPLAY_CHUNK_SIZE = 64 * 1024;
+
+    private final String key;
+    private final Path path;
+
+    /**
+     * Channel of the file while the bytes are arriving, null before the first write and while the upload is suspended.
+     */
+    private FileChannel channel;
+
+    /**
+     * Number of bytes mirrored to the file.
+     */
+    private long received;
+
+    /**
+     * Checksum of the mirrored bytes, saved when the upload is suspended.
+     */
+    private long checksum = 0;
+
+    /**
+     * Time in nanoseconds when the upload was suspended.
+     */
+    private long suspendedAt;
+
+    /**
+     * Could not the file be written? A broken upload is not kept.
+     */
+    private boolean broken = false;
+
+    /**
+     * Should the upload be kept when its photo is removed? Set by the session when the robot disconnects.
+     */
+    private volatile boolean kept = false;
+
+    PartialUpload(String key, Path path) {
+        this.key = key;
+        this.path = path;
+    }
+
+    /**
+     * Mirrors the remaining bytes of the buffer, leaving its position as it is.
+     *
+     * @param data Photo bytes.
+     */
+    public void write(ByteBuffer data) {
+        if (this.broken) {
+            return;
+        }
+        ByteBuffer bytes = data.duplicate();
+        try {
+            FileChannel channel = this.channel();
+            while (bytes.hasRemaining()) {
+                this.received += channel.write(bytes);
+            }
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not mirror a partial upload to {}.", this.path);
+            this.broken = true;
+        }
+    }
+
+    /**
+     * Passes the mirrored bytes to the sink in chunks, valid during the call only.
+     *
+     * @param sink Receives the bytes.
+     * @throws IOException If the file could not be read.
+     */
+    public void replayTo(Consumer<ByteBuffer> sink) throws IOException {
+        FileChannel channel = this.channel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(REPLAY_CHUNK_SIZE, Math.max(this.received, 1)));
+        long position = 0;
+        while (position < this.received) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), this.received - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Partial upload " + this.path + " is shorter than " + this.received + " bytes");
+            }
+            position += read;
+            buffer.flip();
+            sink.accept(buffer);
+        }
+    }
+
+    /**
+     * Keeps the upload when its photo is removed, the robot disconnected in the middle of it.
+     * Called by the session before it removes the photo.
+     *
+     * @param checksum Checksum of the bytes received so far.
+     */
+    public void keep(long checksum) {
+        this.checksum = checksum;
+        this.kept = true;
+    }
+
+    /**
+     * Opens the file and moves to its end, on the first call.
+     */
+    private FileChannel channel() throws IOException {
+        if (this.channel == null) {
+            this.channel = FileChannel.open(
+                    this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+            );
+            this.channel.position(this.received);
+        }
+        return this.channel;
+    }
+
+    /**
+     * @return Number of bytes mirrored to the file.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return Checksum of the mirrored bytes, saved when the upload was suspended.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Closes the file until the upload is resumed.
+     *
+     * @throws IOException
+     */
+    void closeChannel() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * @return Should the upload be kept when its photo is removed?
+     */
+    public boolean isKept() {
+        return kept;
+    }
+
+    long getSuspendedAt() {
+        return suspendedAt;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * @param checksum Checksum of the mirrored bytes.
+     * @param now      Current time in nanoseconds.
+     */
+    void suspended(long checksum, long now) {
+        this.checksum = checksum;
+        this.suspendedAt = now;
+    }
+}
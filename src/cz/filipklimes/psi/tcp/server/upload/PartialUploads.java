@@ -0,0 +1,291 @@
+package cz.filipklimes.psi.tcp.server.upload;
+
+import cz.filipklimes.psi.tcp.server.log.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staging area of the photo uploads cut off by a disconnect.
+ * <p>
+ * Uploads of at least the minimum length are mirrored to a file while they arrive. When the robot disconnects
+ * in the middle of the photo, the file and the checksum of its bytes are kept under the robot's login and the
+ * declared length, so the robot can ask for the received offset and send only the rest.
+ * Kept uploads expire after their time to live and the oldest ones are evicted when they take more disk
+ * than the budget. Uploads being received are not counted towards the budget.
+ * <p>
+ * The kept uploads are only known to the running server, files left by a previous run are deleted on start.
+ * The files of dropped uploads are deleted by a background thread, so the sessions calling in from event loops
+ * only update the map.
+ *
+ * @author klimesf
+ */
+public class PartialUploads {
+
+    private static final String SUFFIX = ".part";
+
+    private final Path directory;
+    private final long minLength;
+    private final long timeToLive;
+    private final long budget;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Deletes the files of the dropped uploads.
+     */
+    private final Executor deleter;
+
+    /**
+     * Suspended uploads by key, in the order they were suspended.
+     */
+    private final LinkedHashMap<String, PartialUpload> suspended = new LinkedHashMap<>();
+
+    /**
+     * Number of bytes of the suspended uploads.
+     */
+    private long suspendedBytes = 0;
+
+    /**
+     * @param directory         Directory of the mirrored uploads.
+     * @param minLength         Minimum length of a photo worth mirroring.
+     * @param timeToLiveSeconds Seconds a suspended upload is kept.
+     * @param budget            Maximum number of bytes of the suspended uploads, 0 disables the staging.
+     * @throws UncheckedIOException If the directory could not be prepared.
+     */
+    public PartialUploads(Path directory, long minLength, int timeToLiveSeconds, long budget) {
+        this(directory, minLength, timeToLiveSeconds, budget, budget > 0 ? createDeleter() : Runnable::run);
+    }
+
+    /**
+     * @param directory         Directory of the mirrored uploads.
+     * @param minLength         Minimum length of a photo worth mirroring.
+     * @param timeToLiveSeconds Seconds a suspended upload is kept.
+     * @param budget            Maximum number of bytes of the suspended uploads, 0 disables the staging.
+     * @param deleter           Deletes the files of the dropped uploads.
+     * @throws UncheckedIOException If the directory could not be prepared.
+     */
+    PartialUploads(Path directory, long minLength, int timeToLiveSeconds, long budget, Executor deleter) {
+        this.directory = directory.toAbsolutePath();
+        this.minLength = minLength;
+        this.timeToLive = timeToLiveSeconds * 1_000_000_000L;
+        this.budget = budget;
+        this.deleter = deleter;
+        if (budget > 0) {
+            this.prepareDirectory();
+        }
+    }
+
+    /**
+     * Files left behind when the server stops are deleted by the next run, so the thread does not hold it up.
+     */
+    private static Executor createDeleter() {
+        return Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "partial-upload-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void prepareDirectory() {
+        try {
+            Files.createDirectories(this.directory);
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(this.directory, "*" + SUFFIX)) {
+                for (Path path : stale) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not prepare partial upload directory " + this.directory, e);
+        }
+    }
+
+    /**
+     * @return Can the robots resume their uploads?
+     */
+    public boolean isEnabled() {
+        return this.budget > 0;
+    }
+
+    /**
+     * Starts mirroring a new upload. A suspended upload of the same photo is dropped, the robot sends it anew.
+     *
+     * @param login  Login of the robot.
+     * @param length Declared length of the photo.
+     * @return The mirrored upload, null if the photo is too short.
+     */
+    public PartialUpload start(String login, int length) {
+        if (!this.isEnabled() || length < this.minLength) {
+            return null;
+        }
+        String key = key(login, length);
+        PartialUpload previous;
+        synchronized (this) {
+            previous = this.suspended.remove(key);
+            if (previous != null) {
+                this.suspendedBytes -= previous.getReceived();
+            }
+        }
+        if (previous != null) {
+            this.delete(previous);
+        }
+
+        return new PartialUpload(key, this.directory.resolve(this.sequence.incrementAndGet() + SUFFIX));
+    }
+
+    /**
+     * @param login  Login of the robot.
+     * @param length Declared length of the photo.
+     * @return Number of bytes of the photo received before, 0 if none are kept.
+     */
+    public long offset(String login, int length) {
+        List<PartialUpload> dropped = new ArrayList<>();
+        PartialUpload upload;
+        synchronized (this) {
+            this.expire(System.nanoTime(), dropped);
+            upload = this.suspended.get(key(login, length));
+        }
+        this.delete(dropped);
+        return upload == null ? 0 : upload.getReceived();
+    }
+
+    /**
+     * Takes over a suspended upload to receive the rest of the photo.
+     *
+     * @param login  Login of the robot.
+     * @param length Declared length of the photo.
+     * @param offset Number of bytes the robot skips.
+     * @return The upload, null if no upload of the photo with exactly so many bytes is kept.
+     */
+    public PartialUpload resume(String login, int length, long offset) {
+        List<PartialUpload> dropped = new ArrayList<>();
+        String key = key(login, length);
+        PartialUpload upload;
+        synchronized (this) {
+            this.expire(System.nanoTime(), dropped);
+            upload = this.suspended.get(key);
+            if (upload != null && upload.getReceived() == offset) {
+                this.suspended.remove(key);
+                this.suspendedBytes -= upload.getReceived();
+            } else {
+                upload = null;
+            }
+        }
+        this.delete(dropped);
+        return upload;
+    }
+
+    /**
+     * Keeps an upload cut off by a disconnect. Called once the mirrored bytes are written,
+     * a robot asking for the offset before gets 0 and sends the whole photo.
+     *
+     * @param upload   The upload.
+     * @param checksum Checksum of the bytes received so far.
+     */
+    public void suspend(PartialUpload upload, long checksum) {
+        this.closeChannel(upload);
+        if (upload.isBroken() || upload.getReceived() == 0) {
+            this.delete(upload);
+            return;
+        }
+
+        long now = System.nanoTime();
+        upload.suspended(checksum, now);
+        List<PartialUpload> dropped = new ArrayList<>();
+        synchronized (this) {
+            PartialUpload previous = this.suspended.remove(upload.getKey());
+            if (previous != null) {
+                this.suspendedBytes -= previous.getReceived();
+                dropped.add(previous);
+            }
+            this.suspended.put(upload.getKey(), upload);
+            this.suspendedBytes += upload.getReceived();
+            this.expire(now, dropped);
+            this.evict(dropped);
+        }
+        this.delete(dropped);
+    }
+
+    /**
+     * Deletes the mirror of a photo received completely.
+     *
+     * @param upload The upload.
+     */
+    public void complete(PartialUpload upload) {
+        this.closeChannel(upload);
+        this.delete(upload);
+    }
+
+    /**
+     * Drops the uploads suspended longer than their time to live, the oldest are at the head.
+     *
+     * @param now     Current time in nanoseconds.
+     * @param dropped Receives the dropped uploads, whose files are to be deleted.
+     */
+    private void expire(long now, List<PartialUpload> dropped) {
+        Iterator<PartialUpload> iterator = this.suspended.values().iterator();
+        while (iterator.hasNext()) {
+            PartialUpload upload = iterator.next();
+            if (now - upload.getSuspendedAt() < this.timeToLive) {
+                break;
+            }
+            iterator.remove();
+            this.suspendedBytes -= upload.getReceived();
+            dropped.add(upload);
+        }
+    }
+
+    /**
+     * Drops the oldest uploads until the rest fits the budget.
+     *
+     * @param dropped Receives the dropped uploads, whose files are to be deleted.
+     */
+    private void evict(List<PartialUpload> dropped) {
+        Iterator<PartialUpload> iterator = this.suspended.values().iterator();
+        while (this.suspendedBytes > this.budget && iterator.hasNext()) {
+            PartialUpload upload = iterator.next();
+            iterator.remove();
+            this.suspendedBytes -= upload.getReceived();
+            dropped.add(upload);
+        }
+    }
+
+    private void closeChannel(PartialUpload upload) {
+        try {
+            upload.closeChannel();
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not close partial upload: {}", ex);
+        }
+    }
+
+    private void delete(List<PartialUpload> uploads) {
+        if (!uploads.isEmpty()) {
+            this.deleter.execute(() -> uploads.forEach(PartialUploads::deleteFile));
+        }
+    }
+
+    private void delete(PartialUpload upload) {
+        this.deleter.execute(() -> deleteFile(upload));
+    }
+
+    private static void deleteFile(PartialUpload upload) {
+        try {
+            Files.deleteIfExists(upload.getPath());
+        } catch (IOException ex) {
+            Log.error(Log.NO_CLIENT, "Could not delete partial upload: {}", ex);
+        }
+    }
+
+    private static String key(String login, int length) {
+        return length + "/" + login;
+    }
+}